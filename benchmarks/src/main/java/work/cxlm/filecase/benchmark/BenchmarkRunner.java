@@ -0,0 +1,62 @@
+package work.cxlm.filecase.benchmark;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.File;
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
+/**
+ * 基准测试入口，参数与 JMH 自带的 Main 相同，如 {@code java -jar benchmarks.jar MultiStringCache -f 1}
+ * <p>
+ * 未指定 -rf、-rff 时结果以 JSON 写入 jmh-result/{版本号}-{时间}.json，便于在版本之间对比；
+ * 未指定 -prof 时附带 GC 分析器，结果中包含每次操作的内存分配（gc.alloc.rate.norm）
+ * create 2021/5/20 10:30
+ *
+ * @author Chiru
+ */
+public class BenchmarkRunner {
+
+    private static final String RESULT_DIRECTORY = "jmh-result";
+    private static final String UNKNOWN_VERSION = "dev";
+
+    public static void main(String[] args) throws RunnerException, CommandLineOptionException, IOException {
+        CommandLineOptions commandLine = new CommandLineOptions(args);
+        if (commandLine.shouldHelp() || commandLine.shouldList() || commandLine.shouldListProfilers()
+                || commandLine.shouldListResultFormats() || commandLine.shouldListWithParams()) {
+            // 帮助、列表等非运行类的参数交给 JMH 处理
+            org.openjdk.jmh.Main.main(args);
+            return;
+        }
+        ChainedOptionsBuilder builder = new OptionsBuilder().parent(commandLine);
+        if (!commandLine.getResultFormat().hasValue()) {
+            builder.resultFormat(ResultFormatType.JSON);
+        }
+        if (!commandLine.getResult().hasValue()) {
+            builder.result(defaultResultFile(commandLine.getResultFormat().orElse(ResultFormatType.JSON)));
+        }
+        if (commandLine.getProfilers().isEmpty()) {
+            builder.addProfiler(GCProfiler.class);
+        }
+        new Runner(builder.build()).run();
+    }
+
+    private static String defaultResultFile(ResultFormatType format) {
+        File directory = new File(RESULT_DIRECTORY);
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IllegalStateException("无法创建结果目录: " + directory.getAbsolutePath());
+        }
+        String version = BenchmarkRunner.class.getPackage().getImplementationVersion();
+        String time = new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date());
+        String fileName = (null == version ? UNKNOWN_VERSION : version) + "-" + time + "." + format.name().toLowerCase();
+        return new File(directory, fileName).getPath();
+    }
+}
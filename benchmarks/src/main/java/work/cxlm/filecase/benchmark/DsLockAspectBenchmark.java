@@ -0,0 +1,102 @@
+package work.cxlm.filecase.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import org.springframework.aop.aspectj.annotation.AspectJProxyFactory;
+import org.springframework.context.support.GenericApplicationContext;
+import work.cxlm.filecase.benchmark.support.InMemoryJedisPool;
+import work.cxlm.filecase.domain.Folder;
+import work.cxlm.filecase.lock.DsLock;
+import work.cxlm.filecase.lock.helper.DsLockAspect;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * DsLockAspect 加解锁的额外耗时，redis 由进程内的 {@link InMemoryJedisPool} 代替，
+ * 结果与 direct 的差值即为切面本身（键表达式求值、锁对象构造、日志等）的开销；
+ * tryLockByProperty 的键名表达式访问参数的属性；reentrant 经代理递归调用自身 {@value #REENTRANT_DEPTH} 层，内层重入外层持有的锁
+ * create 2021/5/20 11:58
+ *
+ * @author Chiru
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DsLockAspectBenchmark {
+
+    private static final int REENTRANT_DEPTH = 4;
+
+    private GenericApplicationContext context;
+    private FolderRenamer target;
+    private FolderRenamer proxy;
+    private Folder folder;
+
+    @Setup
+    public void setUp() {
+        context = InMemoryJedisPool.install();
+
+        target = new FolderRenamer();
+        AspectJProxyFactory factory = new AspectJProxyFactory(target);
+        factory.addAspect(new DsLockAspect());
+        proxy = factory.getProxy();
+        target.self = proxy;
+        folder = Folder.builder().id(42).folderName("文档").creatorId(1).build();
+    }
+
+    @TearDown
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public int direct() {
+        return target.rename(42, "文档");
+    }
+
+    @Benchmark
+    public int tryLock() {
+        return proxy.rename(42, "文档");
+    }
+
+    @Benchmark
+    public int tryLockByProperty() {
+        return proxy.move(folder, 7);
+    }
+
+    @Benchmark
+    public int blockingLock() {
+        return proxy.renameBlocking(42, "文档");
+    }
+
+    @Benchmark
+    public int reentrant() {
+        return proxy.renameTree(42, REENTRANT_DEPTH);
+    }
+
+    public static class FolderRenamer {
+
+        private FolderRenamer self;
+
+        @DsLock(name = "#folderId", block = false)
+        public int rename(int folderId, String folderName) {
+            return folderId + folderName.length();
+        }
+
+        @DsLock(name = "#folder.id", block = false)
+        public int move(Folder folder, int parentId) {
+            return folder.getId() + parentId;
+        }
+
+        @DsLock(name = "#folderId")
+        public int renameBlocking(int folderId, String folderName) {
+            return folderId + folderName.length();
+        }
+
+        @DsLock(name = "#folderId")
+        public int renameTree(int folderId, int depth) {
+            return depth == 0 ? folderId : self.renameTree(folderId, depth - 1) + 1;
+        }
+    }
+}
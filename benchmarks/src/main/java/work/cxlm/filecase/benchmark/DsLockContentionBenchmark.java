@@ -0,0 +1,94 @@
+package work.cxlm.filecase.benchmark;
+
+import com.google.common.util.concurrent.Striped;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.springframework.aop.aspectj.annotation.AspectJProxyFactory;
+import org.springframework.context.support.GenericApplicationContext;
+import work.cxlm.filecase.benchmark.support.InMemoryJedisPool;
+import work.cxlm.filecase.lock.DsLock;
+import work.cxlm.filecase.lock.helper.DsLockAspect;
+import work.cxlm.filecase.lock.helper.LockReleaseNotifier;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 一个节点上的多个线程经 DsLockAspect 竞争同一个键时，每次调用访问 redis 的次数
+ * <p>
+ * 辅助计数 redisCommands 与吞吐量之比即为每次调用的命令数：local 为 true 时线程先在进程内排队，
+ * 每次调用约为加锁、解锁两条脚本；为 false 时每次释放都会唤醒全部等待的线程到 redis 上重试。
+ * 每条命令有 100us 的模拟往返，释放通知为同一进程内的交接
+ * create 2021/5/22 10:12
+ *
+ * @author Chiru
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(8)
+@Fork(1)
+public class DsLockContentionBenchmark {
+
+    private static final Duration REDIS_ROUND_TRIP = Duration.ofNanos(100_000);
+    private static final int LOCAL_STRIPES = 1024;
+
+    /**
+     * 临界区与两次调用之间的工作量，各约数微秒
+     */
+    private static final long CRITICAL_SECTION_TOKENS = 1000;
+    private static final long OUTSIDE_LOCK_TOKENS = 1000;
+
+    @Param({"true", "false"})
+    public boolean local;
+
+    private GenericApplicationContext context;
+    private FolderRenamer proxy;
+
+    @Setup
+    public void setUp() {
+        context = InMemoryJedisPool.install(REDIS_ROUND_TRIP);
+        LockReleaseNotifier.setCurrent(new LockReleaseNotifier(null, Duration.ofMillis(500)));
+
+        DsLockAspect aspect = new DsLockAspect();
+        if (local) {
+            aspect.setLocalLocks(Striped.lock(LOCAL_STRIPES));
+        }
+        AspectJProxyFactory factory = new AspectJProxyFactory(new FolderRenamer());
+        factory.addAspect(aspect);
+        proxy = factory.getProxy();
+    }
+
+    @TearDown
+    public void tearDown() {
+        LockReleaseNotifier.setCurrent(null);
+        context.close();
+    }
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Commands {
+
+        public long redisCommands;
+    }
+
+    @Benchmark
+    public int rename(Commands commands) {
+        long before = InMemoryJedisPool.commandCountOnCurrentThread();
+        int result = proxy.rename(42, "文档");
+        commands.redisCommands += InMemoryJedisPool.commandCountOnCurrentThread() - before;
+        Blackhole.consumeCPU(OUTSIDE_LOCK_TOKENS);
+        return result;
+    }
+
+    public static class FolderRenamer {
+
+        @DsLock(name = "#folderId", timeout = 10_000)
+        public int rename(int folderId, String folderName) {
+            Blackhole.consumeCPU(CRITICAL_SECTION_TOKENS);
+            return folderId + folderName.length();
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package work.cxlm.filecase.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 基准测试使用的缓存值，模拟一个文件夹及其文件列表
+ * create 2021/5/20 10:40
+ *
+ * @author Chiru
+ */
+public class FolderView {
+
+    public String folderName;
+    public List<FileEntry> files = new ArrayList<>();
+
+    public static FolderView mock(int fileCount) {
+        FolderView view = new FolderView();
+        view.folderName = "root";
+        for (int i = 0; i < fileCount; i++) {
+            FileEntry entry = new FileEntry();
+            entry.id = (long) i;
+            entry.filename = "file-" + i + ".pdf";
+            entry.fileSize = 1024L * i;
+            view.files.add(entry);
+        }
+        return view;
+    }
+
+    public static class FileEntry {
+        public Long id;
+        public String filename;
+        public Long fileSize;
+    }
+}
@@ -0,0 +1,71 @@
+package work.cxlm.filecase.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import work.cxlm.filecase.domain.Folder;
+import work.cxlm.filecase.enums.LimitLevel;
+import work.cxlm.filecase.redis.util.JacksonUtil;
+
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JacksonUtil 序列化、反序列化的耗时，缓存值与缓存键都经过这里
+ * create 2021/5/20 11:10
+ *
+ * @author Chiru
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class JacksonUtilBenchmark {
+
+    private Folder folder;
+    private String folderJson;
+    private FolderView view;
+    private String viewJson;
+    private Object[] args;
+
+    @Setup
+    public void setUp() {
+        folder = Folder.builder()
+                .id(42)
+                .folderName("文档")
+                .createDate(new Date())
+                .creatorId(1)
+                .limitLevel(LimitLevel.PWD_PROTECTED_READ)
+                .build();
+        folderJson = JacksonUtil.objectToString(folder);
+        view = FolderView.mock(50);
+        viewJson = JacksonUtil.objectToString(view);
+        // 与 MultiCacheAspect 未指定 key 时以参数数组作为缓存键的情况一致
+        args = new Object[]{42, "文档"};
+    }
+
+    @Benchmark
+    public String folderToString() {
+        return JacksonUtil.objectToString(folder);
+    }
+
+    @Benchmark
+    public Folder stringToFolder() {
+        return JacksonUtil.jsonToObject(folderJson, Folder.class);
+    }
+
+    @Benchmark
+    public String viewToString() {
+        return JacksonUtil.objectToString(view);
+    }
+
+    @Benchmark
+    public FolderView stringToView() {
+        return JacksonUtil.jsonToObject(viewJson, FolderView.class);
+    }
+
+    @Benchmark
+    public String argsToKey() {
+        return JacksonUtil.objectToString(args);
+    }
+}
@@ -0,0 +1,68 @@
+package work.cxlm.filecase.benchmark;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.openjdk.jmh.annotations.*;
+import work.cxlm.filecase.domain.Folder;
+import work.cxlm.filecase.domain.User;
+import work.cxlm.filecase.enums.LimitLevel;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * LimitLevel 权限判定的耗时，带密码的判定包含一次 MD5
+ * create 2021/5/20 11:35
+ *
+ * @author Chiru
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LimitLevelBenchmark {
+
+    private static final String PWD = "123456";
+
+    @Param({"COMPLETE_OPEN", "PWD_PROTECTED_OPEN", "READ_FREE", "PWD_PROTECTED_READ", "CREATOR_ONLY"})
+    public LimitLevel limitLevel;
+
+    private final User creator = new User(1, "admin", null);
+    private final User other = new User(2, "guest", null);
+    private Folder folder;
+
+    @Setup
+    public void setUp() {
+        folder = Folder.builder()
+                .id(42)
+                .creatorId(creator.getId())
+                .limitLevel(limitLevel)
+                .pwd(DigestUtils.md5Hex(PWD))
+                .build();
+    }
+
+    @Benchmark
+    public boolean creatorCanRead() {
+        return LimitLevel.canUserRead(creator, folder);
+    }
+
+    @Benchmark
+    public boolean anonymousCanRead() {
+        return LimitLevel.canUserRead(User.ANONYMOUS_USER, folder);
+    }
+
+    @Benchmark
+    public boolean otherCanReadWithPwd() {
+        return LimitLevel.canUserRead(other, folder, PWD);
+    }
+
+    @Benchmark
+    public boolean creatorCanWrite() {
+        return LimitLevel.canUserWrite(creator, folder);
+    }
+
+    @Benchmark
+    public boolean otherCanWriteWithPwd() {
+        return LimitLevel.canUserWrite(other, folder, PWD);
+    }
+}
@@ -0,0 +1,96 @@
+package work.cxlm.filecase.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import work.cxlm.filecase.benchmark.support.InMemoryRemoteCacheLayer;
+import work.cxlm.filecase.cache.AbstractLocalCacheLayer;
+import work.cxlm.filecase.cache.AbstractStringCacheLayer;
+import work.cxlm.filecase.cache.CacheLayerBuilder;
+import work.cxlm.filecase.cache.MultiStringCache;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * MultiStringCache 在不同缓存层组合下的读写耗时，remote 为进程内代替 redis 的远程缓存层
+ * <p>
+ * storeByReference 为 false 时本地缓存层也经过 JSON 编解码，用于对比字符串路径与对象引用路径；
+ * 为 true 时 FolderView 声明为按引用存储的类型，基准中不会修改取出的对象
+ * create 2021/5/20 10:52
+ *
+ * @author Chiru
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MultiStringCacheBenchmark {
+
+    private static final String REMOTE_LAYER = "remote";
+    private static final String HIT_KEY = "bench:hit";
+    private static final String STRING_KEY = "bench:string";
+    private static final String WRITE_KEY = "bench:write";
+
+    /**
+     * 与 cache.layers 相同，从下层到上层
+     */
+    @Param({"caffeine", "guava", "remote", "remote,caffeine", "remote,guava"})
+    public String layers;
+
+    @Param({"true", "false"})
+    public boolean storeByReference;
+
+    private MultiStringCache cache;
+    private FolderView view;
+
+    @Setup
+    public void setUp() {
+        List<AbstractStringCacheLayer> layerList = new ArrayList<>();
+        for (String layerName : layers.split(",")) {
+            AbstractStringCacheLayer layer = REMOTE_LAYER.equals(layerName) ?
+                    new InMemoryRemoteCacheLayer() : CacheLayerBuilder.buildStringCacheLayer(layerName);
+            if (layer instanceof AbstractLocalCacheLayer) {
+                ((AbstractLocalCacheLayer) layer).setStoreByReference(storeByReference);
+                ((AbstractLocalCacheLayer) layer).setReferenceTypes(Collections.singleton(FolderView.class));
+            }
+            layerList.add(layer);
+        }
+        cache = new MultiStringCache(layerList);
+        view = FolderView.mock(50);
+        cache.setAny(HIT_KEY, view);
+        cache.set(STRING_KEY, "folder-name");
+    }
+
+    @TearDown
+    public void tearDown() {
+        cache.shutdown();
+    }
+
+    @Benchmark
+    public FolderView getAnyHit() {
+        return cache.getAnyCache(HIT_KEY, FolderView.class);
+    }
+
+    @Benchmark
+    public FolderView getAnyWithLoaderHit() {
+        return cache.getAny(HIT_KEY, FolderView.class, () -> view);
+    }
+
+    @Benchmark
+    public String getStringHit() {
+        return cache.getCache(STRING_KEY);
+    }
+
+    @Benchmark
+    public void setAny() {
+        cache.setAny(WRITE_KEY, view);
+    }
+
+    @Benchmark
+    public void setString() {
+        cache.set(WRITE_KEY, "folder-name");
+    }
+}
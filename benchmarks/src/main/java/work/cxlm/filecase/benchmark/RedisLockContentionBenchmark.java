@@ -0,0 +1,89 @@
+package work.cxlm.filecase.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.springframework.context.support.GenericApplicationContext;
+import work.cxlm.filecase.benchmark.support.InMemoryJedisPool;
+import work.cxlm.filecase.lock.RedisLock;
+import work.cxlm.filecase.lock.helper.LockReleaseNotifier;
+import work.cxlm.filecase.lock.helper.LockType;
+import work.cxlm.filecase.lock.helper.RejectionPolicy;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 多个线程竞争同一把 RedisLock 时，每次加锁、执行临界区、解锁的耗时分布，
+ * 与单线程运行（-t 1）时的差值即为锁的交接延迟
+ * <p>
+ * 每条 redis 命令有 100us 的模拟往返；notification 为等待释放通知（同一进程内的交接，不含发布订阅的往返），
+ * polling 为随机休眠 0 ~ 100ms 轮询
+ * create 2021/5/20 16:20
+ *
+ * @author Chiru
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(4)
+@Fork(1)
+public class RedisLockContentionBenchmark {
+
+    private static final String LOCK_NAME = "lock.FolderService.rename.42";
+    private static final long EXPIRE_SECONDS = 10;
+    private static final long WAIT_SECONDS = 10;
+
+    private static final Duration REDIS_ROUND_TRIP = Duration.ofNanos(100_000);
+
+    /**
+     * 临界区与两次加锁之间的工作量，各约数微秒
+     */
+    private static final long CRITICAL_SECTION_TOKENS = 1000;
+    private static final long OUTSIDE_LOCK_TOKENS = 1000;
+
+    @Param({"notification", "polling"})
+    public String waitStrategy;
+
+    private GenericApplicationContext context;
+
+    @Setup
+    public void setUp() {
+        context = InMemoryJedisPool.install(REDIS_ROUND_TRIP);
+        LockReleaseNotifier.setCurrent("notification".equals(waitStrategy) ?
+                new LockReleaseNotifier(null, Duration.ofMillis(500)) : null);
+    }
+
+    @TearDown
+    public void tearDown() {
+        LockReleaseNotifier.setCurrent(null);
+        context.close();
+    }
+
+    @State(Scope.Thread)
+    public static class Holder {
+
+        private RedisLock lock;
+
+        @Setup
+        public void setUp() {
+            // 每个线程的锁值不同，与不同主机、线程加锁的情况一致
+            lock = new RedisLock(LOCK_NAME, "bench_" + Thread.currentThread().getId() + "_", EXPIRE_SECONDS,
+                    null, RejectionPolicy.ABORT, LockType.AUTO);
+        }
+    }
+
+    @Benchmark
+    public void lockUnlock(Holder holder) throws InterruptedException {
+        if (!holder.lock.tryLock(WAIT_SECONDS, TimeUnit.SECONDS)) {
+            throw new IllegalStateException("等待锁超时");
+        }
+        try {
+            Blackhole.consumeCPU(CRITICAL_SECTION_TOKENS);
+        } finally {
+            holder.lock.unlock();
+        }
+        Blackhole.consumeCPU(OUTSIDE_LOCK_TOKENS);
+    }
+}
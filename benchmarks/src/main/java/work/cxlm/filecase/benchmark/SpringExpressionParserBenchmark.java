@@ -0,0 +1,56 @@
+package work.cxlm.filecase.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import work.cxlm.filecase.domain.Folder;
+import work.cxlm.filecase.domain.User;
+import work.cxlm.filecase.util.SpringExpressionParser;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * SpringExpressionParser 对 DsLock、MultiCacheable 键表达式的求值耗时，表达式的解析结果已缓存
+ * create 2021/5/20 11:22
+ *
+ * @author Chiru
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SpringExpressionParserBenchmark {
+
+    private Map<String, Object> variables;
+
+    @Setup
+    public void setUp() {
+        Folder folder = Folder.builder().id(42).folderName("文档").creatorId(1).build();
+        variables = new HashMap<>();
+        variables.put("id", 42);
+        variables.put("folder", folder);
+        variables.put("user", new User(1, "admin", null));
+    }
+
+    @Benchmark
+    public String variable() {
+        return SpringExpressionParser.parse("#id", variables);
+    }
+
+    @Benchmark
+    public String property() {
+        return SpringExpressionParser.parse("#folder.id", variables);
+    }
+
+    @Benchmark
+    public String concat() {
+        return SpringExpressionParser.parse("#folder.id + ':' + #user.id", variables);
+    }
+
+    @Benchmark
+    public Boolean condition() {
+        return SpringExpressionParser.parse("#folder.creatorId == #user.id", Boolean.class, variables);
+    }
+}
@@ -0,0 +1,40 @@
+package work.cxlm.filecase.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import work.cxlm.filecase.enums.LimitLevel;
+import work.cxlm.filecase.enums.ValueEnum;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ValueEnum.valueToEnum 按编码查找枚举实例的耗时
+ * create 2021/5/20 11:44
+ *
+ * @author Chiru
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ValueEnumBenchmark {
+
+    /**
+     * 分别为第一个与最后一个枚举值
+     */
+    @Param({"1", "5"})
+    public int value;
+
+    private Integer boxedValue;
+
+    @Setup
+    public void setUp() {
+        boxedValue = value;
+    }
+
+    @Benchmark
+    public LimitLevel valueToEnum() {
+        return ValueEnum.valueToEnum(LimitLevel.class, boxedValue);
+    }
+}
@@ -0,0 +1,186 @@
+package work.cxlm.filecase.benchmark.support;
+
+import org.apache.commons.pool2.impl.GenericObjectPoolConfig;
+import org.springframework.context.support.GenericApplicationContext;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisShardInfo;
+import redis.clients.jedis.ShardedJedis;
+import redis.clients.jedis.ShardedJedisPool;
+import work.cxlm.filecase.lock.helper.LockScript;
+import work.cxlm.filecase.util.SpringContextUtils;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 代替 masterJedisPool、slaveJedisPool 的连接池，RedisLock 用到的 EXISTS 与 {@link LockScript} 中的脚本在进程内完成
+ * <p>
+ * 不处理过期时间，基准测试中的锁都会在方法返回后释放；可以为每条命令（每次脚本执行）加上固定的延迟，模拟与 redis 的往返
+ * create 2021/5/20 10:18
+ *
+ * @author Chiru
+ */
+public class InMemoryJedisPool extends ShardedJedisPool {
+
+    /**
+     * 各线程执行的命令数
+     */
+    private static final ThreadLocal<long[]> COMMAND_COUNT = ThreadLocal.withInitial(() -> new long[1]);
+
+    private final InMemoryShardedJedis jedis;
+
+    public InMemoryJedisPool() {
+        this(Duration.ZERO);
+    }
+
+    /**
+     * @param latency 每条命令的延迟
+     */
+    public InMemoryJedisPool(Duration latency) {
+        // 连接池本身不会被使用，最小空闲数为 0，不会建立连接
+        super(new GenericObjectPoolConfig<ShardedJedis>(), Collections.singletonList(new JedisShardInfo("localhost")));
+        this.jedis = new InMemoryShardedJedis(latency.toNanos());
+    }
+
+    /**
+     * 以 masterJedisPool、slaveJedisPool 注册到新的 ApplicationContext，并交给 SpringContextUtils，
+     * 两个名称对应同一个实例，RedisProxyUtil 从 slave 读取时能读到 master 的写入
+     *
+     * @return 已刷新的 ApplicationContext，基准测试结束时关闭
+     */
+    public static GenericApplicationContext install() {
+        return install(Duration.ZERO);
+    }
+
+    /**
+     * 同 {@link #install()}，每条命令有固定的延迟
+     *
+     * @param latency 每条命令的延迟
+     * @return 已刷新的 ApplicationContext
+     */
+    public static GenericApplicationContext install(Duration latency) {
+        GenericApplicationContext context = new GenericApplicationContext();
+        context.registerBean("masterJedisPool", ShardedJedisPool.class, () -> new InMemoryJedisPool(latency));
+        context.registerAlias("masterJedisPool", "slaveJedisPool");
+        context.refresh();
+        new SpringContextUtils().setApplicationContext(context);
+        return context;
+    }
+
+    /**
+     * 当前线程至今执行的命令（含脚本）数，与之前的值相减得到一段调用访问 redis 的次数
+     *
+     * @return 命令数
+     */
+    public static long commandCountOnCurrentThread() {
+        return COMMAND_COUNT.get()[0];
+    }
+
+    @Override
+    public ShardedJedis getResource() {
+        return jedis;
+    }
+
+    private static class InMemoryShardedJedis extends ShardedJedis {
+
+        private final InMemoryJedis shard;
+
+        private InMemoryShardedJedis(long latencyNanos) {
+            super(Collections.singletonList(new JedisShardInfo("localhost")));
+            this.shard = new InMemoryJedis(latencyNanos);
+        }
+
+        @Override
+        public Jedis getShard(String key) {
+            return shard;
+        }
+
+        @Override
+        public Boolean exists(String key) {
+            return shard.exists(key);
+        }
+
+        @Override
+        public void close() {
+            // 没有真实的连接需要归还
+        }
+    }
+
+    /**
+     * 锁为持有者到重入次数的 hash，按 sha1 识别脚本，在 store 的监视器内执行，与 redis 一样原子
+     */
+    private static class InMemoryJedis extends Jedis {
+
+        private static final long LOCKED = 1L;
+        private static final long NOT_LOCKED = 0L;
+        private static final long NOT_HELD = -1L;
+
+        private final Map<String, Map<String, Long>> store = new HashMap<>();
+        private final long latencyNanos;
+
+        private InMemoryJedis(long latencyNanos) {
+            this.latencyNanos = latencyNanos;
+        }
+
+        @Override
+        public Object evalsha(String sha1, List<String> keys, List<String> args) {
+            roundTrip();
+            synchronized (store) {
+                if (LockScript.ACQUIRE.getSha1().equals(sha1)) {
+                    return acquire(keys.get(0), args.get(1));
+                }
+                if (LockScript.RELEASE.getSha1().equals(sha1)) {
+                    return release(keys.get(0), args.get(0));
+                }
+                List<Long> renewed = new ArrayList<>(keys.size());
+                for (int i = 0; i < keys.size(); i++) {
+                    Map<String, Long> holders = store.get(keys.get(i));
+                    renewed.add(null != holders && holders.containsKey(args.get(i + 1)) ? LOCKED : NOT_LOCKED);
+                }
+                return renewed;
+            }
+        }
+
+        @Override
+        public Boolean exists(String key) {
+            roundTrip();
+            synchronized (store) {
+                return store.containsKey(key);
+            }
+        }
+
+        private long acquire(String key, String owner) {
+            Map<String, Long> holders = store.computeIfAbsent(key, k -> new HashMap<>());
+            if (!holders.isEmpty() && !holders.containsKey(owner)) {
+                return NOT_LOCKED;
+            }
+            holders.merge(owner, 1L, Long::sum);
+            return LOCKED;
+        }
+
+        private long release(String key, String owner) {
+            Map<String, Long> holders = store.get(key);
+            if (null == holders || !holders.containsKey(owner)) {
+                return NOT_HELD;
+            }
+            long count = holders.merge(owner, -1L, Long::sum);
+            if (count > 0) {
+                return count;
+            }
+            store.remove(key);
+            return NOT_LOCKED;
+        }
+
+        private void roundTrip() {
+            COMMAND_COUNT.get()[0]++;
+            if (latencyNanos > 0) {
+                LockSupport.parkNanos(latencyNanos);
+            }
+        }
+    }
+}
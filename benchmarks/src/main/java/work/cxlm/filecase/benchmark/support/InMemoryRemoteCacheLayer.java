@@ -0,0 +1,65 @@
+package work.cxlm.filecase.benchmark.support;
+
+import work.cxlm.filecase.cache.AbstractStringCacheLayer;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 代替 redis 的远程缓存层，值以编码后的字符串保存在进程内
+ * <p>
+ * 保留了远程缓存层的编解码开销，不包含网络往返，用于衡量 MultiStringCache 本身的开销
+ * create 2021/5/20 10:05
+ *
+ * @author Chiru
+ */
+public class InMemoryRemoteCacheLayer extends AbstractStringCacheLayer {
+
+    private final Map<String, String> store = new ConcurrentHashMap<>();
+
+    @Override
+    protected void putInternal(String key, String value) {
+        store.put(key, value);
+        statsCounter.recordPuts(1);
+    }
+
+    @Override
+    protected String getInternal(String key) {
+        String value = store.get(key);
+        if (null == value) {
+            statsCounter.recordMisses(1);
+        } else {
+            statsCounter.recordHits(1);
+        }
+        return value;
+    }
+
+    @Override
+    public Map<String, String> getAll(Collection<String> keys) {
+        Map<String, String> result = new HashMap<>(keys.size());
+        for (String key : keys) {
+            String value = getInternal(key);
+            if (null != value) {
+                result.put(key, value);
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public void delete(String key) {
+        store.remove(key);
+    }
+
+    @Override
+    public void clear() {
+        store.clear();
+    }
+
+    @Override
+    public String getLayerName() {
+        return "remote";
+    }
+}
@@ -0,0 +1,451 @@
+package work.cxlm.filecase.cache;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.springframework.util.ClassUtils;
+import work.cxlm.filecase.cache.config.MultiCacheProperties;
+import work.cxlm.filecase.redis.util.JacksonUtil;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.BiFunction;
+
+/**
+ * 本地（堆内）缓存层，不可变的值直接持有对象引用，getAny/putAny 不再经过 JSON 序列化
+ * <p>
+ * 按引用存储的对象与其它线程共享，因此只对字符串、基本类型包装类、枚举、BigDecimal、BigInteger
+ * 以及通过 {@link #setReferenceTypes(Set)} 声明为不可变的类型生效；其它对象编码后存储，每次读取都解码出新的对象，
+ * 使用方修改取出的对象不会影响缓存。通过 {@link #setStoreByReference(boolean)} 可完全关闭按引用存储
+ * <p>
+ * 空值存放在独立的负缓存中，使用 nullTtl 作为存活时间，不占用正常缓存项的容量
+ * create 2021/5/6 11:05
+ *
+ * @author Chiru
+ */
+public abstract class AbstractLocalCacheLayer extends AbstractStringCacheLayer {
+
+    /**
+     * 是否直接存储对象引用，为 false 时退化为与远程缓存层一致的字符串存储
+     */
+    private boolean storeByReference = true;
+
+    /**
+     * 额外按引用存储的值类型，使用方保证其实例不会被修改
+     */
+    private Set<Class<?>> referenceTypes = Collections.emptySet();
+
+    /**
+     * 刷新时从下层缓存重新加载的函数，参数为缓存键与旧值，由所属的 MultiStringCache 设置
+     */
+    private volatile BiFunction<String, Object, Object> reloader;
+
+    /**
+     * 缓存了空值的键，未开启负缓存时为 null
+     */
+    private final Cache<String, Boolean> negativeCache;
+
+    protected AbstractLocalCacheLayer(MultiCacheProperties.LayerProperties spec) {
+        configureExpiry(spec);
+        Duration nullTtl = spec.getNullTtl();
+        if (null == nullTtl || nullTtl.isZero() || nullTtl.isNegative()) {
+            negativeCache = null;
+        } else {
+            negativeCache = Caffeine.newBuilder()
+                    .maximumSize(spec.getMaximumSize())
+                    .expireAfterWrite(nullTtl)
+                    .build();
+        }
+    }
+
+    @Override
+    public Object lookupAny(String key, Class<?> type) {
+        Object valueObj = getObject(key);
+        if (null == valueObj) {
+            return isNegative(key) ? NullValue.INSTANCE : null;
+        }
+        return convert(valueObj, type);
+    }
+
+    @Override
+    public <K, V> void putAny(K key, V value) {
+        if (!storeByReference) {
+            super.putAny(key, value);
+            return;
+        }
+        String keyStr = JacksonUtil.objectToString(key);
+        if (null == value) {
+            delete(keyStr);
+            return;
+        }
+        if (NullValue.isNull(value)) {
+            putNull(keyStr);
+            return;
+        }
+        if (!isReferenceType(value)) {
+            putInternal(keyStr, codec.encode(value));
+            return;
+        }
+        statsCounter.recordPuts(1);
+        clearNegative(keyStr);
+        putObject(keyStr, value);
+    }
+
+    @Override
+    public Map<String, Object> lookupAllAny(Collection<String> keys, Class<?> type) {
+        Map<String, Object> objects = getAllObjects(keys);
+        Map<String, Object> result = new HashMap<>(keys.size());
+        objects.forEach((key, valueObj) -> {
+            Object value = convert(valueObj, type);
+            if (null != value) {
+                result.put(key, value);
+            }
+        });
+        addNegativeHits(keys, objects, result, NullValue.INSTANCE);
+        return result;
+    }
+
+    @Override
+    public void putAllAny(Map<String, ?> entries) {
+        if (!storeByReference) {
+            super.putAllAny(entries);
+            return;
+        }
+        Map<String, Object> toPut = new HashMap<>(entries.size());
+        entries.forEach((key, value) ->
+                toPut.put(key, null == value || NullValue.isNull(value) || isReferenceType(value) ? value : codec.encode(value)));
+        putAllNonNull(toPut);
+    }
+
+    @Override
+    public Map<String, String> getAll(Collection<String> keys) {
+        Map<String, Object> objects = getAllObjects(keys);
+        Map<String, String> result = new HashMap<>(keys.size());
+        objects.forEach((key, valueObj) ->
+                result.put(key, valueObj instanceof String ? (String) valueObj : codec.encode(valueObj)));
+        addNegativeHits(keys, objects, result, NullValue.SENTINEL);
+        return result;
+    }
+
+    @Override
+    public void putAll(Map<String, String> entries) {
+        putAllNonNull(entries);
+    }
+
+    @Override
+    public void putNull(String key) {
+        deleteObject(key);
+        if (null != negativeCache) {
+            negativeCache.put(key, Boolean.TRUE);
+        }
+    }
+
+    @Override
+    public void delete(String key) {
+        clearNegative(key);
+        deleteObject(key);
+    }
+
+    @Override
+    public void deleteAll(Collection<String> keys) {
+        if (null != negativeCache) {
+            negativeCache.invalidateAll(keys);
+        }
+        deleteAllObjects(keys);
+    }
+
+    @Override
+    public void clear() {
+        if (null != negativeCache) {
+            negativeCache.invalidateAll();
+        }
+        clearObjects();
+    }
+
+    /**
+     * 批量写入，值为 null 的键从缓存中删除，值为空值的键写入负缓存
+     */
+    private void putAllNonNull(Map<String, ?> entries) {
+        Map<String, Object> toPut = new HashMap<>(entries.size());
+        entries.forEach((key, value) -> {
+            if (null == value) {
+                delete(key);
+            } else if (NullValue.isNull(value)) {
+                putNull(key);
+            } else {
+                toPut.put(key, value);
+                if (value instanceof String) {
+                    statsCounter.recordValueSize(((String) value).length());
+                }
+            }
+        });
+        statsCounter.recordPuts(toPut.size());
+        if (null != negativeCache) {
+            negativeCache.invalidateAll(toPut.keySet());
+        }
+        putAllObjects(toPut);
+    }
+
+    @Override
+    protected void putInternal(String key, String value) {
+        if (null == value) {
+            delete(key);
+            return;
+        }
+        if (NullValue.SENTINEL.equals(value)) {
+            putNull(key);
+            return;
+        }
+        statsCounter.recordPuts(1);
+        statsCounter.recordValueSize(value.length());
+        clearNegative(key);
+        putObject(key, value);
+    }
+
+    @Override
+    protected String getInternal(String key) {
+        Object valueObj = getObject(key);
+        if (null == valueObj) {
+            return isNegative(key) ? NullValue.SENTINEL : null;
+        }
+        if (valueObj instanceof String) {
+            return (String) valueObj;
+        }
+        // 通过 putAny 按引用写入的对象，以字符串形式读取时才进行编码
+        return codec.encode(valueObj);
+    }
+
+    @Override
+    public boolean isLocal() {
+        return true;
+    }
+
+    public boolean isStoreByReference() {
+        return storeByReference;
+    }
+
+    public void setStoreByReference(boolean storeByReference) {
+        this.storeByReference = storeByReference;
+    }
+
+    public Set<Class<?>> getReferenceTypes() {
+        return referenceTypes;
+    }
+
+    public void setReferenceTypes(Set<Class<?>> referenceTypes) {
+        this.referenceTypes = referenceTypes;
+    }
+
+    /**
+     * 值是否可以按引用存储：不可变的常用类型，或声明为按引用存储的类型
+     */
+    private boolean isReferenceType(Object value) {
+        return value instanceof String || value instanceof Enum || value instanceof BigDecimal || value instanceof BigInteger
+                || ClassUtils.isPrimitiveOrWrapper(value.getClass()) || referenceTypes.contains(value.getClass());
+    }
+
+    /**
+     * 导出最常访问的缓存项，用于停机前保存快照，空值不导出
+     *
+     * @param limit 最多导出的数量
+     * @return 键与编码后的值及其剩余存活时间，按热度降序排列，缓存实现无法提供热度时顺序不定
+     */
+    public Map<String, TimedValue> exportHottest(int limit) {
+        Map<String, TimedValue> result = new LinkedHashMap<>();
+        hottestObjects(limit).forEach((key, valueObj) -> {
+            if (!NullValue.SENTINEL.equals(valueObj)) {
+                String value = valueObj instanceof String ? (String) valueObj : codec.encode(valueObj);
+                result.put(key, new TimedValue(value, remainingTtlMillis(key)));
+            }
+        });
+        return result;
+    }
+
+    /**
+     * 只写入本层不存在的键，已有的值与空值保持不变，用于启动后在后台从快照恢复，不覆盖启动以来写入的新值
+     * <p>
+     * 剩余存活时间已知的缓存项只存活剩余的时间，不因恢复而延长
+     *
+     * @param entries 键与编码后的值及其剩余存活时间，值为 String
+     * @return 实际写入的数量
+     */
+    public int putAllIfAbsent(Map<String, TimedValue> entries) {
+        int count = 0;
+        for (Map.Entry<String, TimedValue> entry : entries.entrySet()) {
+            String key = entry.getKey();
+            String value = (String) entry.getValue().getValue();
+            long ttlMillis = entry.getValue().getRemainingTtlMillis();
+            if (null == value || NullValue.SENTINEL.equals(value) || isNegative(key) || 0 == ttlMillis) {
+                continue;
+            }
+            if (putObjectIfAbsent(key, value, ttlMillis)) {
+                statsCounter.recordValueSize(value.length());
+                count++;
+            }
+        }
+        statsCounter.recordPuts(count);
+        return count;
+    }
+
+    public void setReloader(BiFunction<String, Object, Object> reloader) {
+        this.reloader = reloader;
+    }
+
+    /**
+     * 刷新缓存项，在缓存实现的刷新线程中调用
+     *
+     * @param key      缓存键
+     * @param oldValue 当前缓存的值
+     * @return 下层缓存中的新值，下层已不存在或没有下层时返回 null，此时应移除该缓存项
+     */
+    protected Object reload(String key, Object oldValue) {
+        BiFunction<String, Object, Object> currentReloader = reloader;
+        return null == currentReloader ? null : currentReloader.apply(key, oldValue);
+    }
+
+    /**
+     * 估算缓存项占用的字节数，用于按大小限制本地缓存
+     * <p>
+     * 字符串与字节数组按长度计算，其它对象以编码后的长度近似，仅在写入时计算一次
+     *
+     * @param key   缓存键
+     * @param value 缓存值
+     * @return 估算的字节数
+     */
+    protected int weigh(String key, Object value) {
+        long bytes = 2L * key.length();
+        if (value instanceof String) {
+            bytes += 2L * ((String) value).length();
+        } else if (value instanceof byte[]) {
+            bytes += ((byte[]) value).length;
+        } else {
+            String encoded = codec.encode(value);
+            bytes += null == encoded ? 0 : encoded.length();
+        }
+        return (int) Math.min(Integer.MAX_VALUE, bytes);
+    }
+
+    /**
+     * 类型不符（如通过 set 写入的字符串）时经编解码器转换
+     */
+    private Object convert(Object valueObj, Class<?> type) {
+        if (NullValue.SENTINEL.equals(valueObj)) {
+            // 刷新时从下层取回的空值
+            return NullValue.INSTANCE;
+        }
+        if (type.isInstance(valueObj)) {
+            return valueObj;
+        }
+        String valueStr = valueObj instanceof String ? (String) valueObj : codec.encode(valueObj);
+        return codec.decode(valueStr, type);
+    }
+
+    /**
+     * 取出 map 迭代顺序的前 limit 项，供无法按热度导出的缓存实现使用
+     */
+    protected static Map<String, Object> firstEntries(Map<String, Object> map, int limit) {
+        Map<String, Object> result = new LinkedHashMap<>();
+        Iterator<Map.Entry<String, Object>> iterator = map.entrySet().iterator();
+        while (result.size() < limit && iterator.hasNext()) {
+            Map.Entry<String, Object> entry = iterator.next();
+            result.put(entry.getKey(), entry.getValue());
+        }
+        return result;
+    }
+
+    private boolean isNegative(String key) {
+        return null != negativeCache && null != negativeCache.getIfPresent(key);
+    }
+
+    private void clearNegative(String key) {
+        if (null != negativeCache) {
+            negativeCache.invalidate(key);
+        }
+    }
+
+    private <T> void addNegativeHits(Collection<String> keys, Map<String, Object> found, Map<String, T> result, T nullValue) {
+        if (null == negativeCache || found.size() == keys.size()) {
+            return;
+        }
+        for (String key : keys) {
+            if (!found.containsKey(key) && isNegative(key)) {
+                result.put(key, nullValue);
+            }
+        }
+    }
+
+    /**
+     * 从底层缓存中取出对象
+     *
+     * @param key 缓存键
+     * @return 缓存的对象引用，不存在时返回 null
+     */
+    protected abstract Object getObject(String key);
+
+    /**
+     * 向底层缓存写入对象
+     *
+     * @param key   缓存键
+     * @param value 缓存的对象引用，不为 null
+     */
+    protected abstract void putObject(String key, Object value);
+
+    /**
+     * 键不存在时才向底层缓存写入对象
+     *
+     * @param key       缓存键
+     * @param value     缓存的对象引用，不为 null
+     * @param ttlMillis 存活时间，不超过本层配置的存活时间；小于 0 时使用本层的配置
+     * @return 是否写入
+     */
+    protected abstract boolean putObjectIfAbsent(String key, Object value, long ttlMillis);
+
+    /**
+     * 从底层缓存中取出最常访问的对象
+     *
+     * @param limit 最多取出的数量
+     * @return 键与对象引用，按热度降序排列
+     */
+    protected abstract Map<String, Object> hottestObjects(int limit);
+
+    /**
+     * 从底层缓存中批量取出对象
+     *
+     * @param keys 缓存键集合
+     * @return 命中的键与对象引用
+     */
+    protected abstract Map<String, Object> getAllObjects(Collection<String> keys);
+
+    /**
+     * 向底层缓存批量写入对象
+     *
+     * @param entries 键与对象引用，值均不为 null
+     */
+    protected abstract void putAllObjects(Map<String, Object> entries);
+
+    /**
+     * 从底层缓存中删除对象
+     *
+     * @param key 缓存键
+     */
+    protected abstract void deleteObject(String key);
+
+    /**
+     * 从底层缓存中批量删除对象
+     *
+     * @param keys 缓存键集合
+     */
+    protected abstract void deleteAllObjects(Collection<String> keys);
+
+    /**
+     * 清空底层缓存
+     */
+    protected abstract void clearObjects();
+}
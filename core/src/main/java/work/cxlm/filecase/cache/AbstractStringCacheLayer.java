@@ -1,8 +1,20 @@
 package work.cxlm.filecase.cache;
 
+import work.cxlm.filecase.cache.codec.CacheCodec;
+import work.cxlm.filecase.cache.codec.JacksonCacheCodec;
+import work.cxlm.filecase.cache.config.MultiCacheProperties;
+import work.cxlm.filecase.cache.stats.CacheLayerStats;
+import work.cxlm.filecase.cache.stats.CacheStatsCounter;
 import work.cxlm.filecase.redis.util.JacksonUtil;
 
 import javax.annotation.Nullable;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Supplier;
 
 /**
  * create 2021/4/16 18:22
@@ -11,6 +23,29 @@ import javax.annotation.Nullable;
  */
 public abstract class AbstractStringCacheLayer implements CacheLayer<String, String> {
 
+    /**
+     * 对象与字符串之间的编解码器
+     */
+    protected CacheCodec codec = JacksonCacheCodec.INSTANCE;
+
+    /**
+     * 本层的统计计数器，由各缓存层在读写路径上记录
+     */
+    protected final CacheStatsCounter statsCounter = new CacheStatsCounter();
+
+    /**
+     * 存活时间的随机抖动比例，为 0 时不抖动
+     */
+    protected double ttlJitter = 0;
+
+    /**
+     * 软过期区间的长度，剩余存活时间小于该值的缓存项视为软过期，为 0 时不启用
+     */
+    protected long staleWindowMillis = 0;
+
+    /**
+     * 获取缓存的原始字符串，缓存了空值时返回 {@link NullValue#SENTINEL}
+     */
     @Nullable
     @Override
     public String get(String key) {
@@ -22,6 +57,18 @@ public abstract class AbstractStringCacheLayer implements CacheLayer<String, Str
         putInternal(key, value);
     }
 
+    /**
+     * 写入不过期的缓存项，用于代数等丢失后会使旧数据重新可见的元数据
+     * <p>
+     * 默认与 {@link #put(String, String)} 相同；远程缓存层应不设置存活时间，本地缓存层仍按自身配置过期，过期后从下层重新读取
+     *
+     * @param key   缓存键
+     * @param value 值，不为 null
+     */
+    public void putPermanent(String key, String value) {
+        put(key, value);
+    }
+
     /**
      * 获取缓存
      *
@@ -32,9 +79,33 @@ public abstract class AbstractStringCacheLayer implements CacheLayer<String, Str
      * @return 缓存值
      */
     public <K, V> V getAny(K key, Class<? extends V> type) {
-        String keyStr = JacksonUtil.objectToString(key);
-        String valueStr = getInternal(keyStr);
-        return JacksonUtil.jsonToObject(valueStr, type);
+        Object value = lookupAny(JacksonUtil.objectToString(key), type);
+        return NullValue.isNull(value) ? null : type.cast(value);
+    }
+
+    /**
+     * 获取缓存，区分未命中与缓存的空值
+     *
+     * @param key  缓存键
+     * @param type 值的类型
+     * @return 缓存值；缓存了空值时返回 {@link NullValue#INSTANCE}；未命中时返回 null
+     */
+    public Object lookupAny(String key, Class<?> type) {
+        String valueStr = getInternal(key);
+        if (NullValue.SENTINEL.equals(valueStr)) {
+            return NullValue.INSTANCE;
+        }
+        return codec.decode(valueStr, type);
+    }
+
+    /**
+     * 缓存空值，读取时视为命中并返回 null，默认以 {@link NullValue#SENTINEL} 按本层的 TTL 存储，
+     * 各缓存层应覆盖为较短的存活时间
+     *
+     * @param key 缓存键
+     */
+    public void putNull(String key) {
+        putInternal(key, NullValue.SENTINEL);
     }
 
     /**
@@ -47,10 +118,262 @@ public abstract class AbstractStringCacheLayer implements CacheLayer<String, Str
      */
     public <K, V> void putAny(K key, V value) {
         String keyStr = JacksonUtil.objectToString(key);
-        String valueStr = JacksonUtil.objectToString(value);
+        if (NullValue.isNull(value)) {
+            putNull(keyStr);
+            return;
+        }
+        String valueStr = codec.encode(value);
         putInternal(keyStr, valueStr);
     }
 
+    /**
+     * 批量获取缓存，值为 V 指定的类型
+     *
+     * @param keys 缓存键集合
+     * @param type 值的类型
+     * @param <V>  值的类型参数
+     * @return 命中的键值对
+     */
+    public <V> Map<String, V> getAllAny(Collection<String> keys, Class<? extends V> type) {
+        Map<String, Object> found = lookupAllAny(keys, type);
+        Map<String, V> result = new HashMap<>(found.size());
+        found.forEach((key, value) -> {
+            if (!NullValue.isNull(value)) {
+                result.put(key, type.cast(value));
+            }
+        });
+        return result;
+    }
+
+    /**
+     * 批量获取缓存，区分未命中与缓存的空值
+     *
+     * @param keys 缓存键集合
+     * @param type 值的类型
+     * @return 命中的键值对，缓存了空值的键对应 {@link NullValue#INSTANCE}
+     */
+    public Map<String, Object> lookupAllAny(Collection<String> keys, Class<?> type) {
+        Map<String, String> valueStrMap = getAll(keys);
+        Map<String, Object> result = new HashMap<>(valueStrMap.size());
+        valueStrMap.forEach((key, valueStr) -> {
+            Object value = NullValue.SENTINEL.equals(valueStr) ? NullValue.INSTANCE : codec.decode(valueStr, type);
+            if (null != value) {
+                result.put(key, value);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * 批量设置缓存，值为可以转化为 json 的任意类型
+     *
+     * @param entries 要写入的键值对
+     */
+    public void putAllAny(Map<String, ?> entries) {
+        Map<String, String> valueStrMap = new HashMap<>(entries.size());
+        entries.forEach((key, value) -> valueStrMap.put(key, NullValue.isNull(value) ? NullValue.SENTINEL : codec.encode(value)));
+        putAll(valueStrMap);
+    }
+
+    /**
+     * 异步获取缓存，默认在当前线程同步完成，远程缓存层应覆盖为非阻塞实现
+     *
+     * @param key 缓存键
+     * @return 缓存值，不存在时结果为 null
+     */
+    public CompletableFuture<String> getAsync(String key) {
+        return completeNow(() -> get(key));
+    }
+
+    /**
+     * 异步获取缓存，值为 V 指定的类型
+     *
+     * @param key  缓存键
+     * @param type 值的类型
+     * @param <V>  值的类型参数
+     * @return 缓存值，不存在时结果为 null
+     */
+    public <V> CompletableFuture<V> getAnyAsync(String key, Class<? extends V> type) {
+        return lookupAnyAsync(key, type).thenApply(value -> NullValue.isNull(value) ? null : type.cast(value));
+    }
+
+    /**
+     * 异步获取缓存，区分未命中与缓存的空值，见 {@link #lookupAny(String, Class)}
+     *
+     * @param key  缓存键
+     * @param type 值的类型
+     * @return 缓存值、{@link NullValue#INSTANCE} 或 null
+     */
+    public CompletableFuture<Object> lookupAnyAsync(String key, Class<?> type) {
+        return completeNow(() -> lookupAny(key, type));
+    }
+
+    /**
+     * 异步批量获取缓存
+     *
+     * @param keys 缓存键集合
+     * @return 命中的键值对
+     */
+    public CompletableFuture<Map<String, String>> getAllAsync(Collection<String> keys) {
+        return completeNow(() -> getAll(keys));
+    }
+
+    /**
+     * 异步设置缓存
+     *
+     * @param key   缓存键
+     * @param value 缓存值
+     * @return 写入完成时结束
+     */
+    public CompletableFuture<Void> putAsync(String key, String value) {
+        return completeNow(() -> {
+            put(key, value);
+            return null;
+        });
+    }
+
+    /**
+     * 异步设置缓存，值为可以转化为 json 的任意类型
+     *
+     * @param key   缓存键
+     * @param value 缓存值
+     * @return 写入完成时结束
+     */
+    public CompletableFuture<Void> putAnyAsync(String key, Object value) {
+        return completeNow(() -> {
+            putAny(key, value);
+            return null;
+        });
+    }
+
+    /**
+     * 异步缓存空值
+     *
+     * @param key 缓存键
+     * @return 写入完成时结束
+     */
+    public CompletableFuture<Void> putNullAsync(String key) {
+        return completeNow(() -> {
+            putNull(key);
+            return null;
+        });
+    }
+
+    /**
+     * 异步批量设置缓存
+     *
+     * @param entries 要写入的键值对
+     * @return 写入完成时结束
+     */
+    public CompletableFuture<Void> putAllAsync(Map<String, String> entries) {
+        return completeNow(() -> {
+            putAll(entries);
+            return null;
+        });
+    }
+
+    /**
+     * 在当前线程执行并返回已完成的 Future，异常以失败的 Future 返回
+     */
+    protected static <T> CompletableFuture<T> completeNow(Supplier<T> action) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        try {
+            future.complete(action.get());
+        } catch (RuntimeException e) {
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    /**
+     * 获取缓存及其剩余存活时间，用于判断是否已软过期
+     * <p>
+     * 默认分别读取值与剩余存活时间，远程缓存层应在一次往返中完成
+     *
+     * @param key  缓存键
+     * @param type 值的类型
+     * @return 未命中时返回 null
+     */
+    public TimedValue lookupAnyTimed(String key, Class<?> type) {
+        Object value = lookupAny(key, type);
+        return null == value ? null : new TimedValue(value, remainingTtlMillis(key));
+    }
+
+    /**
+     * 获取缓存的原始字符串及其剩余存活时间，用于判断是否已软过期
+     *
+     * @param key 缓存键
+     * @return 未命中时返回 null，缓存了空值时值为 {@link NullValue#SENTINEL}
+     */
+    public TimedValue getTimed(String key) {
+        String value = get(key);
+        return null == value ? null : new TimedValue(value, remainingTtlMillis(key));
+    }
+
+    /**
+     * 缓存项的剩余存活时间
+     *
+     * @param key 缓存键
+     * @return 毫秒数，不存在、不过期或本层无法得知时返回 -1
+     */
+    public long remainingTtlMillis(String key) {
+        return -1;
+    }
+
+    public long getStaleWindowMillis() {
+        return staleWindowMillis;
+    }
+
+    /**
+     * 本层缓存是否位于当前 JVM 中（堆内或堆外），本地缓存层在多节点部署时需要跨节点失效
+     *
+     * @return 默认为 false，即远程缓存层
+     */
+    public boolean isLocal() {
+        return false;
+    }
+
+    /**
+     * 本层缓存的统计快照
+     *
+     * @return 启动以来的累计统计
+     */
+    public CacheLayerStats getStats() {
+        return statsCounter.snapshot();
+    }
+
+    public CacheCodec getCodec() {
+        return codec;
+    }
+
+    public void setCodec(CacheCodec codec) {
+        this.codec = codec;
+    }
+
+    /**
+     * 读取本层的 ttlJitter 与 staleWhileRevalidate 配置
+     *
+     * @param spec 本层的配置
+     */
+    protected void configureExpiry(MultiCacheProperties.LayerProperties spec) {
+        ttlJitter = Math.max(0, Math.min(1, spec.getTtlJitter()));
+        Duration staleWindow = spec.getStaleWhileRevalidate();
+        staleWindowMillis = null == staleWindow || staleWindow.isNegative() ? 0 : staleWindow.toMillis();
+    }
+
+    /**
+     * 对存活时间加上随机抖动
+     *
+     * @param ttl 配置的存活时间，单位不限
+     * @return 随机缩短 0 ~ ttl × ttlJitter 后的存活时间，单位与 ttl 相同
+     */
+    protected long jitter(long ttl) {
+        if (ttlJitter <= 0 || ttl <= 0) {
+            return ttl;
+        }
+        return ttl - (long) (ThreadLocalRandom.current().nextDouble() * ttlJitter * ttl);
+    }
+
     /**
      * put 的缓存层底层实现（API 级别）
      *
@@ -1,6 +1,9 @@
 package work.cxlm.filecase.cache;
 
 import javax.annotation.Nullable;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
 
 /**
  * 缓存层，用在缓存管理中心
@@ -34,6 +37,41 @@ public interface CacheLayer<K, V> {
      */
     void delete(K key);
 
+    /**
+     * 批量读取，缓存层应尽量使用一次调用完成（如 redis 的 MGET）
+     *
+     * @param keys 缓存键集合
+     * @return 命中的键值对，未命中的键不会出现在结果中
+     */
+    default Map<K, V> getAll(Collection<K> keys) {
+        Map<K, V> result = new HashMap<>(keys.size());
+        for (K key : keys) {
+            V value = get(key);
+            if (null != value) {
+                result.put(key, value);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 批量写入，缓存层应尽量使用一次调用完成（如 redis 的 pipeline）
+     *
+     * @param entries 要写入的键值对
+     */
+    default void putAll(Map<K, V> entries) {
+        entries.forEach(this::put);
+    }
+
+    /**
+     * 批量删除，缓存层应尽量使用一次调用完成（如 redis 的多键 DEL）
+     *
+     * @param keys 要删除的缓存键集合
+     */
+    default void deleteAll(Collection<K> keys) {
+        keys.forEach(this::delete);
+    }
+
     /**
      * 清除全部缓存
      */
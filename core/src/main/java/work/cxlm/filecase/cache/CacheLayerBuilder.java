@@ -1,9 +1,17 @@
 package work.cxlm.filecase.cache;
 
+import org.redisson.api.RedissonReactiveClient;
 import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import work.cxlm.filecase.cache.config.MultiCacheProperties;
 import work.cxlm.filecase.exception.CacheNotExistException;
 import work.cxlm.filecase.util.SpringContextUtils;
 
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
 /**
  * create 2021/4/20 14:48
  *
@@ -11,19 +19,59 @@ import work.cxlm.filecase.util.SpringContextUtils;
  */
 public class CacheLayerBuilder {
 
-    @SuppressWarnings("unchecked")
+    private static final String STRING_TEMPLATE_SUFFIX = "StringRedisTemplate";
+
     public static AbstractStringCacheLayer buildStringCacheLayer(String layerName) {
+        return buildStringCacheLayer(layerName, new MultiCacheProperties.LayerProperties());
+    }
+
+    @SuppressWarnings("unchecked")
+    public static AbstractStringCacheLayer buildStringCacheLayer(String layerName, MultiCacheProperties.LayerProperties spec) {
         switch (layerName) {
             case "redis":
                 // 如果能把这个参数也自动化了，这个 Builder 也可以省略（或者反射优化掉）
                 Object template = SpringContextUtils.getBean("stringRedisTemplate");
-                return new RedisCacheLayer((RedisTemplate<String, String>) template);
+                RedisCacheLayer redisCacheLayer = new RedisCacheLayer((RedisTemplate<String, String>) template, spec);
+                if (null != spec.getReactiveClient()) {
+                    redisCacheLayer.setReactiveClient(SpringContextUtils.getBean(spec.getReactiveClient(), RedissonReactiveClient.class));
+                }
+                return redisCacheLayer;
+            case "shardedRedis":
+                return new ShardedRedisCacheLayer(shardTemplates(spec), spec);
             case "guava":
-                return new GuavaCacheLayer();
+                return new GuavaCacheLayer(spec);
             case "caffeine":
-                return new CaffeineCacheLayer();
+                return new CaffeineCacheLayer(spec);
+            case "offheap":
+                return new OffHeapCacheLayer(spec);
+            case "disk":
+                return new DiskCacheLayer(spec);
             default:
                 throw new CacheNotExistException("不存在缓存的实现：" + layerName);
         }
     }
+
+    /**
+     * 分片名为 redis.clients 中的客户端名，对应 RedisConfiguration 注册的 {name}StringRedisTemplate
+     */
+    @SuppressWarnings("unchecked")
+    private static Map<String, RedisTemplate<String, String>> shardTemplates(MultiCacheProperties.LayerProperties spec) {
+        List<String> shards = spec.getShards();
+        if (shards.isEmpty()) {
+            shards = new ArrayList<>();
+            for (String beanName : SpringContextUtils.getApplicationContext().getBeanNamesForType(StringRedisTemplate.class)) {
+                if (beanName.endsWith(STRING_TEMPLATE_SUFFIX) && beanName.length() > STRING_TEMPLATE_SUFFIX.length()) {
+                    shards.add(beanName.substring(0, beanName.length() - STRING_TEMPLATE_SUFFIX.length()));
+                }
+            }
+        }
+        if (shards.isEmpty()) {
+            throw new CacheNotExistException("分片 redis 缓存层没有可用的 redis 客户端");
+        }
+        Map<String, RedisTemplate<String, String>> templates = new LinkedHashMap<>(shards.size());
+        for (String shard : shards) {
+            templates.put(shard, (RedisTemplate<String, String>) SpringContextUtils.getBean(shard + STRING_TEMPLATE_SUFFIX));
+        }
+        return templates;
+    }
 }
@@ -1,9 +1,21 @@
 package work.cxlm.filecase.cache;
 
 import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.CacheLoader;
 import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import com.github.benmanes.caffeine.cache.Policy;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
 import org.checkerframework.checker.nullness.qual.NonNull;
+import org.checkerframework.checker.nullness.qual.Nullable;
+import work.cxlm.filecase.cache.config.MultiCacheProperties;
+import work.cxlm.filecase.cache.stats.CacheLayerStats;
 
+import java.time.Duration;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Optional;
+import java.util.OptionalLong;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -11,44 +23,180 @@ import java.util.concurrent.TimeUnit;
  *
  * @author Chiru
  */
-public class CaffeineCacheLayer extends AbstractStringCacheLayer{
+public class CaffeineCacheLayer extends AbstractLocalCacheLayer {
+
+    private static final Duration DEFAULT_TTL = Duration.ofHours(1);
+
+    private final Cache<@NonNull String, @NonNull Object> caffeineCache;
+
+    public CaffeineCacheLayer() {
+        this(new MultiCacheProperties.LayerProperties());
+    }
+
+    public CaffeineCacheLayer(MultiCacheProperties.LayerProperties spec) {
+        super(spec);
+        Caffeine<Object, Object> builder = Caffeine.newBuilder()
+                //设置cache的初始大小为10，要合理设置该值
+                .initialCapacity(10)
+                // 记录命中、淘汰、刷新等统计
+                .recordStats();
+        if (null != spec.getMaximumWeight()) {
+            // 按估算的字节数限制总大小
+            builder.maximumWeight(spec.getMaximumWeight().toBytes())
+                    .weigher((String key, Object value) -> weigh(key, value));
+        } else {
+            builder.maximumSize(spec.getMaximumSize());
+        }
+        if (null != spec.getExpireAfterAccess()) {
+            builder.expireAfterAccess(spec.getExpireAfterAccess());
+        }
+        Duration ttl = null != spec.getTtl() ? spec.getTtl() :
+                null == spec.getExpireAfterAccess() ? DEFAULT_TTL : null;
+        if (null != ttl && null == spec.getExpireAfterAccess()) {
+            // 每个缓存项在写入时单独计算带抖动的存活时间，从快照恢复的缓存项只存活剩余的时间
+            builder.expireAfter(new JitteredExpiry(ttl.toNanos()));
+        } else if (null != ttl) {
+            //设置cache中的数据在写入之后的存活时间
+            builder.expireAfterWrite(ttl);
+        }
+        if (null == spec.getRefreshAfterWrite()) {
+            caffeineCache = builder.build();
+            return;
+        }
+        // 读取到达刷新时间的缓存项时，由 Caffeine 在后台线程调用 reload，读取方直接拿到旧值
+        caffeineCache = builder.refreshAfterWrite(spec.getRefreshAfterWrite())
+                .build(new CacheLoader<String, Object>() {
+                    @Override
+                    public @Nullable Object load(@NonNull String key) {
+                        // 只通过 getIfPresent 读取，不会触发加载
+                        return null;
+                    }
+
+                    @Override
+                    public @Nullable Object reload(@NonNull String key, @NonNull Object oldValue) {
+                        // 返回 null 时 Caffeine 会移除该缓存项
+                        return CaffeineCacheLayer.this.reload(key, oldValue);
+                    }
+                });
+    }
 
-    private static final Cache<@NonNull String, @NonNull Object> CAFFEINE_CACHE =
-            Caffeine.newBuilder()
-                    //设置cache的初始大小为10，要合理设置该值
-                    .initialCapacity(10)
-                    // 最大值
-                    .maximumSize(10000)
-                    //设置cache中的数据在写入之后的存活时间为1小时
-                    .expireAfterWrite(1, TimeUnit.HOURS)
-                    //构建cache实例
-                    .build();
     @Override
-    protected void putInternal(String key, String value) {
-        CAFFEINE_CACHE.put(key, value);
+    protected void putObject(String key, Object value) {
+        caffeineCache.put(key, value);
     }
 
     @Override
-    protected String getInternal(String key) {
-        Object valueObj = CAFFEINE_CACHE.getIfPresent(key);
-        if (null != valueObj) {
-            return valueObj.toString();
+    protected boolean putObjectIfAbsent(String key, Object value, long ttlMillis) {
+        Optional<Policy.VarExpiration<String, Object>> varExpiration = caffeineCache.policy().expireVariably();
+        if (ttlMillis < 0 || !varExpiration.isPresent()) {
+            return null == caffeineCache.asMap().putIfAbsent(key, value);
         }
-        return null;
+        return varExpiration.get().putIfAbsent(key, value, ttlMillis, TimeUnit.MILLISECONDS);
     }
 
     @Override
-    public void delete(String key) {
-        CAFFEINE_CACHE.invalidate(key);
+    protected Object getObject(String key) {
+        return caffeineCache.getIfPresent(key);
     }
 
+    /**
+     * 由 Caffeine 的淘汰策略按访问频率排序，只按访问时间过期时取最近访问的缓存项
+     */
     @Override
-    public void clear() {
-        CAFFEINE_CACHE.invalidateAll();
+    protected Map<String, Object> hottestObjects(int limit) {
+        Policy<String, Object> policy = caffeineCache.policy();
+        return policy.eviction()
+                .map(eviction -> eviction.hottest(limit))
+                .orElseGet(() -> policy.expireAfterAccess()
+                        .map(expiration -> expiration.youngest(limit))
+                        .orElseGet(() -> firstEntries(caffeineCache.asMap(), limit)));
+    }
+
+    @Override
+    protected Map<String, Object> getAllObjects(Collection<String> keys) {
+        return caffeineCache.getAllPresent(keys);
+    }
+
+    @Override
+    protected void putAllObjects(Map<String, Object> entries) {
+        caffeineCache.putAll(entries);
+    }
+
+    @Override
+    public long remainingTtlMillis(String key) {
+        Policy<String, Object> policy = caffeineCache.policy();
+        Optional<Policy.VarExpiration<String, Object>> varExpiration = policy.expireVariably();
+        if (varExpiration.isPresent()) {
+            OptionalLong remaining = varExpiration.get().getExpiresAfter(key, TimeUnit.MILLISECONDS);
+            return remaining.isPresent() ? remaining.getAsLong() : -1;
+        }
+        Optional<Policy.Expiration<String, Object>> writeExpiration = policy.expireAfterWrite();
+        if (writeExpiration.isPresent()) {
+            OptionalLong age = writeExpiration.get().ageOf(key, TimeUnit.MILLISECONDS);
+            return age.isPresent() ? writeExpiration.get().getExpiresAfter(TimeUnit.MILLISECONDS) - age.getAsLong() : -1;
+        }
+        return -1;
+    }
+
+    @Override
+    protected void deleteObject(String key) {
+        caffeineCache.invalidate(key);
+    }
+
+    @Override
+    protected void deleteAllObjects(Collection<String> keys) {
+        caffeineCache.invalidateAll(keys);
+    }
+
+    @Override
+    protected void clearObjects() {
+        caffeineCache.invalidateAll();
+    }
+
+    /**
+     * 命中、未命中、淘汰与刷新统计来自缓存实现自身，写入次数与大小由本层记录
+     */
+    @Override
+    public CacheLayerStats getStats() {
+        CacheStats nativeStats = caffeineCache.stats();
+        return statsCounter.snapshot().toBuilder()
+                .hitCount(nativeStats.hitCount())
+                .missCount(nativeStats.missCount())
+                .evictionCount(nativeStats.evictionCount())
+                .loadCount(nativeStats.loadCount())
+                .totalLoadTimeNanos(nativeStats.totalLoadTime())
+                .build();
     }
 
     @Override
     public String getLayerName() {
         return "caffeine";
     }
+
+    /**
+     * 写入（包括更新、刷新）时重新计算带抖动的存活时间，读取不影响过期时间
+     */
+    private class JitteredExpiry implements Expiry<String, Object> {
+
+        private final long ttlNanos;
+
+        private JitteredExpiry(long ttlNanos) {
+            this.ttlNanos = ttlNanos;
+        }
+
+        @Override
+        public long expireAfterCreate(@NonNull String key, @NonNull Object value, long currentTime) {
+            return jitter(ttlNanos);
+        }
+
+        @Override
+        public long expireAfterUpdate(@NonNull String key, @NonNull Object value, long currentTime, long currentDuration) {
+            return jitter(ttlNanos);
+        }
+
+        @Override
+        public long expireAfterRead(@NonNull String key, @NonNull Object value, long currentTime, long currentDuration) {
+            return currentDuration;
+        }
+    }
 }
@@ -0,0 +1,351 @@
+package work.cxlm.filecase.cache;
+
+import com.google.common.hash.Hashing;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.util.StreamUtils;
+import work.cxlm.filecase.cache.config.MultiCacheProperties;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.stream.Stream;
+
+/**
+ * 本地磁盘缓存层，用于缩略图、转码分片、预览文件等过大而不适合放在堆内或 redis 中的二进制数据
+ * <p>
+ * 每个缓存项是目录下的一个文件，文件头记录缓存键与过期时间，之后是原始数据；内存中只保存索引，
+ * 按总字节数 LRU 淘汰。重启时扫描目录、读取文件头重建索引，按文件修改时间恢复淘汰顺序。
+ * 大文件请使用 {@link #putStream(String, InputStream)} 与 {@link #openStream(String)}，数据不经过堆
+ * create 2021/5/11 14:26
+ *
+ * @author Chiru
+ */
+@Slf4j
+public class DiskCacheLayer extends AbstractStringCacheLayer {
+
+    private static final int MAGIC = 0x46434431;
+    private static final String FILE_SUFFIX = ".cache";
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private final Path directory;
+    private final long maxBytes;
+
+    /**
+     * 缓存项的存活时间，为 0 时不过期
+     */
+    private final long ttlMillis;
+
+    /**
+     * 空值的存活时间，为 0 时不缓存空值
+     */
+    private final long nullTtlMillis;
+
+    /**
+     * 按访问顺序排列的索引，队首为最久未访问的缓存项
+     */
+    private final LinkedHashMap<String, IndexEntry> index = new LinkedHashMap<>(16, 0.75f, true);
+
+    private long totalBytes = 0;
+
+    public DiskCacheLayer() {
+        this(new MultiCacheProperties.LayerProperties());
+    }
+
+    public DiskCacheLayer(MultiCacheProperties.LayerProperties spec) {
+        directory = Paths.get(spec.getDirectory());
+        maxBytes = spec.getMaxDiskSize().toBytes();
+        ttlMillis = null == spec.getTtl() ? 0 : spec.getTtl().toMillis();
+        nullTtlMillis = null == spec.getNullTtl() ? 0 : Math.max(0, spec.getNullTtl().toMillis());
+        try {
+            Files.createDirectories(directory);
+        } catch (IOException e) {
+            throw new UncheckedIOException("无法创建磁盘缓存目录: " + directory, e);
+        }
+        rebuildIndex();
+    }
+
+    @Override
+    protected void putInternal(String key, String value) {
+        if (null == value) {
+            delete(key);
+            return;
+        }
+        if (NullValue.SENTINEL.equals(value)) {
+            putNull(key);
+            return;
+        }
+        putBytes(key, value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Override
+    public void putNull(String key) {
+        if (0 == nullTtlMillis) {
+            delete(key);
+            return;
+        }
+        byte[] sentinel = NullValue.SENTINEL.getBytes(StandardCharsets.UTF_8);
+        writeStream(key, new ByteArrayInputStream(sentinel), nullTtlMillis);
+    }
+
+    @Override
+    protected String getInternal(String key) {
+        long start = System.nanoTime();
+        try (InputStream in = openStream(key)) {
+            return null == in ? null : StreamUtils.copyToString(in, StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            log.warn("读取磁盘缓存失败: {}", key, e);
+            return null;
+        } finally {
+            statsCounter.recordOperation(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * 写入二进制缓存
+     *
+     * @param key   缓存键
+     * @param bytes 缓存数据
+     */
+    public void putBytes(String key, byte[] bytes) {
+        putStream(key, new ByteArrayInputStream(bytes));
+    }
+
+    /**
+     * 从输入流写入缓存，先写入临时文件，完成后原子地替换，读取方不会看到写了一半的文件
+     *
+     * @param key  缓存键
+     * @param data 缓存数据，由调用方关闭
+     */
+    public void putStream(String key, InputStream data) {
+        writeStream(key, data, ttlMillis);
+    }
+
+    private void writeStream(String key, InputStream data, long entryTtlMillis) {
+        Path target = fileOf(key);
+        Path temp = directory.resolve(target.getFileName() + "." + UUID.randomUUID() + TEMP_SUFFIX);
+        long expireAt = 0 == entryTtlMillis ? 0 : System.currentTimeMillis() + entryTtlMillis;
+        long start = System.nanoTime();
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+                out.writeInt(MAGIC);
+                out.writeUTF(key);
+                out.writeLong(expireAt);
+                StreamUtils.copy(data, out);
+            }
+            long size = Files.size(temp);
+            synchronized (this) {
+                Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                IndexEntry previous = index.put(key, new IndexEntry(target, size, expireAt));
+                if (null != previous) {
+                    totalBytes -= previous.size;
+                }
+                totalBytes += size;
+                evictIfNeeded();
+            }
+            statsCounter.recordOperation(System.nanoTime() - start);
+            statsCounter.recordPuts(1);
+            statsCounter.recordValueSize(size);
+        } catch (IOException e) {
+            log.warn("写入磁盘缓存失败: {}", key, e);
+            deleteQuietly(temp);
+        }
+    }
+
+    /**
+     * 打开缓存数据的输入流，数据直接从文件读取
+     * <p>
+     * 读取期间缓存项被淘汰或删除时，已打开的流仍可读完（POSIX 文件系统）
+     *
+     * @param key 缓存键
+     * @return 定位到数据开头的输入流，由调用方关闭；不存在或已过期时返回 null
+     */
+    public InputStream openStream(String key) {
+        IndexEntry entry;
+        synchronized (this) {
+            entry = index.get(key);
+            if (null == entry) {
+                statsCounter.recordMisses(1);
+                return null;
+            }
+            if (entry.isExpired(System.currentTimeMillis())) {
+                removeEntry(key);
+                statsCounter.recordMisses(1);
+                return null;
+            }
+        }
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(Files.newInputStream(entry.file)));
+            Header header = Header.read(in);
+            if (!key.equals(header.key)) {
+                // 文件已被其它键的写入替换（哈希冲突），按未命中处理
+                in.close();
+                statsCounter.recordMisses(1);
+                return null;
+            }
+            statsCounter.recordHits(1);
+            return in;
+        } catch (NoSuchFileException e) {
+            statsCounter.recordMisses(1);
+            synchronized (this) {
+                if (index.get(key) == entry) {
+                    removeEntry(key);
+                }
+            }
+            return null;
+        } catch (IOException e) {
+            log.warn("打开磁盘缓存失败: {}", key, e);
+            closeQuietly(in);
+            return null;
+        }
+    }
+
+    @Override
+    public synchronized void delete(String key) {
+        removeEntry(key);
+    }
+
+    @Override
+    public synchronized void clear() {
+        index.values().forEach(entry -> deleteQuietly(entry.file));
+        index.clear();
+        totalBytes = 0;
+    }
+
+    @Override
+    public String getLayerName() {
+        return "disk";
+    }
+
+    /**
+     * 磁盘缓存只存在于当前节点，需要跨节点失效
+     */
+    @Override
+    public boolean isLocal() {
+        return true;
+    }
+
+    public synchronized long getTotalBytes() {
+        return totalBytes;
+    }
+
+    private void removeEntry(String key) {
+        IndexEntry entry = index.remove(key);
+        if (null != entry) {
+            totalBytes -= entry.size;
+            deleteQuietly(entry.file);
+        }
+    }
+
+    private void evictIfNeeded() {
+        Iterator<Map.Entry<String, IndexEntry>> iterator = index.entrySet().iterator();
+        while (totalBytes > maxBytes && iterator.hasNext()) {
+            IndexEntry eldest = iterator.next().getValue();
+            iterator.remove();
+            totalBytes -= eldest.size;
+            deleteQuietly(eldest.file);
+            statsCounter.recordEvictions(1);
+        }
+    }
+
+    /**
+     * 扫描缓存目录重建索引，清理残留的临时文件与已过期的缓存项
+     */
+    private synchronized void rebuildIndex() {
+        List<Path> files = new ArrayList<>();
+        try (Stream<Path> stream = Files.list(directory)) {
+            stream.forEach(files::add);
+        } catch (IOException e) {
+            throw new UncheckedIOException("无法读取磁盘缓存目录: " + directory, e);
+        }
+        // 按修改时间排序，最近写入的排在最后，淘汰时先淘汰较早的
+        Map<Path, Long> modifiedTimes = new HashMap<>(files.size());
+        files.forEach(file -> modifiedTimes.put(file, file.toFile().lastModified()));
+        files.sort(Comparator.comparingLong(modifiedTimes::get));
+        long now = System.currentTimeMillis();
+        for (Path file : files) {
+            String fileName = file.getFileName().toString();
+            if (fileName.endsWith(TEMP_SUFFIX)) {
+                deleteQuietly(file);
+                continue;
+            }
+            if (!fileName.endsWith(FILE_SUFFIX)) {
+                continue;
+            }
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+                Header header = Header.read(in);
+                IndexEntry entry = new IndexEntry(file, Files.size(file), header.expireAt);
+                if (entry.isExpired(now)) {
+                    deleteQuietly(file);
+                    continue;
+                }
+                index.put(header.key, entry);
+                totalBytes += entry.size;
+            } catch (IOException e) {
+                log.warn("无法识别的磁盘缓存文件，已删除: {}", file, e);
+                deleteQuietly(file);
+            }
+        }
+        evictIfNeeded();
+        log.info("磁盘缓存索引已重建: {}, 缓存项: {}, 总大小: {}", directory, index.size(), totalBytes);
+    }
+
+    private Path fileOf(String key) {
+        return directory.resolve(Hashing.sha256().hashString(key, StandardCharsets.UTF_8) + FILE_SUFFIX);
+    }
+
+    private static void deleteQuietly(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            log.warn("删除磁盘缓存文件失败: {}", file, e);
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (null == closeable) {
+            return;
+        }
+        try {
+            closeable.close();
+        } catch (IOException ignored) {
+            // 已在处理读取失败，忽略关闭异常
+        }
+    }
+
+    private static class IndexEntry {
+        private final Path file;
+        private final long size;
+        private final long expireAt;
+
+        private IndexEntry(Path file, long size, long expireAt) {
+            this.file = file;
+            this.size = size;
+            this.expireAt = expireAt;
+        }
+
+        private boolean isExpired(long now) {
+            return 0 != expireAt && expireAt <= now;
+        }
+    }
+
+    private static class Header {
+        private final String key;
+        private final long expireAt;
+
+        private Header(String key, long expireAt) {
+            this.key = key;
+            this.expireAt = expireAt;
+        }
+
+        private static Header read(DataInputStream in) throws IOException {
+            if (MAGIC != in.readInt()) {
+                throw new IOException("不是磁盘缓存文件");
+            }
+            String key = in.readUTF();
+            long expireAt = in.readLong();
+            return new Header(key, expireAt);
+        }
+    }
+}
@@ -2,54 +2,264 @@ package work.cxlm.filecase.cache;
 
 import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.CacheStats;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import work.cxlm.filecase.cache.config.MultiCacheProperties;
+import work.cxlm.filecase.cache.stats.CacheLayerStats;
 
+import java.time.Duration;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * create 2021/4/16 19:35
  *
  * @author Chiru
  */
-public class GuavaCacheLayer extends AbstractStringCacheLayer{
+public class GuavaCacheLayer extends AbstractLocalCacheLayer {
+
+    private static final Duration DEFAULT_TTL = Duration.ofHours(1);
+    private static final int RELOAD_THREADS = 2;
+    private static final int RELOAD_QUEUE_SIZE = 256;
+    private static final AtomicInteger RELOAD_THREAD_NUM = new AtomicInteger();
+
+    private final Cache<String, Object> guavaCache;
+
+    /**
+     * 写入后的存活时间（毫秒），只按访问时间过期时为 0
+     */
+    private final long ttlMillis;
+
+    /**
+     * 是否为每个缓存项单独记录过期时间；Guava 不支持按缓存项设置过期时间，也不公开写入时间，
+     * 设置了存活时间时由本层记录并在读取时判断，用于抖动、软过期与快照恢复后的剩余存活时间
+     */
+    private final boolean timed;
+
+    public GuavaCacheLayer() {
+        this(new MultiCacheProperties.LayerProperties());
+    }
+
+    public GuavaCacheLayer(MultiCacheProperties.LayerProperties spec) {
+        super(spec);
+        CacheBuilder<Object, Object> builder = CacheBuilder.newBuilder()
+                //设置cache的初始大小为10，要合理设置该值
+                .initialCapacity(10)
+                // 记录命中、淘汰、刷新等统计
+                .recordStats()
+                //设置并发数为5，即同一时间最多只能有5个线程往cache执行写入操作
+                .concurrencyLevel(5);
+        if (null != spec.getMaximumWeight()) {
+            // 按估算的字节数限制总大小
+            builder.maximumWeight(spec.getMaximumWeight().toBytes())
+                    .weigher((String key, Object value) -> weigh(key, valueOf(value)));
+        } else {
+            builder.maximumSize(spec.getMaximumSize());
+        }
+        if (null != spec.getExpireAfterAccess()) {
+            builder.expireAfterAccess(spec.getExpireAfterAccess().toMillis(), TimeUnit.MILLISECONDS);
+            // 与 Caffeine 缓存层一致，按访问时间过期时不加抖动
+            ttlJitter = 0;
+        }
+        Duration ttl = null != spec.getTtl() ? spec.getTtl() :
+                null == spec.getExpireAfterAccess() ? DEFAULT_TTL : null;
+        ttlMillis = null == ttl ? 0 : ttl.toMillis();
+        timed = ttlMillis > 0;
+        if (null != ttl) {
+            //设置cache中的数据在写入之后的存活时间，记录了过期时间的缓存项以此为上限
+            builder.expireAfterWrite(ttlMillis, TimeUnit.MILLISECONDS);
+        }
+        if (null == spec.getRefreshAfterWrite()) {
+            guavaCache = builder.build();
+            return;
+        }
+        // 刷新会读取下层的远程缓存，使用独立的线程池，不占用公共的 ForkJoinPool；队列已满时跳过本次刷新
+        ThreadPoolExecutor reloadExecutor = new ThreadPoolExecutor(RELOAD_THREADS, RELOAD_THREADS, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(RELOAD_QUEUE_SIZE), r -> {
+            Thread thread = new Thread(r, "guava-cache-reload-" + RELOAD_THREAD_NUM.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        reloadExecutor.allowCoreThreadTimeOut(true);
+        // getIfPresent 读到到达刷新时间的缓存项时会调用 reload，reload 提交到后台线程，读取方直接拿到旧值
+        guavaCache = builder.refreshAfterWrite(spec.getRefreshAfterWrite().toMillis(), TimeUnit.MILLISECONDS)
+                .build(new CacheLoader<String, Object>() {
+                    @Override
+                    public Object load(String key) {
+                        // 只通过 getIfPresent 读取，不会触发加载
+                        return null;
+                    }
+
+                    @Override
+                    public ListenableFuture<Object> reload(String key, Object oldValue) {
+                        SettableFuture<Object> future = SettableFuture.create();
+                        try {
+                            reloadExecutor.execute(() -> {
+                                try {
+                                    Object newValue = GuavaCacheLayer.this.reload(key, valueOf(oldValue));
+                                    if (null != newValue) {
+                                        future.set(wrap(newValue));
+                                        return;
+                                    }
+                                    // Guava 不接受 null，先以旧值结束本次刷新，再移除该缓存项；期间写入的新值不受影响
+                                    future.set(oldValue);
+                                    guavaCache.asMap().remove(key, oldValue);
+                                } catch (Throwable e) {
+                                    future.setException(e);
+                                }
+                            });
+                        } catch (RejectedExecutionException e) {
+                            future.set(oldValue);
+                        }
+                        return future;
+                    }
+                });
+    }
 
-    private static final Cache<String, Object> GUAVA_CACHE =
-            CacheBuilder.newBuilder()
-                    //设置cache的初始大小为10，要合理设置该值
-                    .initialCapacity(10)
-                    // 最大值
-                    .maximumSize(10000)
-                    //设置并发数为5，即同一时间最多只能有5个线程往cache执行写入操作
-                    .concurrencyLevel(5)
-                    //设置cache中的数据在写入之后的存活时间为1小时
-                    .expireAfterWrite(1, TimeUnit.HOURS)
-                    //构建cache实例
-                    .build();
     @Override
-    protected void putInternal(String key, String value) {
-        GUAVA_CACHE.put(key, value);
+    protected void putObject(String key, Object value) {
+        guavaCache.put(key, wrap(value));
     }
 
     @Override
-    protected String getInternal(String key) {
-        Object valueObj = GUAVA_CACHE.getIfPresent(key);
-        if (null != valueObj) {
-            return valueObj.toString();
+    protected boolean putObjectIfAbsent(String key, Object value, long ttlMillis) {
+        if (ttlMillis < 0 || !timed) {
+            return null == guavaCache.asMap().putIfAbsent(key, wrap(value));
         }
-        return null;
+        long expireAt = System.currentTimeMillis() + Math.min(ttlMillis, this.ttlMillis);
+        return null == guavaCache.asMap().putIfAbsent(key, new TimedEntry(value, expireAt));
     }
 
     @Override
-    public void delete(String key) {
-        GUAVA_CACHE.invalidate(key);
+    protected Object getObject(String key) {
+        return unwrap(key, guavaCache.getIfPresent(key));
     }
 
+    /**
+     * Guava 不公开访问顺序，按 asMap 的迭代顺序取出
+     */
     @Override
-    public void clear() {
-        GUAVA_CACHE.invalidateAll();
+    protected Map<String, Object> hottestObjects(int limit) {
+        return unwrapAll(firstEntries(guavaCache.asMap(), limit));
+    }
+
+    @Override
+    protected Map<String, Object> getAllObjects(Collection<String> keys) {
+        return unwrapAll(guavaCache.getAllPresent(keys));
+    }
+
+    @Override
+    protected void putAllObjects(Map<String, Object> entries) {
+        if (!timed) {
+            guavaCache.putAll(entries);
+            return;
+        }
+        Map<String, Object> wrapped = new HashMap<>(entries.size());
+        entries.forEach((key, value) -> wrapped.put(key, wrap(value)));
+        guavaCache.putAll(wrapped);
+    }
+
+    @Override
+    public long remainingTtlMillis(String key) {
+        Object stored = guavaCache.asMap().get(key);
+        if (!(stored instanceof TimedEntry)) {
+            return -1;
+        }
+        return Math.max(0, ((TimedEntry) stored).expireAt - System.currentTimeMillis());
+    }
+
+    @Override
+    protected void deleteObject(String key) {
+        guavaCache.invalidate(key);
+    }
+
+    @Override
+    protected void deleteAllObjects(Collection<String> keys) {
+        guavaCache.invalidateAll(keys);
+    }
+
+    @Override
+    protected void clearObjects() {
+        guavaCache.invalidateAll();
+    }
+
+    /**
+     * 命中、未命中、淘汰与刷新统计来自缓存实现自身，写入次数与大小由本层记录
+     */
+    @Override
+    public CacheLayerStats getStats() {
+        CacheStats nativeStats = guavaCache.stats();
+        return statsCounter.snapshot().toBuilder()
+                .hitCount(nativeStats.hitCount())
+                .missCount(nativeStats.missCount())
+                .evictionCount(nativeStats.evictionCount())
+                .loadCount(nativeStats.loadCount())
+                .totalLoadTimeNanos(nativeStats.totalLoadTime())
+                .build();
     }
 
     @Override
     public String getLayerName() {
         return "guava";
     }
+
+    private Object wrap(Object value) {
+        return timed ? new TimedEntry(value, System.currentTimeMillis() + jitter(ttlMillis)) : value;
+    }
+
+    /**
+     * 取出缓存项中的值，已过期的缓存项从缓存中移除
+     */
+    private Object unwrap(String key, Object stored) {
+        if (!(stored instanceof TimedEntry)) {
+            return stored;
+        }
+        TimedEntry entry = (TimedEntry) stored;
+        if (entry.expireAt > System.currentTimeMillis()) {
+            return entry.value;
+        }
+        // 只移除这一个缓存项，不影响并发写入的新值
+        guavaCache.asMap().remove(key, stored);
+        return null;
+    }
+
+    private Map<String, Object> unwrapAll(Map<String, Object> stored) {
+        if (!timed) {
+            return stored;
+        }
+        Map<String, Object> result = new LinkedHashMap<>(stored.size());
+        stored.forEach((key, value) -> {
+            Object unwrapped = unwrap(key, value);
+            if (null != unwrapped) {
+                result.put(key, unwrapped);
+            }
+        });
+        return result;
+    }
+
+    private static Object valueOf(Object stored) {
+        return stored instanceof TimedEntry ? ((TimedEntry) stored).value : stored;
+    }
+
+    /**
+     * 带过期时间的缓存项
+     */
+    private static class TimedEntry {
+        private final Object value;
+        private final long expireAt;
+
+        private TimedEntry(Object value, long expireAt) {
+            this.value = value;
+            this.expireAt = expireAt;
+        }
+    }
 }
@@ -0,0 +1,94 @@
+package work.cxlm.filecase.cache;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 缓存键的写入版本，写入、删除前递增；回填、预热等延后写入读到的值之前比较，期间被写入或删除的键不再写回旧值
+ * <p>
+ * 键按哈希映射到固定数量的槽，不同的键可能共用一个槽，只会多跳过一些回填，不会把变化判断为未变化；
+ * 清空缓存层时所有键的版本一起递增。版本只增不减，启动以来从未写入的键版本为 0
+ * create 2021/5/23 14:10
+ *
+ * @author Chiru
+ */
+public class KeyVersions {
+
+    private static final int DEFAULT_SLOTS = 1 << 16;
+
+    private final AtomicLongArray slots;
+    private final int mask;
+
+    /**
+     * 清空的次数，计入每个键的版本
+     */
+    private final AtomicLong epoch = new AtomicLong();
+
+    public KeyVersions() {
+        this(DEFAULT_SLOTS);
+    }
+
+    /**
+     * @param slots 槽的数量，会向上取整为 2 的幂
+     */
+    public KeyVersions(int slots) {
+        int size = Integer.highestOneBit(Math.max(1, slots - 1)) << 1;
+        this.slots = new AtomicLongArray(size);
+        this.mask = size - 1;
+    }
+
+    /**
+     * @param key 缓存键
+     * @return 键的当前版本，任意一次写入、删除或清空后都会变大
+     */
+    public long versionOf(String key) {
+        return epoch.get() + slots.get(indexOf(key));
+    }
+
+    /**
+     * @param keys 缓存键集合
+     * @return 各键的当前版本
+     */
+    public Map<String, Long> versionsOf(Collection<String> keys) {
+        Map<String, Long> versions = new HashMap<>(keys.size());
+        keys.forEach(key -> versions.put(key, versionOf(key)));
+        return versions;
+    }
+
+    /**
+     * @param key     缓存键
+     * @param version 之前取得的版本
+     * @return 期间是否没有写入、删除或清空
+     */
+    public boolean unchanged(String key, long version) {
+        return versionOf(key) == version;
+    }
+
+    /**
+     * 写入或删除前调用
+     *
+     * @param key 缓存键
+     */
+    public void bump(String key) {
+        slots.incrementAndGet(indexOf(key));
+    }
+
+    public void bumpAll(Collection<String> keys) {
+        keys.forEach(this::bump);
+    }
+
+    /**
+     * 清空缓存层前调用，所有键的版本都会变化
+     */
+    public void bumpAll() {
+        epoch.incrementAndGet();
+    }
+
+    private int indexOf(String key) {
+        int h = key.hashCode();
+        return (h ^ (h >>> 16)) & mask;
+    }
+}
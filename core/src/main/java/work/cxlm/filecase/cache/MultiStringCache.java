@@ -3,12 +3,25 @@ package work.cxlm.filecase.cache;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.lang.NonNull;
 import org.springframework.lang.Nullable;
+import work.cxlm.filecase.cache.config.MultiCacheProperties;
+import work.cxlm.filecase.cache.hotkey.HotKey;
+import work.cxlm.filecase.cache.hotkey.HotKeyCache;
+import work.cxlm.filecase.cache.stats.CacheLayerStats;
+import work.cxlm.filecase.cache.stats.CacheStatsCounter;
+import work.cxlm.filecase.cache.sync.CacheInvalidationBus;
+import work.cxlm.filecase.cache.writebehind.WriteBehindBuffer;
+import work.cxlm.filecase.exception.CacheLoadException;
 import work.cxlm.filecase.exception.CacheNotExistException;
 
-import java.util.List;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
 import java.util.function.Consumer;
 import java.util.function.Function;
 import java.util.function.Supplier;
+import java.util.stream.Collectors;
 
 /**
  * create 2021/4/16 18:03
@@ -18,15 +31,120 @@ import java.util.function.Supplier;
 @Slf4j
 public class MultiStringCache {
 
+    private static final int BACKFILL_QUEUE_SIZE = 1024;
+    private static final int REVALIDATE_THREADS = 4;
+    private static final int REVALIDATE_QUEUE_SIZE = 1024;
+
     private final List<AbstractStringCacheLayer> cacheLayerList;
     private final int layerCount;
+    private final boolean hasLocalLayer;
+
+    /**
+     * 低层命中后是否回填上层
+     */
+    private final boolean backfill;
+
+    /**
+     * 执行回填的线程池，回填是尽力而为的，队列满时直接丢弃
+     */
+    private final ThreadPoolExecutor backfillExecutor;
+
+    /**
+     * 正在回源加载的键，同一个键同时只有一个加载任务
+     */
+    private final ConcurrentHashMap<String, CompletableFuture<Object>> inFlightLoads = new ConcurrentHashMap<>();
+
+    /**
+     * 等待其它线程加载结果的最长时间
+     */
+    private final long loadTimeoutMillis;
+
+    /**
+     * 回源加载（supplier、bulkLoader）的统计
+     */
+    private final CacheStatsCounter loaderStatsCounter = new CacheStatsCounter();
+
+    /**
+     * 跨节点失效总线，未启用时为 null
+     */
+    private volatile CacheInvalidationBus invalidationBus;
+
+    /**
+     * 本地缓存层是否暂停使用（可能错过了其它节点的失效消息）
+     */
+    private volatile boolean localLayersSuspended = false;
+
+    /**
+     * 热点键探测与本地固定，未启用时为 null
+     */
+    private final HotKeyCache hotKeyCache;
+
+    /**
+     * 远程缓存层的延迟写缓冲区，未启用或没有远程缓存层时为 null
+     */
+    private final WriteBehindBuffer writeBehindBuffer;
+
+    /**
+     * 后台刷新软过期缓存项的线程池，没有缓存层启用 staleWhileRevalidate 时为 null
+     */
+    private final ThreadPoolExecutor revalidateExecutor;
+
+    /**
+     * 正在后台刷新的键，同一个键同时只有一个刷新任务
+     */
+    private final Set<String> revalidatingKeys = ConcurrentHashMap.newKeySet();
+
+    /**
+     * 各键的写入版本，回填前比较，读取之后被写入或删除的键不再回填读到的旧值
+     */
+    private final KeyVersions keyVersions = new KeyVersions();
 
     public MultiStringCache(List<AbstractStringCacheLayer> cacheLayerList) {
+        this(cacheLayerList, new MultiCacheProperties());
+    }
+
+    public MultiStringCache(List<AbstractStringCacheLayer> cacheLayerList, MultiCacheProperties properties) {
         this.cacheLayerList = cacheLayerList;
         layerCount = cacheLayerList.size();
         if (0 == layerCount) {
             throw new CacheNotExistException("没有指定缓存层");
         }
+        this.backfill = properties.isBackfill() && layerCount > 1;
+        this.loadTimeoutMillis = properties.getLoadTimeout().toMillis();
+        this.hasLocalLayer = cacheLayerList.stream().anyMatch(AbstractStringCacheLayer::isLocal);
+        AtomicInteger threadNum = new AtomicInteger();
+        backfillExecutor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>(BACKFILL_QUEUE_SIZE), r -> {
+            Thread thread = new Thread(r, "cache-backfill-" + threadNum.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }, new ThreadPoolExecutor.DiscardPolicy());
+        for (int i = 0; i < layerCount; i++) {
+            AbstractStringCacheLayer layer = cacheLayerList.get(i);
+            if (layer instanceof AbstractLocalCacheLayer) {
+                int layerIndex = i;
+                ((AbstractLocalCacheLayer) layer).setReloader((key, oldValue) -> reloadFromLower(layerIndex, key, oldValue));
+            }
+        }
+        // 热点键的固定值位于所有缓存层之上，刷新时只读远程缓存层：本地缓存层可能仍是其它节点已更新前的旧值
+        hotKeyCache = properties.getHotKey().isEnabled() ?
+                new HotKeyCache(properties.getHotKey(), this::reloadFromRemote) : null;
+        List<AbstractStringCacheLayer> remoteLayers = cacheLayerList.stream()
+                .filter(layer -> !layer.isLocal())
+                .collect(Collectors.toList());
+        writeBehindBuffer = properties.getWriteBehind().isEnabled() && !remoteLayers.isEmpty() ?
+                new WriteBehindBuffer(remoteLayers, properties.getWriteBehind()) : null;
+        if (cacheLayerList.stream().anyMatch(layer -> layer.getStaleWindowMillis() > 0)) {
+            AtomicInteger revalidateThreadNum = new AtomicInteger();
+            revalidateExecutor = new ThreadPoolExecutor(REVALIDATE_THREADS, REVALIDATE_THREADS, 0, TimeUnit.MILLISECONDS,
+                    new LinkedBlockingQueue<>(REVALIDATE_QUEUE_SIZE), r -> {
+                Thread thread = new Thread(r, "cache-revalidate-" + revalidateThreadNum.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        } else {
+            revalidateExecutor = null;
+        }
     }
 
     /**
@@ -37,11 +155,11 @@ public class MultiStringCache {
      * @return 遍历各层缓存，得到值则返回，否则返回默认值
      */
     public String getCache(@NonNull String key, @Nullable String defaultValue) {
-        String cacheRes = iterateFromUpToDown(layer -> layer.get(key));
-        if (null == cacheRes) {
+        Object cacheRes = lookupCache(key, true);
+        if (null == cacheRes || NullValue.isNull(cacheRes)) {
             return defaultValue;
         }
-        return cacheRes;
+        return (String) cacheRes;
     }
 
     /**
@@ -62,7 +180,8 @@ public class MultiStringCache {
      * @return 指定层指定键的缓存值，没有则返回 null
      */
     public String getFrom(@NonNull String key, int layerIndex) {
-        return cacheLayerList.get(layerIndex).get(key);
+        String value = cacheLayerList.get(layerIndex).get(key);
+        return NullValue.isNull(value) ? null : value;
     }
 
     /**
@@ -72,21 +191,56 @@ public class MultiStringCache {
      * @param value 值
      */
     public void set(@NonNull String key, @Nullable String value) {
-        iterateFromDownToUp(layer -> layer.put(key, value));
+        writeAllLayers(Collections.singletonMap(key, value), true, layer -> layer.put(key, value));
+        unpin(key);
+    }
+
+    /**
+     * 将不过期的值同步写入所有层，并通知其它节点丢弃本地缓存的旧值
+     * <p>
+     * 用于代数等丢失或陈旧后会使旧数据重新可见的元数据：远程缓存层不设置存活时间，不经过延迟写缓冲区；
+     * 直接覆盖旧值，不会出现读不到该键的间隙
+     *
+     * @param key   键
+     * @param value 值，不为 null
+     */
+    public void setPermanent(@NonNull String key, @NonNull String value) {
+        keyVersions.bump(key);
+        if (null != writeBehindBuffer) {
+            writeBehindBuffer.cancel(Collections.singletonList(key));
+        }
+        iterateFromDownToUp(layer -> layer.putPermanent(key, value));
+        unpin(key);
+        publishDelete(Collections.singletonList(key));
     }
 
     /**
      * 设置缓存，值为可以转化为 json 的任意类型
+     * <p>
+     * 本地缓存层直接持有 value 的引用，仅远程缓存层会经过编解码器序列化
      *
      * @param key   缓存键
      * @param value 缓存值
      */
     public void setAny(@NonNull String key, @Nullable Object value) {
-        iterateFromDownToUp(layer -> layer.putAny(key, value));
+        writeAllLayers(Collections.singletonMap(key, value), false, layer -> layer.putAny(key, value));
+        unpin(key);
+    }
+
+    /**
+     * 在所有层缓存空值，各层按自身的 nullTtl 过期，期间读取该键视为命中并返回 null，不再回源
+     *
+     * @param key 缓存键
+     */
+    public void setNull(@NonNull String key) {
+        writeAllLayers(Collections.singletonMap(key, NullValue.SENTINEL), true, layer -> layer.putNull(key));
+        unpin(key);
     }
 
     /**
      * 获取缓存，值为 V 指定的类型
+     * <p>
+     * 本地缓存层命中时返回的是共享的对象引用，请勿修改
      *
      * @param key        缓存键
      * @param valueClass 缓存值的 Class
@@ -94,11 +248,16 @@ public class MultiStringCache {
      * @return 得到的缓存值，没有则返回 null
      */
     public <V> V getAnyCache(@NonNull String key, @NonNull Class<V> valueClass) {
-        return iterateFromUpToDown(layer -> layer.getAny(key, valueClass));
+        Object cached = lookupAnyCache(key, valueClass, true);
+        return NullValue.isNull(cached) ? null : valueClass.cast(cached);
     }
 
     /**
      * 获取缓存，值为 V 指定的类型
+     * <p>
+     * 同一个键并发未命中时，只有一个线程调用 supplier，其余线程等待其结果；
+     * supplier 返回 null 时缓存空值，nullTtl 内不再回源；命中层配置了 staleWhileRevalidate 且缓存项已软过期时，
+     * 立即返回旧值，同时由一个后台线程调用 supplier 刷新各层
      *
      * @param key        缓存键
      * @param valueClass 缓存值的 Class
@@ -107,12 +266,21 @@ public class MultiStringCache {
      * @return 得到的缓存值，没有则返回 supplier 的结果
      */
     public <V> V getAny(@NonNull String key, @NonNull Class<V> valueClass, Supplier<V> supplier) {
-        V cachedValue = getAnyCache(key, valueClass);
-        if (null == cachedValue) {
-            cachedValue = supplier.get();
-            setAny(key, cachedValue);
+        Supplier<Object> loader = () -> {
+            V loaded = timedLoad(supplier);
+            if (null == loaded) {
+                setNull(key);
+                return NullValue.INSTANCE;
+            }
+            setAny(key, loaded);
+            return loaded;
+        };
+        Object cached = iterateRevalidating(key, valueClass, layer -> layer.lookupAny(key, valueClass),
+                layer -> layer.lookupAnyTimed(key, valueClass), (layer, value) -> layer.putAny(key, value), loader);
+        if (null == cached) {
+            cached = loadOnce(key, valueClass, () -> lookupAnyCache(key, valueClass, false), loader);
         }
-        return cachedValue;
+        return NullValue.isNull(cached) ? null : valueClass.cast(cached);
     }
 
     /**
@@ -123,23 +291,41 @@ public class MultiStringCache {
      * @param layerIndex 要设置的层编号
      */
     public void set(@NonNull String key, @Nullable String value, int layerIndex) {
-        cacheLayerList.get(layerIndex).put(key, value);
+        AbstractStringCacheLayer layer = cacheLayerList.get(layerIndex);
+        keyVersions.bump(key);
+        if (null != writeBehindBuffer && !layer.isLocal()) {
+            writeBehindBuffer.cancel(Collections.singletonList(key));
+        }
+        layer.put(key, value);
+        unpin(key);
     }
 
     /**
      * 获取缓存，如果没有则使用 supplier 查询，并逐层写入缓存
+     * <p>
+     * 命中时不再回写缓存；同一个键并发未命中时，只有一个线程调用 supplier，其余线程等待其结果；
+     * supplier 返回 null 时缓存空值，nullTtl 内不再回源；命中软过期的缓存项时立即返回旧值并在后台刷新
      *
      * @param key      缓存键
      * @param supplier 缓存中没有值时，调用的查询函数
      * @return 得到的值，缓存中存在则为缓存中的值，否则为 supplier 中的值
      */
     public String get(@NonNull String key, Supplier<String> supplier) {
-        String gotValue = getCache(key);
+        Supplier<Object> loader = () -> {
+            String loaded = timedLoad(supplier);
+            if (null == loaded) {
+                setNull(key);
+                return NullValue.INSTANCE;
+            }
+            set(key, loaded);
+            return loaded;
+        };
+        Object gotValue = iterateRevalidating(key, String.class, layer -> layer.get(key),
+                layer -> layer.getTimed(key), (layer, value) -> layer.put(key, (String) value), loader);
         if (null == gotValue) {
-            gotValue = supplier.get();
+            gotValue = loadOnce(key, String.class, () -> lookupCache(key, false), loader);
         }
-        set(key, gotValue);
-        return gotValue;
+        return NullValue.isNull(gotValue) ? null : (String) gotValue;
     }
 
     /**
@@ -148,8 +334,22 @@ public class MultiStringCache {
      * @param layerIndex 开始清除的层（包含）
      */
     public void clearLayer(int layerIndex) {
-        for (; layerIndex < layerCount; layerIndex++) {
-            cacheLayerList.get(layerIndex).clear();
+        keyVersions.bumpAll();
+        if (null != writeBehindBuffer) {
+            writeBehindBuffer.cancelAll();
+        }
+        boolean clearedLocal = false;
+        for (int i = layerIndex; i < layerCount; i++) {
+            AbstractStringCacheLayer layer = cacheLayerList.get(i);
+            layer.clear();
+            clearedLocal |= layer.isLocal();
+        }
+        if (null != hotKeyCache) {
+            hotKeyCache.clear();
+        }
+        CacheInvalidationBus bus = invalidationBus;
+        if (clearedLocal && null != bus) {
+            bus.publishClear(layerIndex);
         }
     }
 
@@ -166,24 +366,1004 @@ public class MultiStringCache {
      * @param key 缓存键
      */
     public void delete(@NonNull String key) {
+        keyVersions.bump(key);
+        if (null != writeBehindBuffer) {
+            writeBehindBuffer.cancel(Collections.singletonList(key));
+        }
         for (AbstractStringCacheLayer kvCacheLayer : cacheLayerList) {
             kvCacheLayer.delete(key);
         }
+        unpin(key);
+        publishDelete(Collections.singletonList(key));
+    }
+
+    /**
+     * 批量获取缓存，每个键都按从上到下的顺序逐层查找
+     *
+     * @param keys 缓存键集合
+     * @return 命中的键值对，按 keys 的顺序排列，未命中的键不在结果中
+     */
+    public Map<String, String> getAllCache(@NonNull Collection<String> keys) {
+        return withoutNulls(lookupAllCache(keys));
+    }
+
+    /**
+     * 批量获取缓存，各层均未命中的键一次性交给 bulkLoader 查询，并写入各层缓存，
+     * bulkLoader 没有返回的键缓存为空值
+     *
+     * @param keys       缓存键集合
+     * @param bulkLoader 批量查询函数，参数为未命中的键，返回查到的键值对
+     * @return 缓存值与查询结果的合集，按 keys 的顺序排列
+     */
+    public Map<String, String> getAll(@NonNull Collection<String> keys,
+                                      @NonNull Function<Set<String>, Map<String, String>> bulkLoader) {
+        Map<String, String> cached = lookupAllCache(keys);
+        return loadMissing(keys, cached, bulkLoader, this::setAll, NullValue.SENTINEL);
+    }
+
+    /**
+     * 批量获取缓存，值为 V 指定的类型
+     *
+     * @param keys       缓存键集合
+     * @param valueClass 缓存值的 Class
+     * @param <V>        缓存值的类型参数
+     * @return 命中的键值对，按 keys 的顺序排列
+     */
+    public <V> Map<String, V> getAllAnyCache(@NonNull Collection<String> keys, @NonNull Class<V> valueClass) {
+        Map<String, V> result = new LinkedHashMap<>();
+        lookupAllAnyCache(keys, valueClass).forEach((key, value) -> {
+            if (!NullValue.isNull(value)) {
+                result.put(key, valueClass.cast(value));
+            }
+        });
+        return result;
+    }
+
+    /**
+     * 批量获取缓存，值为 V 指定的类型，各层均未命中的键一次性交给 bulkLoader 查询，并写入各层缓存，
+     * bulkLoader 没有返回的键缓存为空值
+     *
+     * @param keys       缓存键集合
+     * @param valueClass 缓存值的 Class
+     * @param bulkLoader 批量查询函数，参数为未命中的键，返回查到的键值对
+     * @param <V>        缓存值的类型参数
+     * @return 缓存值与查询结果的合集，按 keys 的顺序排列
+     */
+    public <V> Map<String, V> getAllAny(@NonNull Collection<String> keys, @NonNull Class<V> valueClass,
+                                        @NonNull Function<Set<String>, Map<String, V>> bulkLoader) {
+        Map<String, Object> cached = lookupAllAnyCache(keys, valueClass);
+        return loadMissing(keys, cached, bulkLoader, this::setAllAny, NullValue.INSTANCE);
+    }
+
+    /**
+     * 批量将缓存设置到所有层
+     *
+     * @param entries 键值对
+     */
+    public void setAll(@NonNull Map<String, String> entries) {
+        writeAllLayers(entries, true, layer -> layer.putAll(entries));
+        unpinAll(entries.keySet());
+    }
+
+    /**
+     * 批量设置缓存，值为可以转化为 json 的任意类型
+     *
+     * @param entries 键值对
+     */
+    public void setAllAny(@NonNull Map<String, ?> entries) {
+        writeAllLayers(entries, false, layer -> layer.putAllAny(entries));
+        unpinAll(entries.keySet());
+    }
+
+    /**
+     * 批量删除缓存
+     *
+     * @param keys 缓存键集合
+     */
+    public void deleteAll(@NonNull Collection<String> keys) {
+        keyVersions.bumpAll(keys);
+        if (null != writeBehindBuffer) {
+            writeBehindBuffer.cancel(keys);
+        }
+        for (AbstractStringCacheLayer kvCacheLayer : cacheLayerList) {
+            kvCacheLayer.deleteAll(keys);
+        }
+        unpinAll(keys);
+        publishDelete(keys);
+    }
+
+    /**
+     * 异步获取缓存，本地缓存层在调用线程上同步完成，远程缓存层不阻塞调用线程
+     *
+     * @param key 缓存键
+     * @return 第一个命中的值，均未命中时结果为 null
+     */
+    public CompletableFuture<String> getCacheAsync(@NonNull String key) {
+        return lookupCacheAsync(key).thenApply(cached -> NullValue.isNull(cached) ? null : (String) cached);
+    }
+
+    /**
+     * 异步获取缓存，值为 V 指定的类型
+     *
+     * @param key        缓存键
+     * @param valueClass 缓存值的 Class
+     * @param <V>        缓存值的类型参数
+     * @return 第一个命中的值，均未命中时结果为 null
+     */
+    public <V> CompletableFuture<V> getAnyCacheAsync(@NonNull String key, @NonNull Class<V> valueClass) {
+        return lookupAnyCacheAsync(key, valueClass).thenApply(cached -> NullValue.isNull(cached) ? null : valueClass.cast(cached));
+    }
+
+    /**
+     * 异步获取缓存，如果没有则调用 loader 查询，并异步写入各层缓存
+     * <p>
+     * 同一个键并发未命中时，只有一个调用方执行 loader，其余调用方共享其结果
+     *
+     * @param key    缓存键
+     * @param loader 缓存中没有值时，调用的异步查询函数
+     * @return 缓存中的值或 loader 的结果
+     */
+    public CompletableFuture<String> getAsync(@NonNull String key, @NonNull Supplier<CompletableFuture<String>> loader) {
+        return lookupCacheAsync(key)
+                .thenCompose(cached -> null != cached ? CompletableFuture.completedFuture(cached) :
+                        loadOnceAsync(key, String.class, () -> loader.get().thenCompose(loaded -> null == loaded ?
+                                setNullAsync(key).thenApply(ignored -> NullValue.INSTANCE) :
+                                setAsync(key, loaded).thenApply(ignored -> loaded))))
+                .thenApply(value -> NullValue.isNull(value) ? null : (String) value);
+    }
+
+    /**
+     * 异步获取缓存，值为 V 指定的类型，如果没有则调用 loader 查询，并异步写入各层缓存
+     *
+     * @param key        缓存键
+     * @param valueClass 缓存值的 Class
+     * @param loader     缓存中没有值时，调用的异步查询函数
+     * @param <V>        缓存值的类型参数
+     * @return 缓存中的值或 loader 的结果
+     */
+    public <V> CompletableFuture<V> getAnyAsync(@NonNull String key, @NonNull Class<V> valueClass,
+                                                @NonNull Supplier<CompletableFuture<V>> loader) {
+        return lookupAnyCacheAsync(key, valueClass)
+                .thenCompose(cached -> null != cached ? CompletableFuture.completedFuture(cached) :
+                        loadOnceAsync(key, valueClass, () -> loader.get().thenCompose(loaded -> null == loaded ?
+                                setNullAsync(key).thenApply(ignored -> NullValue.INSTANCE) :
+                                setAnyAsync(key, loaded).thenApply(ignored -> loaded))))
+                .thenApply(value -> NullValue.isNull(value) ? null : valueClass.cast(value));
+    }
+
+    /**
+     * 异步将缓存设置到所有层，各层的写入同时进行
+     *
+     * @param key   键
+     * @param value 值
+     * @return 全部层写入完成时结束
+     */
+    public CompletableFuture<Void> setAsync(@NonNull String key, @Nullable String value) {
+        keyVersions.bump(key);
+        cancelWriteBehind(Collections.singletonList(key));
+        return allLayersAsync(layer -> layer.putAsync(key, value)).thenRun(() -> unpin(key));
+    }
+
+    /**
+     * 异步设置缓存，值为可以转化为 json 的任意类型
+     *
+     * @param key   缓存键
+     * @param value 缓存值
+     * @return 全部层写入完成时结束
+     */
+    public CompletableFuture<Void> setAnyAsync(@NonNull String key, @Nullable Object value) {
+        keyVersions.bump(key);
+        cancelWriteBehind(Collections.singletonList(key));
+        return allLayersAsync(layer -> layer.putAnyAsync(key, value)).thenRun(() -> unpin(key));
+    }
+
+    /**
+     * 异步在所有层缓存空值
+     *
+     * @param key 缓存键
+     * @return 全部层写入完成时结束
+     */
+    public CompletableFuture<Void> setNullAsync(@NonNull String key) {
+        keyVersions.bump(key);
+        cancelWriteBehind(Collections.singletonList(key));
+        return allLayersAsync(layer -> layer.putNullAsync(key)).thenRun(() -> unpin(key));
+    }
+
+    /**
+     * 异步批量获取缓存，每层只查询上层未命中的键
+     *
+     * @param keys 缓存键集合
+     * @return 命中的键值对，按 keys 的顺序排列
+     */
+    public CompletableFuture<Map<String, String>> getAllCacheAsync(@NonNull Collection<String> keys) {
+        Map<String, String> found = new ConcurrentHashMap<>(keys.size());
+        Map<String, Long> versions = keyVersions.versionsOf(keys);
+        return iterateAllFromUpToDownAsync(layerCount - 1, new LinkedHashSet<>(keys), found, versions).thenApply(ignored -> {
+            Map<String, String> result = new LinkedHashMap<>(found.size());
+            for (String key : keys) {
+                String value = found.get(key);
+                if (null != value && !NullValue.isNull(value)) {
+                    result.put(key, value);
+                }
+            }
+            return result;
+        });
+    }
+
+    /**
+     * 异步批量将缓存设置到所有层
+     *
+     * @param entries 键值对
+     * @return 全部层写入完成时结束
+     */
+    public CompletableFuture<Void> setAllAsync(@NonNull Map<String, String> entries) {
+        keyVersions.bumpAll(entries.keySet());
+        cancelWriteBehind(entries.keySet());
+        return allLayersAsync(layer -> layer.putAllAsync(entries)).thenRun(() -> unpinAll(entries.keySet()));
+    }
+
+    /**
+     * 只删除本节点本地缓存层中的键，用于处理其它节点发来的失效消息
+     *
+     * @param keys 缓存键集合
+     */
+    public void deleteLocal(@NonNull Collection<String> keys) {
+        keyVersions.bumpAll(keys);
+        for (AbstractStringCacheLayer layer : cacheLayerList) {
+            if (layer.isLocal()) {
+                layer.deleteAll(keys);
+            }
+        }
+        unpinAll(keys);
+    }
+
+    /**
+     * 只清空本节点指定层及其以上的本地缓存层，用于处理其它节点发来的失效消息
+     *
+     * @param layerIndex 开始清除的层（包含）
+     */
+    public void clearLocalLayers(int layerIndex) {
+        keyVersions.bumpAll();
+        for (int i = Math.max(layerIndex, 0); i < layerCount; i++) {
+            AbstractStringCacheLayer layer = cacheLayerList.get(i);
+            if (layer.isLocal()) {
+                layer.clear();
+            }
+        }
+        if (null != hotKeyCache) {
+            hotKeyCache.clear();
+        }
+    }
+
+    /**
+     * 暂停使用本地缓存层，读写都只经过远程缓存层
+     */
+    public void suspendLocalLayers() {
+        localLayersSuspended = true;
+        clearLocalLayers(0);
+    }
+
+    /**
+     * 清空本地缓存层后恢复使用
+     */
+    public void resumeLocalLayers() {
+        clearLocalLayers(0);
+        localLayersSuspended = false;
+    }
+
+    public boolean isLocalLayersSuspended() {
+        return localLayersSuspended;
+    }
+
+    /**
+     * 各层缓存，按从下（慢）到上（快）的顺序
+     *
+     * @return 不可修改的缓存层列表
+     */
+    public List<AbstractStringCacheLayer> getLayers() {
+        return Collections.unmodifiableList(cacheLayerList);
+    }
+
+    /**
+     * 回源加载的统计快照，loadCount 与 totalLoadTimeNanos 为 supplier、bulkLoader 的调用次数与耗时
+     *
+     * @return 启动以来的累计统计
+     */
+    public CacheLayerStats getLoaderStats() {
+        return loaderStatsCounter.snapshot();
+    }
+
+    /**
+     * 当前的热点键，按估算访问次数降序排列
+     *
+     * @return 热点键快照，未启用热点键探测时为空
+     */
+    public List<HotKey> getHotKeys() {
+        return null == hotKeyCache ? Collections.emptyList() : hotKeyCache.getHotKeys();
+    }
+
+    /**
+     * 延迟写缓冲区，用于监控待写入的数量
+     *
+     * @return 未启用延迟写时为 null
+     */
+    @Nullable
+    public WriteBehindBuffer getWriteBehindBuffer() {
+        return writeBehindBuffer;
+    }
+
+    public void setInvalidationBus(@Nullable CacheInvalidationBus invalidationBus) {
+        this.invalidationBus = invalidationBus;
+    }
+
+    /**
+     * 写入延迟写缓冲区中剩余的键值，停止后台线程，作为 Bean 时由容器在销毁时调用
+     */
+    public void shutdown() {
+        if (null != writeBehindBuffer) {
+            writeBehindBuffer.shutdown();
+        }
+        if (null != hotKeyCache) {
+            hotKeyCache.shutdown();
+        }
+        if (null != revalidateExecutor) {
+            revalidateExecutor.shutdown();
+        }
+        backfillExecutor.shutdown();
+    }
+
+    private <T> T timedLoad(Supplier<T> loader) {
+        long start = System.nanoTime();
+        try {
+            return loader.get();
+        } finally {
+            loaderStatsCounter.recordLoad(System.nanoTime() - start);
+        }
+    }
+
+    private void publishDelete(Collection<String> keys) {
+        CacheInvalidationBus bus = invalidationBus;
+        if (null != bus && hasLocalLayer) {
+            bus.publishDelete(keys);
+        }
+    }
+
+    /**
+     * 本地缓存层暂停期间跳过该层
+     */
+    private boolean skipped(AbstractStringCacheLayer layer) {
+        return localLayersSuspended && layer.isLocal();
+    }
+
+    /**
+     * 对缓存中没有的键调用一次 bulkLoader，写入缓存后与已命中的值合并
+     * <p>
+     * cached 中缓存了空值的键不再回源；bulkLoader 没有返回的键以 nullValue 写入缓存，返回结果中均不包含空值
+     *
+     * @param keys       缓存键集合
+     * @param cached     各层命中的键值对，包含空值
+     * @param bulkLoader 批量查询函数
+     * @param writer     批量写入各层缓存的方法
+     * @param nullValue  空值在 cached 与 writer 中的表示
+     * @param <T>        缓存中值的类型参数
+     * @param <V>        查询结果的类型参数
+     * @return 按 keys 的顺序排列的结果
+     */
+    @SuppressWarnings("unchecked")
+    private <T, V extends T> Map<String, V> loadMissing(Collection<String> keys, Map<String, T> cached,
+                                                        Function<Set<String>, Map<String, V>> bulkLoader,
+                                                        Consumer<Map<String, T>> writer, T nullValue) {
+        Set<String> missing = new LinkedHashSet<>(keys);
+        missing.removeAll(cached.keySet());
+        if (missing.isEmpty()) {
+            return (Map<String, V>) withoutNulls(cached);
+        }
+        Map<String, V> loaded = timedLoad(() -> bulkLoader.apply(missing));
+        Map<String, T> toWrite = new HashMap<>(missing.size());
+        if (null != loaded) {
+            toWrite.putAll(loaded);
+        }
+        for (String key : missing) {
+            if (null == toWrite.get(key)) {
+                toWrite.put(key, nullValue);
+            }
+        }
+        writer.accept(toWrite);
+        Map<String, V> result = new LinkedHashMap<>(keys.size());
+        for (String key : keys) {
+            T value = cached.containsKey(key) ? cached.get(key) : toWrite.get(key);
+            if (null != value && !NullValue.isNull(value)) {
+                result.put(key, (V) value);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 去掉缓存的空值，保持原有顺序
+     */
+    private static <T> Map<String, T> withoutNulls(Map<String, T> cached) {
+        if (cached.values().stream().noneMatch(NullValue::isNull)) {
+            return cached;
+        }
+        Map<String, T> result = new LinkedHashMap<>(cached.size());
+        cached.forEach((key, value) -> {
+            if (!NullValue.isNull(value)) {
+                result.put(key, value);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * 从各层查找字符串缓存，区分未命中与缓存的空值
+     *
+     * @param key          缓存键
+     * @param recordAccess 是否计入热点键的访问次数，同一次读取未命中后再次查询时不重复计入
+     * @return 缓存值；缓存了空值时返回 {@link NullValue#INSTANCE}；未命中时返回 null
+     */
+    private Object lookupCache(String key, boolean recordAccess) {
+        Object pinned = pinnedValue(key, String.class, recordAccess);
+        if (null != pinned) {
+            return pinned;
+        }
+        String cached = iterateFromUpToDown(key, layer -> layer.get(key), (layer, value) -> layer.put(key, value));
+        if (NullValue.isNull(cached)) {
+            return NullValue.INSTANCE;
+        }
+        pinIfHot(key, cached);
+        return cached;
+    }
+
+    private Object lookupAnyCache(String key, Class<?> valueClass, boolean recordAccess) {
+        Object pinned = pinnedValue(key, valueClass, recordAccess);
+        if (null != pinned) {
+            return pinned;
+        }
+        Object cached = iterateFromUpToDown(key, layer -> layer.lookupAny(key, valueClass), (layer, value) -> layer.putAny(key, value));
+        pinIfHot(key, cached);
+        return cached;
+    }
+
+    private Map<String, String> lookupAllCache(Collection<String> keys) {
+        return iterateAllFromUpToDown(keys, AbstractStringCacheLayer::getAll, CacheLayer::putAll);
+    }
+
+    private Map<String, Object> lookupAllAnyCache(Collection<String> keys, Class<?> valueClass) {
+        return iterateAllFromUpToDown(keys, (layer, pending) -> layer.lookupAllAny(pending, valueClass),
+                AbstractStringCacheLayer::putAllAny);
+    }
+
+    private CompletableFuture<Object> lookupCacheAsync(String key) {
+        Object pinned = pinnedValue(key, String.class, true);
+        if (null != pinned) {
+            return CompletableFuture.completedFuture(pinned);
+        }
+        long version = keyVersions.versionOf(key);
+        return iterateFromUpToDownAsync(layerCount - 1, key, version, layer -> layer.getAsync(key),
+                (layer, value) -> layer.put(key, value))
+                .thenApply(cached -> {
+                    if (NullValue.isNull(cached)) {
+                        return NullValue.INSTANCE;
+                    }
+                    pinIfHot(key, cached);
+                    return cached;
+                });
+    }
+
+    private CompletableFuture<Object> lookupAnyCacheAsync(String key, Class<?> valueClass) {
+        Object pinned = pinnedValue(key, valueClass, true);
+        if (null != pinned) {
+            return CompletableFuture.completedFuture(pinned);
+        }
+        long version = keyVersions.versionOf(key);
+        return iterateFromUpToDownAsync(layerCount - 1, key, version, layer -> layer.lookupAnyAsync(key, valueClass),
+                (layer, value) -> layer.putAny(key, value))
+                .thenApply(cached -> {
+                    pinIfHot(key, cached);
+                    return cached;
+                });
+    }
+
+    /**
+     * 带回源函数的单键查询：与 lookupCache、lookupAnyCache 相同，但命中已软过期的缓存项时立即返回旧值，
+     * 并在后台调用 loader 刷新各层
+     *
+     * @param key         缓存键
+     * @param valueClass  值的类型，用于匹配固定的热点键
+     * @param lookup      未启用软过期的缓存层的查询方法
+     * @param timedLookup 启用了软过期的缓存层的查询方法
+     * @param backfill    回填方法
+     * @param loader      回源并写入各层的函数
+     * @return 命中的值，缓存了空值时为 {@link NullValue#INSTANCE}，均未命中时返回 null
+     */
+    private Object iterateRevalidating(String key, Class<?> valueClass,
+                                       Function<AbstractStringCacheLayer, Object> lookup,
+                                       Function<AbstractStringCacheLayer, TimedValue> timedLookup,
+                                       BiConsumer<AbstractStringCacheLayer, Object> backfill,
+                                       Supplier<Object> loader) {
+        Object pinned = pinnedValue(key, valueClass, true);
+        if (null != pinned) {
+            return pinned;
+        }
+        Object cached = iterateFromUpToDown(key, layer -> {
+            long staleWindowMillis = layer.getStaleWindowMillis();
+            if (staleWindowMillis <= 0) {
+                return lookup.apply(layer);
+            }
+            TimedValue timed = timedLookup.apply(layer);
+            if (null == timed) {
+                return null;
+            }
+            if (timed.isStale(staleWindowMillis)) {
+                revalidate(key, loader);
+            }
+            return timed.getValue();
+        }, backfill);
+        if (NullValue.isNull(cached)) {
+            return NullValue.INSTANCE;
+        }
+        pinIfHot(key, cached);
+        return cached;
+    }
+
+    /**
+     * 在后台回源刷新软过期的缓存项，失败时保留旧值直到其真正过期
+     */
+    private void revalidate(String key, Supplier<Object> loader) {
+        if (null == revalidateExecutor || !revalidatingKeys.add(key)) {
+            return;
+        }
+        try {
+            revalidateExecutor.execute(() -> {
+                try {
+                    loader.get();
+                } catch (RuntimeException e) {
+                    log.warn("后台刷新软过期的缓存失败: {}", key, e);
+                } finally {
+                    revalidatingKeys.remove(key);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // 队列已满，由之后的读取再次触发
+            revalidatingKeys.remove(key);
+        }
+    }
+
+    /**
+     * 热点键已固定且类型相符时返回固定的值
+     *
+     * @param recordAccess 是否记录一次访问，每次读取只应记录一次
+     */
+    private Object pinnedValue(String key, Class<?> valueClass, boolean recordAccess) {
+        if (null == hotKeyCache || localLayersSuspended) {
+            return null;
+        }
+        if (recordAccess && !hotKeyCache.recordAccess(key)) {
+            return null;
+        }
+        Object pinned = hotKeyCache.getPinned(key);
+        if (NullValue.isNull(pinned)) {
+            // 刷新时下层已缓存为空值
+            return NullValue.INSTANCE;
+        }
+        return valueClass.isInstance(pinned) ? pinned : null;
+    }
+
+    /**
+     * 空值不固定，刷新时无法按其类型从下层读取
+     */
+    private void pinIfHot(String key, Object value) {
+        if (null != hotKeyCache && null != value && !NullValue.isNull(value) && !localLayersSuspended) {
+            hotKeyCache.pin(key, value);
+        }
+    }
+
+    private void unpin(String key) {
+        if (null != hotKeyCache) {
+            hotKeyCache.invalidate(key);
+        }
+    }
+
+    private void unpinAll(Collection<String> keys) {
+        if (null != hotKeyCache) {
+            hotKeyCache.invalidateAll(keys);
+        }
+    }
+
+    /**
+     * 合并同一个键的并发回源请求（single-flight）
+     * <p>
+     * 抢到加载权的线程再查一次缓存（上一个加载者可能刚刚写完），仍未命中才调用 loader；
+     * 其余线程最多等待 loadTimeoutMillis，超时后自行调用 loader，不会无限阻塞
+     *
+     * @param key       缓存键
+     * @param valueType 结果类型，等待到的结果类型不符时自行加载
+     * @param recheck   再次查询缓存的方法
+     * @param loader    回源加载并写入缓存的方法
+     * @return 加载结果，结果为空时返回 {@link NullValue#INSTANCE}
+     */
+    private Object loadOnce(String key, Class<?> valueType, Supplier<Object> recheck, Supplier<Object> loader) {
+        CompletableFuture<Object> myLoad = new CompletableFuture<>();
+        CompletableFuture<Object> runningLoad = inFlightLoads.putIfAbsent(key, myLoad);
+        if (null == runningLoad) {
+            try {
+                Object value = recheck.get();
+                if (null == value) {
+                    value = loader.get();
+                }
+                myLoad.complete(value);
+                return value;
+            } catch (RuntimeException | Error e) {
+                myLoad.completeExceptionally(e);
+                throw e;
+            } finally {
+                inFlightLoads.remove(key, myLoad);
+            }
+        }
+
+        Object loaded;
+        try {
+            loaded = runningLoad.get(loadTimeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            log.warn("等待缓存加载超时: {}, {}ms，自行回源", key, loadTimeoutMillis);
+            return loader.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new CacheLoadException("缓存加载失败: " + key, cause);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CacheLoadException("等待缓存加载时被中断: " + key, e);
+        }
+        if (NullValue.isNull(loaded) || valueType.isInstance(loaded)) {
+            return loaded;
+        }
+        return loader.get();
+    }
+
+    /**
+     * 本地缓存层刷新时，从其下各层由上到下查找新值，按旧值的类型读取，使刷新后仍保持对象引用
+     *
+     * @param layerIndex 要刷新的缓存层索引
+     * @param key        缓存键
+     * @param oldValue   当前缓存的值
+     * @return 新值，下层均不存在时返回 null
+     */
+    private Object reloadFromLower(int layerIndex, String key, Object oldValue) {
+        for (int i = layerIndex - 1; i >= 0; i--) {
+            AbstractStringCacheLayer layer = cacheLayerList.get(i);
+            if (skipped(layer)) {
+                continue;
+            }
+            Object value = oldValue instanceof String ? layer.get(key) : layer.getAny(key, oldValue.getClass());
+            if (null != value) {
+                return value;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 热点键刷新时，由上到下从远程缓存层查找新值，跳过本地缓存层，按旧值的类型读取
+     *
+     * @param key      缓存键
+     * @param oldValue 当前固定的值
+     * @return 新值，远程缓存层均不存在时返回 null
+     */
+    private Object reloadFromRemote(String key, Object oldValue) {
+        for (int i = layerCount - 1; i >= 0; i--) {
+            AbstractStringCacheLayer layer = cacheLayerList.get(i);
+            if (layer.isLocal()) {
+                continue;
+            }
+            Object value = oldValue instanceof String ? layer.get(key) : layer.getAny(key, oldValue.getClass());
+            if (null != value) {
+                return value;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * loadOnce 的异步版本，等待方直接共享加载方的 Future，不占用线程
+     */
+    private CompletableFuture<Object> loadOnceAsync(String key, Class<?> valueType, Supplier<CompletableFuture<Object>> loader) {
+        CompletableFuture<Object> myLoad = new CompletableFuture<>();
+        CompletableFuture<Object> runningLoad = inFlightLoads.putIfAbsent(key, myLoad);
+        if (null != runningLoad) {
+            return runningLoad.thenCompose(loaded -> NullValue.isNull(loaded) || valueType.isInstance(loaded) ?
+                    CompletableFuture.completedFuture(loaded) : loader.get());
+        }
+        long start = System.nanoTime();
+        CompletableFuture<Object> load;
+        try {
+            load = loader.get();
+        } catch (RuntimeException e) {
+            load = new CompletableFuture<>();
+            load.completeExceptionally(e);
+        }
+        return load.whenComplete((value, e) -> {
+            loaderStatsCounter.recordLoad(System.nanoTime() - start);
+            inFlightLoads.remove(key, myLoad);
+            if (null == e) {
+                myLoad.complete(value);
+            } else {
+                myLoad.completeExceptionally(e);
+            }
+        });
+    }
+
+    private CompletableFuture<Void> allLayersAsync(Function<AbstractStringCacheLayer, CompletableFuture<Void>> function) {
+        List<CompletableFuture<Void>> futures = new ArrayList<>(layerCount);
+        iterateFromDownToUp(layer -> futures.add(function.apply(layer)));
+        return CompletableFuture.allOf(futures.toArray(new CompletableFuture[0]));
+    }
+
+    /**
+     * iterateFromUpToDown 的异步版本，上一层未命中后再查询下一层
+     *
+     * @param fromIndex 开始查询的层
+     * @param key       缓存键
+     * @param version   开始查询前键的版本
+     * @param function  异步查询方法
+     * @param backfill  回填方法
+     * @param <T>       值的类型参数
+     * @return 第一个命中的值，均未命中时结果为 null
+     */
+    private <T> CompletableFuture<T> iterateFromUpToDownAsync(int fromIndex, String key, long version,
+                                                              Function<AbstractStringCacheLayer, CompletableFuture<T>> function,
+                                                              BiConsumer<AbstractStringCacheLayer, T> backfill) {
+        for (int i = fromIndex; i >= 0; i--) {
+            AbstractStringCacheLayer layer = cacheLayerList.get(i);
+            if (skipped(layer)) {
+                continue;
+            }
+            int layerIndex = i;
+            return function.apply(layer).thenCompose(value -> {
+                if (null != value) {
+                    backfillUpperLayers(layerIndex, key, version, value, backfill);
+                    return CompletableFuture.completedFuture(value);
+                }
+                return iterateFromUpToDownAsync(layerIndex - 1, key, version, function, backfill);
+            });
+        }
+        return CompletableFuture.completedFuture(null);
+    }
+
+    /**
+     * iterateAllFromUpToDown 的异步版本，命中的键值写入 found
+     */
+    private CompletableFuture<Void> iterateAllFromUpToDownAsync(int fromIndex, Set<String> pending, Map<String, String> found,
+                                                                Map<String, Long> versions) {
+        for (int i = fromIndex; i >= 0 && !pending.isEmpty(); i--) {
+            AbstractStringCacheLayer layer = cacheLayerList.get(i);
+            if (skipped(layer)) {
+                continue;
+            }
+            int layerIndex = i;
+            return layer.getAllAsync(pending).thenCompose(layerHits -> {
+                if (!layerHits.isEmpty()) {
+                    found.putAll(layerHits);
+                    backfillAllUpperLayers(layerIndex, versions, layerHits, CacheLayer::putAll);
+                }
+                Set<String> stillPending = new LinkedHashSet<>(pending);
+                stillPending.removeAll(layerHits.keySet());
+                return iterateAllFromUpToDownAsync(layerIndex - 1, stillPending, found, versions);
+            });
+        }
+        return CompletableFuture.completedFuture(null);
+    }
+
+    /**
+     * 写入各层缓存；启用延迟写时本地缓存层立即写入，远程缓存层的写入放入缓冲区，由后台线程批量完成，
+     * 缓冲区拒绝的键值退化为同步写入。值为 null（即删除）的写入总是同步完成，并取消缓冲区中这些键的写入
+     *
+     * @param entries 要写入的键值对，用于放入缓冲区
+     * @param encoded 值是否为已编码的字符串
+     * @param write   对单个缓存层的写入方法
+     */
+    private void writeAllLayers(Map<String, ?> entries, boolean encoded, Consumer<AbstractStringCacheLayer> write) {
+        keyVersions.bumpAll(entries.keySet());
+        WriteBehindBuffer buffer = writeBehindBuffer;
+        if (null == buffer) {
+            iterateFromDownToUp(write);
+            return;
+        }
+        if (entries.values().stream().anyMatch(Objects::isNull)) {
+            buffer.cancel(entries.keySet());
+            iterateFromDownToUp(write);
+            return;
+        }
+        iterateFromDownToUp(layer -> {
+            if (layer.isLocal()) {
+                write.accept(layer);
+            }
+        });
+        Map<String, ?> rejected = buffer.offerAll(entries, encoded);
+        if (rejected.isEmpty()) {
+            return;
+        }
+        // 等待正在写入的批次完成，它可能带有这些键的旧值，之后再同步写入未放入缓冲区的键值
+        buffer.cancel(rejected.keySet());
+        Consumer<AbstractStringCacheLayer> rejectedWrite = rejected.size() == entries.size() ? write :
+                layer -> writeEntries(layer, rejected, encoded);
+        iterateFromDownToUp(layer -> {
+            if (!layer.isLocal()) {
+                rejectedWrite.accept(layer);
+            }
+        });
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void writeEntries(AbstractStringCacheLayer layer, Map<String, ?> entries, boolean encoded) {
+        if (encoded) {
+            layer.putAll((Map<String, String>) entries);
+        } else {
+            layer.putAllAny(entries);
+        }
+    }
+
+    /**
+     * 取消缓冲区中这些键尚未完成的延迟写，避免之后的批量写入覆盖直接写入各层的新值
+     */
+    private void cancelWriteBehind(Collection<String> keys) {
+        if (null != writeBehindBuffer) {
+            writeBehindBuffer.cancel(keys);
+        }
     }
 
     private void iterateFromDownToUp(Consumer<AbstractStringCacheLayer> function) {
         for (int i = 0; i < layerCount; i++) {
-            function.accept(cacheLayerList.get(i));
+            AbstractStringCacheLayer layer = cacheLayerList.get(i);
+            if (!skipped(layer)) {
+                function.accept(layer);
+            }
         }
     }
 
-    private <T> T iterateFromUpToDown(Function<AbstractStringCacheLayer, T> function) {
+    /**
+     * 从上（快）到下（慢）依次查询各层，命中后将值异步回填到命中层之上的各层
+     *
+     * @param key      缓存键
+     * @param function 查询方法
+     * @param backfill 回填方法
+     * @param <T>      值的类型参数
+     * @return 第一个命中的值，均未命中时返回 null
+     */
+    private <T> T iterateFromUpToDown(String key, Function<AbstractStringCacheLayer, T> function,
+                                      BiConsumer<AbstractStringCacheLayer, T> backfill) {
+        long version = keyVersions.versionOf(key);
         for (int i = layerCount - 1; i >= 0; i--) {
-            T apply = function.apply(cacheLayerList.get(i));
+            AbstractStringCacheLayer layer = cacheLayerList.get(i);
+            if (skipped(layer)) {
+                continue;
+            }
+            T apply = function.apply(layer);
             if (null != apply) {
+                backfillUpperLayers(i, key, version, apply, backfill);
                 return apply;
             }
         }
         return null;
     }
+
+    /**
+     * 批量版的 iterateFromUpToDown，每层只查询上层未命中的键，命中的部分异步回填到该层之上的各层
+     *
+     * @param keys     缓存键集合
+     * @param getter   批量查询方法
+     * @param backfill 批量回填方法
+     * @param <T>      值的类型参数
+     * @return 命中的键值对，按 keys 的顺序排列
+     */
+    private <T> Map<String, T> iterateAllFromUpToDown(Collection<String> keys,
+                                                      BiFunction<AbstractStringCacheLayer, Collection<String>, Map<String, T>> getter,
+                                                      BiConsumer<AbstractStringCacheLayer, Map<String, T>> backfill) {
+        Set<String> pending = new LinkedHashSet<>(keys);
+        Map<String, Long> versions = keyVersions.versionsOf(pending);
+        Map<String, T> found = new HashMap<>(pending.size());
+        for (int i = layerCount - 1; i >= 0 && !pending.isEmpty(); i--) {
+            AbstractStringCacheLayer layer = cacheLayerList.get(i);
+            if (skipped(layer)) {
+                continue;
+            }
+            Map<String, T> layerHits = getter.apply(layer, pending);
+            if (layerHits.isEmpty()) {
+                continue;
+            }
+            found.putAll(layerHits);
+            pending.removeAll(layerHits.keySet());
+            backfillAllUpperLayers(i, versions, layerHits, backfill);
+        }
+        Map<String, T> result = new LinkedHashMap<>(found.size());
+        for (String key : keys) {
+            T value = found.get(key);
+            if (null != value) {
+                result.put(key, value);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 将低层命中的值写回其上的各层，各层按自身配置的 TTL 过期，因此上层的副本不会长期陈旧
+     * <p>
+     * 读取之后该键被写入或删除时不再回填；回填与写入、删除同时发生时，删除刚回填的值，下次读取从下层重新加载
+     *
+     * @param version 开始查询前键的版本
+     */
+    private <T> void backfillUpperLayers(int hitLayerIndex, String key, long version, T value,
+                                         BiConsumer<AbstractStringCacheLayer, T> backfill) {
+        if (!this.backfill || hitLayerIndex == layerCount - 1) {
+            return;
+        }
+        backfillExecutor.execute(() -> {
+            for (int i = hitLayerIndex + 1; i < layerCount; i++) {
+                AbstractStringCacheLayer layer = cacheLayerList.get(i);
+                if (skipped(layer)) {
+                    continue;
+                }
+                if (!keyVersions.unchanged(key, version)) {
+                    return;
+                }
+                try {
+                    backfill.accept(layer, value);
+                    if (!keyVersions.unchanged(key, version)) {
+                        layer.delete(key);
+                        return;
+                    }
+                } catch (RuntimeException e) {
+                    log.warn("回填缓存层失败: {}", cacheLayerList.get(i).getLayerName(), e);
+                }
+            }
+        });
+    }
+
+    /**
+     * backfillUpperLayers 的批量版本，只回填读取之后没有被写入或删除的键
+     *
+     * @param versions 开始查询前各键的版本
+     */
+    private <T> void backfillAllUpperLayers(int hitLayerIndex, Map<String, Long> versions, Map<String, T> hits,
+                                            BiConsumer<AbstractStringCacheLayer, Map<String, T>> backfill) {
+        if (!this.backfill || hitLayerIndex == layerCount - 1) {
+            return;
+        }
+        backfillExecutor.execute(() -> {
+            Map<String, T> unchanged = new HashMap<>(hits);
+            for (int i = hitLayerIndex + 1; i < layerCount; i++) {
+                AbstractStringCacheLayer layer = cacheLayerList.get(i);
+                if (skipped(layer)) {
+                    continue;
+                }
+                unchanged.keySet().removeIf(key -> !keyVersions.unchanged(key, versions.get(key)));
+                if (unchanged.isEmpty()) {
+                    return;
+                }
+                try {
+                    backfill.accept(layer, unchanged);
+                    List<String> changed = unchanged.keySet().stream()
+                            .filter(key -> !keyVersions.unchanged(key, versions.get(key)))
+                            .collect(Collectors.toList());
+                    if (!changed.isEmpty()) {
+                        layer.deleteAll(changed);
+                    }
+                } catch (RuntimeException e) {
+                    log.warn("回填缓存层失败: {}", cacheLayerList.get(i).getLayerName(), e);
+                }
+            }
+        });
+    }
+
+    /**
+     * 各键的写入版本，供预热等延后写入的场景判断键在此期间是否被写入或删除
+     *
+     * @return 本缓存的写入版本
+     */
+    public KeyVersions getKeyVersions() {
+        return keyVersions;
+    }
 }
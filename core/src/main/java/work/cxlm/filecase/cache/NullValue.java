@@ -0,0 +1,38 @@
+package work.cxlm.filecase.cache;
+
+/**
+ * 缓存的空值：回源结果为 null 时也写入缓存（负缓存），避免不存在的键每次都穿透到数据库
+ * <p>
+ * 本地缓存层以 {@link #INSTANCE} 表示，以字符串存储的缓存层以 {@link #SENTINEL} 表示，
+ * 读取时视为命中，向调用方返回 null
+ * create 2021/5/13 9:48
+ *
+ * @author Chiru
+ */
+public final class NullValue {
+
+    public static final NullValue INSTANCE = new NullValue();
+
+    /**
+     * 字符串形式的空值，不是合法的 JSON，不会与正常的缓存值冲突
+     */
+    public static final String SENTINEL = "\u0000NULL\u0000";
+
+    private NullValue() {
+    }
+
+    /**
+     * 判断缓存中取出的值是否为空值
+     *
+     * @param value 缓存中取出的值
+     * @return 是空值时返回 true，未命中（null）时返回 false
+     */
+    public static boolean isNull(Object value) {
+        return INSTANCE == value || SENTINEL.equals(value);
+    }
+
+    @Override
+    public String toString() {
+        return "NullValue";
+    }
+}
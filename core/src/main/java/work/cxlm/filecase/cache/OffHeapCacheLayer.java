@@ -0,0 +1,246 @@
+package work.cxlm.filecase.cache;
+
+import work.cxlm.filecase.cache.config.MultiCacheProperties;
+import work.cxlm.filecase.cache.stats.CacheStatsCounter;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 堆外缓存层，值序列化后存放在固定大小的直接内存中，不占用老年代，也不会增加 GC 停顿
+ * <p>
+ * 总内存按键的哈希分为若干段，每段是一块环形日志：新值总是追加在写指针处，空间不足时按写入顺序（FIFO）
+ * 淘汰最旧的缓存项；键及其位置保存在段自己的哈希索引中。覆盖写、删除只会让旧位置失效，由环形写入自然回收。
+ * 需要保证 -XX:MaxDirectMemorySize 不小于 maxMemory
+ * create 2021/5/10 10:12
+ *
+ * @author Chiru
+ */
+public class OffHeapCacheLayer extends AbstractStringCacheLayer {
+
+    private static final Duration DEFAULT_TTL = Duration.ofHours(1);
+
+    /**
+     * 单段的最大容量，ByteBuffer 以 int 寻址
+     */
+    private static final long MAX_SEGMENT_BYTES = 1L << 30;
+
+    private final Segment[] segments;
+    private final int segmentMask;
+    private final long ttlMillis;
+
+    /**
+     * 空值的存活时间，为 0 时不缓存空值
+     */
+    private final long nullTtlMillis;
+
+    public OffHeapCacheLayer() {
+        this(new MultiCacheProperties.LayerProperties());
+    }
+
+    public OffHeapCacheLayer(MultiCacheProperties.LayerProperties spec) {
+        long maxMemory = spec.getMaxMemory().toBytes();
+        // 段数取 2 的幂，且保证每段不超过 MAX_SEGMENT_BYTES
+        long minSegments = Math.max(spec.getSegments(), (maxMemory + MAX_SEGMENT_BYTES - 1) / MAX_SEGMENT_BYTES);
+        int segmentCount = 1;
+        while (segmentCount < minSegments) {
+            segmentCount <<= 1;
+        }
+        segments = new Segment[segmentCount];
+        int segmentBytes = (int) (maxMemory / segmentCount);
+        for (int i = 0; i < segmentCount; i++) {
+            segments[i] = new Segment(segmentBytes, statsCounter);
+        }
+        segmentMask = segmentCount - 1;
+        Duration ttl = null == spec.getTtl() ? DEFAULT_TTL : spec.getTtl();
+        ttlMillis = ttl.toMillis();
+        nullTtlMillis = null == spec.getNullTtl() ? 0 : Math.max(0, spec.getNullTtl().toMillis());
+    }
+
+    @Override
+    protected void putInternal(String key, String value) {
+        if (null == value) {
+            delete(key);
+            return;
+        }
+        if (NullValue.SENTINEL.equals(value)) {
+            putNull(key);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        segmentFor(key).put(key, bytes, System.currentTimeMillis() + ttlMillis);
+        statsCounter.recordPuts(1);
+        statsCounter.recordValueSize(bytes.length);
+    }
+
+    @Override
+    public void putNull(String key) {
+        if (0 == nullTtlMillis) {
+            delete(key);
+            return;
+        }
+        segmentFor(key).put(key, NullValue.SENTINEL.getBytes(StandardCharsets.UTF_8), System.currentTimeMillis() + nullTtlMillis);
+    }
+
+    @Override
+    protected String getInternal(String key) {
+        byte[] bytes = segmentFor(key).get(key, System.currentTimeMillis());
+        if (null == bytes) {
+            statsCounter.recordMisses(1);
+        } else {
+            statsCounter.recordHits(1);
+        }
+        return null == bytes ? null : new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public void delete(String key) {
+        segmentFor(key).remove(key);
+    }
+
+    @Override
+    public void clear() {
+        for (Segment segment : segments) {
+            segment.clear();
+        }
+    }
+
+    @Override
+    public String getLayerName() {
+        return "offheap";
+    }
+
+    /**
+     * 堆外缓存同样只存在于当前节点，需要跨节点失效
+     */
+    @Override
+    public boolean isLocal() {
+        return true;
+    }
+
+    private Segment segmentFor(String key) {
+        int hash = key.hashCode();
+        return segments[(hash ^ (hash >>> 16)) & segmentMask];
+    }
+
+    /**
+     * 环形日志中的一条记录，只有被索引引用的记录是有效的
+     */
+    private static class Entry {
+        private final String key;
+        private final int offset;
+        private final int length;
+        private final long expireAt;
+
+        private Entry(String key, int offset, int length, long expireAt) {
+            this.key = key;
+            this.offset = offset;
+            this.length = length;
+            this.expireAt = expireAt;
+        }
+    }
+
+    private static class Segment {
+
+        private final ByteBuffer buffer;
+        private final int capacity;
+        private final CacheStatsCounter statsCounter;
+
+        /**
+         * 键到有效记录的索引
+         */
+        private final Map<String, Entry> index = new HashMap<>();
+
+        /**
+         * 按写入顺序排列的全部记录（包括已失效的），队首是最旧的记录
+         */
+        private final ArrayDeque<Entry> log = new ArrayDeque<>();
+
+        /**
+         * 写指针
+         */
+        private int tail = 0;
+
+        private Segment(int capacity, CacheStatsCounter statsCounter) {
+            this.capacity = capacity;
+            this.statsCounter = statsCounter;
+            buffer = ByteBuffer.allocateDirect(capacity);
+        }
+
+        synchronized void put(String key, byte[] value, long expireAt) {
+            int length = value.length;
+            if (length > capacity) {
+                // 单个值超过段容量，不缓存，同时移除旧值避免读到过期数据
+                index.remove(key);
+                return;
+            }
+            if (tail + length > capacity) {
+                // 段尾空间不足：先淘汰段尾剩余的（最旧的）记录，再从段首开始写
+                while (!log.isEmpty() && log.peekFirst().offset >= tail) {
+                    evictOldest();
+                }
+                tail = 0;
+            }
+            while (!log.isEmpty() && overlaps(log.peekFirst(), tail, length)) {
+                evictOldest();
+            }
+            ByteBuffer target = buffer.duplicate();
+            target.position(tail);
+            target.put(value);
+            Entry entry = new Entry(key, tail, length, expireAt);
+            log.addLast(entry);
+            index.put(key, entry);
+            tail += length;
+        }
+
+        synchronized byte[] get(String key, long now) {
+            Entry entry = index.get(key);
+            if (null == entry) {
+                return null;
+            }
+            if (entry.expireAt <= now) {
+                index.remove(key);
+                return null;
+            }
+            byte[] value = new byte[entry.length];
+            ByteBuffer source = buffer.duplicate();
+            source.position(entry.offset);
+            source.get(value);
+            return value;
+        }
+
+        synchronized void remove(String key) {
+            index.remove(key);
+        }
+
+        synchronized void clear() {
+            index.clear();
+            log.clear();
+            tail = 0;
+        }
+
+        private void evictOldest() {
+            Entry oldest = log.pollFirst();
+            // 只有索引仍指向该记录时才移除，被覆盖写的键已经指向更新的记录
+            if (null != oldest && index.get(oldest.key) == oldest) {
+                index.remove(oldest.key);
+                statsCounter.recordEvictions(1);
+            }
+        }
+
+        /**
+         * 记录是否位于即将写入的区间内；空值的记录不占空间，位于区间内（含两端）时同样视为重叠，
+         * 否则它留在队首会挡住其后被覆盖的记录
+         */
+        private static boolean overlaps(Entry entry, int offset, int length) {
+            if (0 == entry.length) {
+                return entry.offset >= offset && entry.offset <= offset + length;
+            }
+            return entry.offset < offset + length && entry.offset + entry.length > offset;
+        }
+    }
+}
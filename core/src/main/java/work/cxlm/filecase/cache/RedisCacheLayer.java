@@ -1,51 +1,623 @@
 package work.cxlm.filecase.cache;
 
-import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.data.redis.core.RedisTemplate;
-import org.springframework.data.redis.core.ValueOperations;
+import lombok.extern.slf4j.Slf4j;
+import org.redisson.api.RBatchReactive;
+import org.redisson.api.RBucketReactive;
+import org.redisson.api.RedissonReactiveClient;
+import org.redisson.client.codec.StringCodec;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.core.*;
+import org.springframework.lang.NonNull;
+import org.springframework.lang.Nullable;
+import work.cxlm.filecase.cache.config.MultiCacheProperties;
 
-import java.util.Set;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 /**
+ * redis 缓存层
+ * <p>
+ * 所有键都位于 {namespace}:{generation}: 之下，清空时只需自增 redis 中的代数（O(1)），旧代的键立即不可见，
+ * 再由后台线程通过 SCAN 分批删除，不会使用 KEYS 阻塞 redis，也不会误删同库中其它组件的键
+ * <p>
+ * 设置了 RedissonReactiveClient 时，异步接口通过它非阻塞地访问 redis（StringCodec，与 StringRedisTemplate 的键值格式一致），
+ * 否则异步接口在调用线程上同步执行
  * create 2021/4/16 19:36
  *
  * @author Chiru
  */
+@Slf4j
 public class RedisCacheLayer extends AbstractStringCacheLayer {
 
+    public static final String DEFAULT_NAMESPACE = "file-case:cache";
+    private static final String SEPARATOR = ":";
+    private static final String GENERATION_KEY_SUFFIX = ":generation";
+    private static final long UNKNOWN_GENERATION = -1L;
+    private static final long SWEEP_PAUSE_MILLIS = 10L;
+
     private final RedisTemplate<String, String> template;
 
+    /**
+     * 缓存项的存活时间，为 null 时不过期
+     */
+    private final Duration ttl;
+
+    /**
+     * 空值的存活时间，为 null 时不缓存空值
+     */
+    private final Duration nullTtl;
+
+    /**
+     * 清理旧代键时，每批删除的数量
+     */
+    private final int sweepBatchSize;
+
+    private final ScheduledExecutorService scheduler;
+
+    private volatile String namespace = DEFAULT_NAMESPACE;
+
+    /**
+     * 本地缓存的当前代数，定时从 redis 刷新
+     */
+    private volatile long generation = UNKNOWN_GENERATION;
+
+    /**
+     * 是否可能存在尚未删除的旧代键
+     */
+    private volatile boolean sweepNeeded = true;
+
+    /**
+     * 异步接口使用的客户端，为 null 时异步接口退化为同步执行
+     */
+    private volatile RedissonReactiveClient reactiveClient;
+
     public RedisCacheLayer(RedisTemplate<String, String> template) {
+        this(template, new MultiCacheProperties.LayerProperties());
+    }
+
+    public RedisCacheLayer(RedisTemplate<String, String> template, MultiCacheProperties.LayerProperties spec) {
         this.template = template;
+        Duration ttl = spec.getTtl();
+        this.ttl = null == ttl || ttl.isZero() || ttl.isNegative() ? null : ttl;
+        Duration nullTtl = spec.getNullTtl();
+        this.nullTtl = null == nullTtl || nullTtl.isZero() || nullTtl.isNegative() ? null : nullTtl;
+        this.sweepBatchSize = spec.getSweepBatchSize();
+        configureExpiry(spec);
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "redis-cache-generation");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long refreshMillis = spec.getGenerationRefreshInterval().toMillis();
+        scheduler.scheduleWithFixedDelay(this::refreshGeneration, refreshMillis, refreshMillis, TimeUnit.MILLISECONDS);
+        long sweepMillis = spec.getSweepInterval().toMillis();
+        scheduler.scheduleWithFixedDelay(this::sweepIfNeeded, sweepMillis, sweepMillis, TimeUnit.MILLISECONDS);
     }
 
     @Override
     protected void putInternal(String key, String value) {
         ValueOperations<String, String> redisOperation = template.opsForValue();
-        redisOperation.set(key, value);
+        if (null == value) {
+            // 与 putAsync 一致，写入 null 即删除
+            delete(key);
+            return;
+        }
+        if (NullValue.SENTINEL.equals(value)) {
+            putNull(key);
+            return;
+        }
+        long start = System.nanoTime();
+        Duration entryTtl = ttlOf(value);
+        if (null == entryTtl) {
+            redisOperation.set(redisKey(key), value);
+        } else {
+            redisOperation.set(redisKey(key), value, entryTtl);
+        }
+        statsCounter.recordOperation(System.nanoTime() - start);
+        statsCounter.recordPuts(1);
+        statsCounter.recordValueSize(value.length());
+    }
+
+    @Override
+    public void putPermanent(String key, String value) {
+        long start = System.nanoTime();
+        template.opsForValue().set(redisKey(key), value);
+        statsCounter.recordOperation(System.nanoTime() - start);
+        statsCounter.recordPuts(1);
+        statsCounter.recordValueSize(value.length());
     }
 
     @Override
     protected String getInternal(String key) {
         ValueOperations<String, String> redisOperation = template.opsForValue();
-        return redisOperation.get(key);
+        long start = System.nanoTime();
+        String value = redisOperation.get(redisKey(key));
+        statsCounter.recordOperation(System.nanoTime() - start);
+        if (null == value) {
+            statsCounter.recordMisses(1);
+        } else {
+            statsCounter.recordHits(1);
+        }
+        return value;
+    }
+
+    @Override
+    public TimedValue getTimed(String key) {
+        return getWithTtl(key);
+    }
+
+    @Override
+    public TimedValue lookupAnyTimed(String key, Class<?> type) {
+        TimedValue timed = getWithTtl(key);
+        if (null == timed) {
+            return null;
+        }
+        String valueStr = (String) timed.getValue();
+        Object value = NullValue.SENTINEL.equals(valueStr) ? NullValue.INSTANCE : codec.decode(valueStr, type);
+        return new TimedValue(value, timed.getRemainingTtlMillis());
+    }
+
+    @Override
+    public long remainingTtlMillis(String key) {
+        Long remaining = template.getExpire(redisKey(key), TimeUnit.MILLISECONDS);
+        return null == remaining || remaining < 0 ? -1 : remaining;
     }
 
     @Override
     public void delete(String key) {
-        template.delete(key);
+        long start = System.nanoTime();
+        template.delete(redisKey(key));
+        statsCounter.recordOperation(System.nanoTime() - start);
     }
 
+    @Override
+    public Map<String, String> getAll(Collection<String> keys) {
+        if (keys.isEmpty()) {
+            return Collections.emptyMap();
+        }
+        // MGET，一次往返取回全部键
+        List<String> keyList = new ArrayList<>(keys);
+        List<String> redisKeys = new ArrayList<>(keyList.size());
+        String prefix = keyPrefix();
+        keyList.forEach(key -> redisKeys.add(prefix + key));
+        long start = System.nanoTime();
+        List<String> values = template.opsForValue().multiGet(redisKeys);
+        statsCounter.recordOperation(System.nanoTime() - start);
+        if (null == values) {
+            statsCounter.recordMisses(keyList.size());
+            return Collections.emptyMap();
+        }
+        Map<String, String> result = new HashMap<>(keyList.size());
+        for (int i = 0; i < keyList.size(); i++) {
+            String value = values.get(i);
+            if (null != value) {
+                result.put(keyList.get(i), value);
+            }
+        }
+        statsCounter.recordHits(result.size());
+        statsCounter.recordMisses(keyList.size() - result.size());
+        return result;
+    }
+
+    @Override
+    public void putAll(Map<String, String> entries) {
+        List<String> nullKeys = new ArrayList<>();
+        Map<String, String> toPut = splitDisabledNulls(entries, nullKeys);
+        if (!nullKeys.isEmpty()) {
+            deleteAll(nullKeys);
+        }
+        if (toPut.isEmpty()) {
+            return;
+        }
+        String prefix = keyPrefix();
+        long start = System.nanoTime();
+        // pipeline 批量 SET，保留每个键的 TTL
+        template.executePipelined(new SessionCallback<Object>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public <K, V> Object execute(@NonNull RedisOperations<K, V> operations) {
+                ValueOperations<String, String> redisOperation = (ValueOperations<String, String>) operations.opsForValue();
+                toPut.forEach((key, value) -> {
+                    Duration entryTtl = ttlOf(value);
+                    if (null == entryTtl) {
+                        redisOperation.set(prefix + key, value);
+                    } else {
+                        redisOperation.set(prefix + key, value, entryTtl);
+                    }
+                });
+                return null;
+            }
+        });
+        statsCounter.recordOperation(System.nanoTime() - start);
+        statsCounter.recordPuts(toPut.size());
+        toPut.values().forEach(value -> statsCounter.recordValueSize(value.length()));
+    }
+
+    @Override
+    public void deleteAll(Collection<String> keys) {
+        if (keys.isEmpty()) {
+            return;
+        }
+        String prefix = keyPrefix();
+        List<String> redisKeys = new ArrayList<>(keys.size());
+        keys.forEach(key -> redisKeys.add(prefix + key));
+        long start = System.nanoTime();
+        // 多键 DEL
+        template.delete(redisKeys);
+        statsCounter.recordOperation(System.nanoTime() - start);
+    }
+
+    @Override
+    public void putNull(String key) {
+        if (null == nullTtl) {
+            delete(key);
+            return;
+        }
+        long start = System.nanoTime();
+        template.opsForValue().set(redisKey(key), NullValue.SENTINEL, nullTtl);
+        statsCounter.recordOperation(System.nanoTime() - start);
+    }
+
+    @Override
+    public CompletableFuture<String> getAsync(String key) {
+        RedissonReactiveClient client = reactiveClient;
+        if (null == client) {
+            return super.getAsync(key);
+        }
+        long start = System.nanoTime();
+        return client.<String>getBucket(redisKey(key), StringCodec.INSTANCE).get().toFuture()
+                .whenComplete((value, e) -> {
+                    statsCounter.recordOperation(System.nanoTime() - start);
+                    if (null == e && null != value) {
+                        statsCounter.recordHits(1);
+                    } else if (null == e) {
+                        statsCounter.recordMisses(1);
+                    }
+                });
+    }
+
+    @Override
+    public CompletableFuture<Object> lookupAnyAsync(String key, Class<?> type) {
+        if (null == reactiveClient) {
+            return super.lookupAnyAsync(key, type);
+        }
+        return getAsync(key).thenApply(valueStr ->
+                NullValue.SENTINEL.equals(valueStr) ? NullValue.INSTANCE : codec.decode(valueStr, type));
+    }
+
+    @Override
+    public CompletableFuture<Map<String, String>> getAllAsync(Collection<String> keys) {
+        RedissonReactiveClient client = reactiveClient;
+        if (null == client) {
+            return super.getAllAsync(keys);
+        }
+        if (keys.isEmpty()) {
+            return CompletableFuture.completedFuture(Collections.emptyMap());
+        }
+        List<String> keyList = new ArrayList<>(keys);
+        String prefix = keyPrefix();
+        // 一个批次内的多个 GET 以 pipeline 发送
+        RBatchReactive batch = client.createBatch();
+        keyList.forEach(key -> batch.getBucket(prefix + key, StringCodec.INSTANCE).get());
+        long start = System.nanoTime();
+        return batch.execute().toFuture().thenApply(batchResult -> {
+            statsCounter.recordOperation(System.nanoTime() - start);
+            List<?> values = batchResult.getResponses();
+            Map<String, String> result = new HashMap<>(keyList.size());
+            for (int i = 0; i < keyList.size() && i < values.size(); i++) {
+                Object value = values.get(i);
+                if (null != value) {
+                    result.put(keyList.get(i), value.toString());
+                }
+            }
+            statsCounter.recordHits(result.size());
+            statsCounter.recordMisses(keyList.size() - result.size());
+            return result;
+        });
+    }
+
+    @Override
+    public CompletableFuture<Void> putAsync(String key, String value) {
+        RedissonReactiveClient client = reactiveClient;
+        if (null == client) {
+            return super.putAsync(key, value);
+        }
+        if (null == value) {
+            return deleteAsync(client, Collections.singletonList(key));
+        }
+        if (NullValue.SENTINEL.equals(value)) {
+            return putNullAsync(key);
+        }
+        long start = System.nanoTime();
+        RBucketReactive<String> bucket = client.getBucket(redisKey(key), StringCodec.INSTANCE);
+        Duration entryTtl = ttlOf(value);
+        return (null == entryTtl ? bucket.set(value) : bucket.set(value, entryTtl.toMillis(), TimeUnit.MILLISECONDS)).toFuture()
+                .whenComplete((ignored, e) -> {
+                    statsCounter.recordOperation(System.nanoTime() - start);
+                    if (null == e) {
+                        statsCounter.recordPuts(1);
+                        statsCounter.recordValueSize(value.length());
+                    }
+                });
+    }
+
+    @Override
+    public CompletableFuture<Void> putNullAsync(String key) {
+        RedissonReactiveClient client = reactiveClient;
+        if (null == client) {
+            return super.putNullAsync(key);
+        }
+        if (null == nullTtl) {
+            return deleteAsync(client, Collections.singletonList(key));
+        }
+        long start = System.nanoTime();
+        return client.<String>getBucket(redisKey(key), StringCodec.INSTANCE)
+                .set(NullValue.SENTINEL, nullTtl.toMillis(), TimeUnit.MILLISECONDS).toFuture()
+                .whenComplete((ignored, e) -> statsCounter.recordOperation(System.nanoTime() - start));
+    }
+
+    @Override
+    public CompletableFuture<Void> putAnyAsync(String key, Object value) {
+        if (null == reactiveClient) {
+            return super.putAnyAsync(key, value);
+        }
+        return putAsync(key, NullValue.isNull(value) ? NullValue.SENTINEL : codec.encode(value));
+    }
+
+    @Override
+    public CompletableFuture<Void> putAllAsync(Map<String, String> entries) {
+        RedissonReactiveClient client = reactiveClient;
+        if (null == client) {
+            return super.putAllAsync(entries);
+        }
+        List<String> nullKeys = new ArrayList<>();
+        Map<String, String> toPut = splitDisabledNulls(entries, nullKeys);
+        CompletableFuture<Void> deleted = nullKeys.isEmpty()
+                ? CompletableFuture.completedFuture(null) : deleteAsync(client, nullKeys);
+        if (toPut.isEmpty()) {
+            return deleted;
+        }
+        String prefix = keyPrefix();
+        RBatchReactive batch = client.createBatch();
+        toPut.forEach((key, value) -> {
+            Duration entryTtl = ttlOf(value);
+            if (null == entryTtl) {
+                batch.getBucket(prefix + key, StringCodec.INSTANCE).set(value);
+            } else {
+                batch.getBucket(prefix + key, StringCodec.INSTANCE).set(value, entryTtl.toMillis(), TimeUnit.MILLISECONDS);
+            }
+        });
+        long start = System.nanoTime();
+        return batch.execute().toFuture().thenAcceptBoth(deleted, (batchResult, ignored) -> {
+            statsCounter.recordOperation(System.nanoTime() - start);
+            statsCounter.recordPuts(toPut.size());
+            toPut.values().forEach(value -> statsCounter.recordValueSize(value.length()));
+        });
+    }
+
+    private CompletableFuture<Void> deleteAsync(RedissonReactiveClient client, Collection<String> keys) {
+        String prefix = keyPrefix();
+        String[] redisKeys = keys.stream().map(key -> prefix + key).toArray(String[]::new);
+        long start = System.nanoTime();
+        return client.getKeys().delete(redisKeys).toFuture()
+                .thenAccept(deleted -> statsCounter.recordOperation(System.nanoTime() - start));
+    }
+
+    /**
+     * 自增代数，旧代的键立即不可见，由后台线程分批删除
+     */
     @Override
     public void clear() {
-        Set<String> allKeys = template.keys("*");
-        if (null != allKeys) {
-            template.delete(allKeys);
+        Long newGeneration = template.opsForValue().increment(generationKey());
+        if (null != newGeneration) {
+            generation = newGeneration;
         }
+        sweepNeeded = true;
+        scheduler.execute(this::sweepIfNeeded);
     }
 
     @Override
     public String getLayerName() {
         return "redis";
     }
+
+    /**
+     * 绑定所属 MultiStringCache 的命名空间，本层只读写、清理该命名空间下的键
+     *
+     * @param namespace 命名空间
+     */
+    public void setNamespace(@Nullable String namespace) {
+        this.namespace = null == namespace || namespace.isEmpty() ? DEFAULT_NAMESPACE : namespace;
+        generation = UNKNOWN_GENERATION;
+        sweepNeeded = true;
+    }
+
+    public String getNamespace() {
+        return namespace;
+    }
+
+    public void setReactiveClient(@Nullable RedissonReactiveClient reactiveClient) {
+        this.reactiveClient = reactiveClient;
+    }
+
+    /**
+     * GET 与 PTTL 以 pipeline 在一次往返中完成
+     *
+     * @return 未命中时返回 null
+     */
+    private TimedValue getWithTtl(String key) {
+        String redisKey = redisKey(key);
+        long start = System.nanoTime();
+        List<Object> results = template.executePipelined(new SessionCallback<Object>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public <K, V> Object execute(@NonNull RedisOperations<K, V> operations) {
+                RedisOperations<String, String> stringOperations = (RedisOperations<String, String>) operations;
+                stringOperations.opsForValue().get(redisKey);
+                stringOperations.getExpire(redisKey, TimeUnit.MILLISECONDS);
+                return null;
+            }
+        });
+        statsCounter.recordOperation(System.nanoTime() - start);
+        String value = (String) results.get(0);
+        if (null == value) {
+            statsCounter.recordMisses(1);
+            return null;
+        }
+        statsCounter.recordHits(1);
+        Long remaining = (Long) results.get(1);
+        return new TimedValue(value, null == remaining || remaining < 0 ? -1 : remaining);
+    }
+
+    /**
+     * 空值使用 nullTtl 作为存活时间，其它值使用带抖动的 ttl
+     */
+    private Duration ttlOf(String value) {
+        if (NullValue.SENTINEL.equals(value)) {
+            return nullTtl;
+        }
+        return null == ttl || ttlJitter <= 0 ? ttl : Duration.ofMillis(jitter(ttl.toMillis()));
+    }
+
+    /**
+     * 未开启负缓存时，空值按删除处理
+     *
+     * @param entries  待写入的键值对
+     * @param nullKeys 收集需要删除的键
+     * @return 需要写入的键值对
+     */
+    private Map<String, String> splitDisabledNulls(Map<String, String> entries, List<String> nullKeys) {
+        if (null != nullTtl || !entries.containsValue(NullValue.SENTINEL)) {
+            return entries;
+        }
+        Map<String, String> toPut = new HashMap<>(entries.size());
+        entries.forEach((key, value) -> {
+            if (NullValue.SENTINEL.equals(value)) {
+                nullKeys.add(key);
+            } else {
+                toPut.put(key, value);
+            }
+        });
+        return toPut;
+    }
+
+    private String redisKey(String key) {
+        return keyPrefix() + key;
+    }
+
+    private String keyPrefix() {
+        return namespace + SEPARATOR + currentGeneration() + SEPARATOR;
+    }
+
+    private String generationKey() {
+        return namespace + GENERATION_KEY_SUFFIX;
+    }
+
+    private long currentGeneration() {
+        long current = generation;
+        if (UNKNOWN_GENERATION == current) {
+            current = loadGeneration();
+            generation = current;
+        }
+        return current;
+    }
+
+    private long loadGeneration() {
+        String stored = template.opsForValue().get(generationKey());
+        return null == stored ? 0L : Long.parseLong(stored);
+    }
+
+    /**
+     * 其它节点清空后，本节点最迟在一个刷新周期后切换到新的代数
+     */
+    private void refreshGeneration() {
+        try {
+            long latest = loadGeneration();
+            if (latest != generation) {
+                generation = latest;
+                sweepNeeded = true;
+            }
+        } catch (RuntimeException e) {
+            log.warn("刷新缓存代数失败: {}", namespace, e);
+        }
+    }
+
+    private void sweepIfNeeded() {
+        if (!sweepNeeded) {
+            return;
+        }
+        sweepNeeded = false;
+        try {
+            long deleted = sweepOldGenerations(currentGeneration());
+            log.info("已清理旧代缓存键: {}, 数量: {}", namespace, deleted);
+        } catch (RuntimeException e) {
+            sweepNeeded = true;
+            log.warn("清理旧代缓存键失败: {}", namespace, e);
+        }
+    }
+
+    /**
+     * SCAN 命名空间下的键，分批删除代数小于 currentGeneration 的键
+     *
+     * @param currentGeneration 当前代数
+     * @return 删除的键数量
+     */
+    private long sweepOldGenerations(long currentGeneration) {
+        String prefix = namespace + SEPARATOR;
+        ScanOptions options = ScanOptions.scanOptions().match(prefix + "*").count(sweepBatchSize).build();
+        Long deleted = template.execute((RedisConnection connection) -> {
+            long count = 0;
+            List<byte[]> batch = new ArrayList<>(sweepBatchSize);
+            try (Cursor<byte[]> cursor = connection.scan(options)) {
+                while (cursor.hasNext()) {
+                    byte[] rawKey = cursor.next();
+                    if (isOldGeneration(new String(rawKey, StandardCharsets.UTF_8), prefix, currentGeneration)) {
+                        batch.add(rawKey);
+                    }
+                    if (batch.size() >= sweepBatchSize) {
+                        count += deleteBatch(connection, batch);
+                    }
+                }
+            } catch (IOException e) {
+                log.warn("关闭 SCAN 游标失败", e);
+            }
+            count += deleteBatch(connection, batch);
+            return count;
+        });
+        return null == deleted ? 0L : deleted;
+    }
+
+    private long deleteBatch(RedisConnection connection, List<byte[]> batch) {
+        if (batch.isEmpty()) {
+            return 0;
+        }
+        Long deleted = connection.del(batch.toArray(new byte[0][]));
+        batch.clear();
+        // 每批之间稍作停顿，避免集中删除影响 redis 的正常请求
+        try {
+            Thread.sleep(SWEEP_PAUSE_MILLIS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return null == deleted ? 0L : deleted;
+    }
+
+    private static boolean isOldGeneration(String redisKey, String prefix, long currentGeneration) {
+        int generationEnd = redisKey.indexOf(SEPARATOR, prefix.length());
+        if (generationEnd < 0) {
+            return false;
+        }
+        try {
+            return Long.parseLong(redisKey.substring(prefix.length(), generationEnd)) < currentGeneration;
+        } catch (NumberFormatException e) {
+            // 不是本层写入的键
+            return false;
+        }
+    }
 }
@@ -0,0 +1,326 @@
+package work.cxlm.filecase.cache;
+
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.lang.Nullable;
+import work.cxlm.filecase.cache.codec.CacheCodec;
+import work.cxlm.filecase.cache.config.MultiCacheProperties;
+import work.cxlm.filecase.cache.shard.ConsistentHashRing;
+import work.cxlm.filecase.cache.stats.CacheLayerStats;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+
+/**
+ * 按一致性哈希分片到多个 redis 客户端（redis.clients）的缓存层
+ * <p>
+ * 每个分片是一个独立的 {@link RedisCacheLayer}，各自维护命名空间下的代数；单键操作只访问键所属的分片，
+ * 批量操作按分片分组后并行执行，每个分片仍是一次 MGET / pipeline。增加分片时只有约 1/(n+1) 的键改变归属，
+ * 这些键在新分片上未命中后回源，旧分片上的副本按 TTL 过期
+ * create 2021/5/19 11:03
+ *
+ * @author Chiru
+ */
+public class ShardedRedisCacheLayer extends AbstractStringCacheLayer {
+
+    private static final AtomicInteger EXECUTOR_SEQUENCE = new AtomicInteger();
+
+    private final ConsistentHashRing<RedisCacheLayer> ring;
+
+    private final ExecutorService shardExecutor;
+
+    /**
+     * @param templates 分片名称与其 RedisTemplate，分片名称决定在哈希环上的位置，不应随部署变化
+     * @param spec      本层的配置，同样作用于每个分片
+     */
+    public ShardedRedisCacheLayer(Map<String, RedisTemplate<String, String>> templates,
+                                  MultiCacheProperties.LayerProperties spec) {
+        this(spec, buildShards(templates, spec));
+    }
+
+    /**
+     * @param spec   本层的配置
+     * @param shards 分片名称与已构造的分片
+     */
+    ShardedRedisCacheLayer(MultiCacheProperties.LayerProperties spec, Map<String, RedisCacheLayer> shards) {
+        this.ring = new ConsistentHashRing<>(shards, spec.getVirtualNodes());
+        configureExpiry(spec);
+        int sequence = EXECUTOR_SEQUENCE.incrementAndGet();
+        AtomicInteger threadSequence = new AtomicInteger();
+        shardExecutor = Executors.newFixedThreadPool(Math.max(1, shards.size() - 1), r -> {
+            Thread thread = new Thread(r, "redis-shard-" + sequence + "-" + threadSequence.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @Override
+    protected void putInternal(String key, String value) {
+        ring.route(key).put(key, value);
+    }
+
+    @Override
+    public void putPermanent(String key, String value) {
+        ring.route(key).putPermanent(key, value);
+    }
+
+    @Override
+    protected String getInternal(String key) {
+        return ring.route(key).get(key);
+    }
+
+    @Override
+    public Object lookupAny(String key, Class<?> type) {
+        return ring.route(key).lookupAny(key, type);
+    }
+
+    @Override
+    public void putNull(String key) {
+        ring.route(key).putNull(key);
+    }
+
+    @Override
+    public void delete(String key) {
+        ring.route(key).delete(key);
+    }
+
+    @Override
+    public TimedValue getTimed(String key) {
+        return ring.route(key).getTimed(key);
+    }
+
+    @Override
+    public TimedValue lookupAnyTimed(String key, Class<?> type) {
+        return ring.route(key).lookupAnyTimed(key, type);
+    }
+
+    @Override
+    public long remainingTtlMillis(String key) {
+        return ring.route(key).remainingTtlMillis(key);
+    }
+
+    @Override
+    public Map<String, String> getAll(Collection<String> keys) {
+        return mergeShards(keys, RedisCacheLayer::getAll);
+    }
+
+    @Override
+    public Map<String, Object> lookupAllAny(Collection<String> keys, Class<?> type) {
+        return mergeShards(keys, (shard, shardKeys) -> shard.lookupAllAny(shardKeys, type));
+    }
+
+    @Override
+    public void putAll(Map<String, String> entries) {
+        forEachShard(entries, RedisCacheLayer::putAll);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void putAllAny(Map<String, ?> entries) {
+        forEachShard((Map<String, Object>) entries, RedisCacheLayer::putAllAny);
+    }
+
+    @Override
+    public void deleteAll(Collection<String> keys) {
+        if (keys.isEmpty()) {
+            return;
+        }
+        inParallel(ring.group(keys), (shard, shardKeys) -> {
+            shard.deleteAll(shardKeys);
+            return null;
+        });
+    }
+
+    @Override
+    public CompletableFuture<String> getAsync(String key) {
+        return ring.route(key).getAsync(key);
+    }
+
+    @Override
+    public CompletableFuture<Object> lookupAnyAsync(String key, Class<?> type) {
+        return ring.route(key).lookupAnyAsync(key, type);
+    }
+
+    @Override
+    public CompletableFuture<Void> putAsync(String key, String value) {
+        return ring.route(key).putAsync(key, value);
+    }
+
+    @Override
+    public CompletableFuture<Void> putAnyAsync(String key, Object value) {
+        return ring.route(key).putAnyAsync(key, value);
+    }
+
+    @Override
+    public CompletableFuture<Void> putNullAsync(String key) {
+        return ring.route(key).putNullAsync(key);
+    }
+
+    /**
+     * 各分片通过自身的异步接口执行，不占用批量操作的线程池，避免线程池中的任务等待同一线程池
+     */
+    @Override
+    public CompletableFuture<Map<String, String>> getAllAsync(Collection<String> keys) {
+        if (keys.isEmpty()) {
+            return CompletableFuture.completedFuture(Collections.emptyMap());
+        }
+        List<CompletableFuture<Map<String, String>>> futures = new ArrayList<>();
+        ring.group(keys).forEach((shard, shardKeys) -> futures.add(shard.getAllAsync(shardKeys)));
+        return CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).thenApply(ignored -> {
+            Map<String, String> result = new HashMap<>(keys.size());
+            futures.forEach(future -> result.putAll(future.join()));
+            return result;
+        });
+    }
+
+    /**
+     * 同 {@link #getAllAsync(Collection)}
+     */
+    @Override
+    public CompletableFuture<Void> putAllAsync(Map<String, String> entries) {
+        if (entries.isEmpty()) {
+            return CompletableFuture.completedFuture(null);
+        }
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        ring.group(entries.keySet()).forEach((shard, shardKeys) -> {
+            Map<String, String> shardEntries = new HashMap<>(shardKeys.size());
+            shardKeys.forEach(key -> shardEntries.put(key, entries.get(key)));
+            futures.add(shard.putAllAsync(shardEntries));
+        });
+        return CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0]));
+    }
+
+    /**
+     * 自增每个分片的代数
+     */
+    @Override
+    public void clear() {
+        ring.getNodes().forEach(RedisCacheLayer::clear);
+    }
+
+    @Override
+    public String getLayerName() {
+        return "shardedRedis";
+    }
+
+    /**
+     * 各分片统计之和
+     */
+    @Override
+    public CacheLayerStats getStats() {
+        CacheLayerStats.CacheLayerStatsBuilder total = CacheLayerStats.builder();
+        long hit = 0, miss = 0, put = 0, eviction = 0, load = 0, loadNanos = 0;
+        long operation = 0, operationNanos = 0, sizeCount = 0, bytes = 0;
+        for (RedisCacheLayer shard : ring.getNodes()) {
+            CacheLayerStats stats = shard.getStats();
+            hit += stats.getHitCount();
+            miss += stats.getMissCount();
+            put += stats.getPutCount();
+            eviction += stats.getEvictionCount();
+            load += stats.getLoadCount();
+            loadNanos += stats.getTotalLoadTimeNanos();
+            operation += stats.getOperationCount();
+            operationNanos += stats.getTotalOperationTimeNanos();
+            sizeCount += stats.getValueSizeCount();
+            bytes += stats.getTotalValueBytes();
+        }
+        return total.hitCount(hit).missCount(miss).putCount(put).evictionCount(eviction)
+                .loadCount(load).totalLoadTimeNanos(loadNanos)
+                .operationCount(operation).totalOperationTimeNanos(operationNanos)
+                .valueSizeCount(sizeCount).totalValueBytes(bytes)
+                .build();
+    }
+
+    @Override
+    public void setCodec(CacheCodec codec) {
+        super.setCodec(codec);
+        ring.getNodes().forEach(shard -> shard.setCodec(codec));
+    }
+
+    /**
+     * 绑定所属 MultiStringCache 的命名空间，每个分片使用相同的命名空间
+     *
+     * @param namespace 命名空间
+     */
+    public void setNamespace(@Nullable String namespace) {
+        ring.getNodes().forEach(shard -> shard.setNamespace(namespace));
+    }
+
+    public Collection<RedisCacheLayer> getShards() {
+        return ring.getNodes();
+    }
+
+    /**
+     * 停止批量操作使用的线程池
+     */
+    public void shutdown() {
+        shardExecutor.shutdown();
+    }
+
+    private static Map<String, RedisCacheLayer> buildShards(Map<String, RedisTemplate<String, String>> templates,
+                                                            MultiCacheProperties.LayerProperties spec) {
+        Map<String, RedisCacheLayer> shards = new LinkedHashMap<>(templates.size());
+        templates.forEach((name, template) -> shards.put(name, new RedisCacheLayer(template, spec)));
+        return shards;
+    }
+
+    private <V> Map<String, V> mergeShards(Collection<String> keys,
+                                           BiFunction<RedisCacheLayer, List<String>, Map<String, V>> action) {
+        if (keys.isEmpty()) {
+            return Collections.emptyMap();
+        }
+        Map<String, V> result = new HashMap<>(keys.size());
+        inParallel(ring.group(keys), action).forEach(result::putAll);
+        return result;
+    }
+
+    private <V> void forEachShard(Map<String, V> entries, BiConsumer<RedisCacheLayer, Map<String, V>> action) {
+        if (entries.isEmpty()) {
+            return;
+        }
+        Map<RedisCacheLayer, List<String>> groups = ring.group(entries.keySet());
+        inParallel(groups, (shard, shardKeys) -> {
+            Map<String, V> shardEntries = new HashMap<>(shardKeys.size());
+            shardKeys.forEach(key -> shardEntries.put(key, entries.get(key)));
+            action.accept(shard, shardEntries);
+            return null;
+        });
+    }
+
+    /**
+     * 第一个分片在调用线程上执行，其余分片提交到线程池，全部完成后返回；不能在线程池中调用
+     *
+     * @return 各分片的结果
+     */
+    private <R> List<R> inParallel(Map<RedisCacheLayer, List<String>> groups,
+                                   BiFunction<RedisCacheLayer, List<String>, R> action) {
+        List<Map.Entry<RedisCacheLayer, List<String>>> entries = new ArrayList<>(groups.entrySet());
+        if (entries.isEmpty()) {
+            return Collections.emptyList();
+        }
+        List<CompletableFuture<R>> futures = new ArrayList<>(entries.size() - 1);
+        for (Map.Entry<RedisCacheLayer, List<String>> group : entries.subList(1, entries.size())) {
+            futures.add(CompletableFuture.supplyAsync(() -> action.apply(group.getKey(), group.getValue()), shardExecutor));
+        }
+        List<R> results = new ArrayList<>(entries.size());
+        results.add(action.apply(entries.get(0).getKey(), entries.get(0).getValue()));
+        futures.forEach(future -> results.add(join(future)));
+        return results;
+    }
+
+    private static <R> R join(CompletableFuture<R> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package work.cxlm.filecase.cache;
+
+import lombok.Getter;
+
+/**
+ * 缓存值及其剩余存活时间
+ * create 2021/5/18 10:05
+ *
+ * @author Chiru
+ */
+@Getter
+public class TimedValue {
+
+    private final Object value;
+
+    /**
+     * 读取时的剩余存活时间（毫秒），无法得知时为 -1
+     */
+    private final long remainingTtlMillis;
+
+    public TimedValue(Object value, long remainingTtlMillis) {
+        this.value = value;
+        this.remainingTtlMillis = remainingTtlMillis;
+    }
+
+    /**
+     * 是否已进入软过期区间
+     *
+     * @param staleWindowMillis 软过期区间的长度
+     * @return 剩余存活时间已知且小于 staleWindowMillis 时为 true
+     */
+    public boolean isStale(long staleWindowMillis) {
+        return remainingTtlMillis >= 0 && remainingTtlMillis < staleWindowMillis;
+    }
+}
@@ -0,0 +1,221 @@
+package work.cxlm.filecase.cache.annotation;
+
+import lombok.extern.slf4j.Slf4j;
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.annotation.Around;
+import org.aspectj.lang.annotation.Aspect;
+import org.aspectj.lang.reflect.MethodSignature;
+import org.springframework.aop.support.AopUtils;
+import org.springframework.core.ResolvableType;
+import org.springframework.core.annotation.AnnotatedElementUtils;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+import org.springframework.util.ClassUtils;
+import work.cxlm.filecase.cache.MultiStringCache;
+import work.cxlm.filecase.cache.codec.CacheCodec;
+import work.cxlm.filecase.exception.CacheLoadException;
+import work.cxlm.filecase.redis.util.JacksonUtil;
+import work.cxlm.filecase.util.DefaultValueHelper;
+import work.cxlm.filecase.util.SpringExpressionParser;
+
+import java.lang.reflect.Method;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * 处理 {@link MultiCacheable} 与 {@link MultiCacheEvict}
+ * <p>
+ * 先于 DsLock 执行，缓存命中时不再加锁
+ * <p>
+ * 本地缓存层按引用存储对象，返回给调用方的可变对象是经编解码器复制的副本，调用方修改后不影响缓存与其它线程
+ * create 2021/5/15 10:31
+ *
+ * @author Chiru
+ */
+@Slf4j
+@Aspect
+@Order(0)
+@Component
+public class MultiCacheAspect {
+
+    private static final String SEPARATOR = ":";
+    private static final String GENERATION_SUFFIX = SEPARATOR + "generation";
+    private static final String TARGET_VARIABLE = "target";
+
+    private final MultiStringCache multiStringCache;
+
+    public MultiCacheAspect(MultiStringCache multiStringCache) {
+        this.multiStringCache = multiStringCache;
+    }
+
+    @Around("@annotation(work.cxlm.filecase.cache.annotation.MultiCacheable)")
+    public Object cacheable(ProceedingJoinPoint point) throws Throwable {
+        Method method = ((MethodSignature) point.getSignature()).getMethod();
+        MultiCacheable annotation = AnnotatedElementUtils.getMergedAnnotation(method, MultiCacheable.class);
+        if (null == annotation) {
+            throw new NullPointerException("注解失效，method: " + method);
+        }
+        Class<?> targetClass = AopUtils.getTargetClass(point.getTarget());
+        // 泛型父类中声明的方法（如 BaseServiceImpl.selectByPk）按目标类解析出实际的返回类型
+        ResolvableType resolvableType = ResolvableType.forMethodReturnType(method, targetClass);
+        Class<?> returnType = ClassUtils.resolvePrimitiveIfNecessary(resolvableType.resolve(method.getReturnType()));
+        if (Void.class == returnType) {
+            return point.proceed();
+        }
+        Map<String, Object> variables = variablesOf(point);
+        if (!annotation.exists().isEmpty()
+                && !Boolean.TRUE.equals(SpringExpressionParser.parse(annotation.exists(), Boolean.class, variables))) {
+            return DefaultValueHelper.getClassDefaultValue(method.getReturnType());
+        }
+        if (!annotation.condition().isEmpty()
+                && !Boolean.TRUE.equals(SpringExpressionParser.parse(annotation.condition(), Boolean.class, variables))) {
+            return point.proceed();
+        }
+        String name = nameOf(annotation.name(), targetClass);
+        String key = cacheKey(name, keyOf(annotation.key(), point, variables));
+        CacheCodec codec = multiStringCache.getLayers().get(0).getCodec();
+        try {
+            if (resolvableType.hasGenerics()) {
+                // 带泛型参数的返回值（如 List<Folder>）按原始类型解码会丢失元素类型，以字符串缓存并按完整类型解码，每次解码得到的都是新对象
+                String raw = multiStringCache.get(key, () -> codec.encode(proceedUnchecked(point)));
+                return codec.decode(raw, resolvableType);
+            }
+            @SuppressWarnings("unchecked")
+            Class<Object> valueClass = (Class<Object>) returnType;
+            return copyOf(multiStringCache.getAny(key, valueClass, () -> proceedUnchecked(point)), valueClass, codec);
+        } catch (CheckedInvocationException e) {
+            throw e.getCause();
+        }
+    }
+
+    @Around("@annotation(work.cxlm.filecase.cache.annotation.MultiCacheEvict)")
+    public Object evict(ProceedingJoinPoint point) throws Throwable {
+        Method method = ((MethodSignature) point.getSignature()).getMethod();
+        MultiCacheEvict annotation = AnnotatedElementUtils.getMergedAnnotation(method, MultiCacheEvict.class);
+        if (null == annotation) {
+            throw new NullPointerException("注解失效，method: " + method);
+        }
+        String name = nameOf(annotation.name(), AopUtils.getTargetClass(point.getTarget()));
+        if (annotation.allEntries()) {
+            Object result = point.proceed();
+            bumpGeneration(name);
+            return result;
+        }
+        if (annotation.beforeInvocation()) {
+            evictKeys(name, annotation, point);
+        }
+        Object result = point.proceed();
+        evictKeys(name, annotation, point);
+        return result;
+    }
+
+    /**
+     * 更新代数使该名称下的全部缓存失效；代数不过期，直接覆盖旧值，同时通知其它节点丢弃本地缓存的旧代数
+     */
+    private void bumpGeneration(String name) {
+        multiStringCache.setPermanent(name + GENERATION_SUFFIX, nextGeneration());
+        log.info("缓存已整体失效: {}", name);
+    }
+
+    /**
+     * 新的代数，与之前用过的代数都不相同
+     */
+    private static String nextGeneration() {
+        return Long.toString(System.currentTimeMillis(), Character.MAX_RADIX)
+                + Integer.toString(ThreadLocalRandom.current().nextInt(Character.MAX_RADIX * Character.MAX_RADIX), Character.MAX_RADIX);
+    }
+
+    /**
+     * 参数在目标方法执行后求值，插入时回填的主键也能取到
+     */
+    private void evictKeys(String name, MultiCacheEvict annotation, ProceedingJoinPoint point) {
+        Object keyObj = annotation.key().isEmpty() ? argsKey(point) :
+                SpringExpressionParser.parse(annotation.key(), Object.class, variablesOf(point));
+        List<String> keys = new ArrayList<>();
+        if (keyObj instanceof Iterable) {
+            ((Iterable<?>) keyObj).forEach(keyPart -> keys.add(cacheKey(name, keyPart)));
+        } else if (keyObj instanceof Object[]) {
+            for (Object keyPart : (Object[]) keyObj) {
+                keys.add(cacheKey(name, keyPart));
+            }
+        } else {
+            keys.add(cacheKey(name, keyObj));
+        }
+        multiStringCache.deleteAll(keys);
+    }
+
+    /**
+     * 注解方法的结果在 MultiStringCache 中使用的键，供预热等直接写入缓存的场景使用
+     *
+     * @param name    缓存名称，注解未指定时为目标类的类名
+     * @param keyPart key 表达式的值
+     * @return 带有当前代数的缓存键
+     */
+    public String cacheKey(String name, Object keyPart) {
+        String generationKey = name + GENERATION_SUFFIX;
+        String generation = multiStringCache.getCache(generationKey);
+        if (null == generation) {
+            // 代数丢失（如 redis 淘汰）时不能退回某个固定值，否则失效前的缓存项会重新可见；写入新的代数，旧缓存项一并失效
+            generation = nextGeneration();
+            multiStringCache.setPermanent(generationKey, generation);
+        }
+        String keyStr = keyPart instanceof String ? (String) keyPart : JacksonUtil.objectToString(keyPart);
+        return name + SEPARATOR + generation + SEPARATOR + keyStr;
+    }
+
+    /**
+     * 复制可变的缓存值，使用最下层的编解码器，与远程缓存层的存取方式一致；不可变的值直接返回
+     */
+    private static Object copyOf(Object value, Class<Object> valueClass, CacheCodec codec) {
+        if (null == value || value instanceof String || value instanceof Enum || value instanceof BigDecimal
+                || value instanceof BigInteger || ClassUtils.isPrimitiveOrWrapper(value.getClass())) {
+            return value;
+        }
+        return codec.decode(codec.encode(value), valueClass);
+    }
+
+    private static Object keyOf(String keyExpression, ProceedingJoinPoint point, Map<String, Object> variables) {
+        return keyExpression.isEmpty() ? argsKey(point) : SpringExpressionParser.parse(keyExpression, Object.class, variables);
+    }
+
+    private static String argsKey(ProceedingJoinPoint point) {
+        return JacksonUtil.objectToString(point.getArgs());
+    }
+
+    private static String nameOf(String name, Class<?> targetClass) {
+        return name.isEmpty() ? targetClass.getSimpleName() : name;
+    }
+
+    private static Map<String, Object> variablesOf(ProceedingJoinPoint point) {
+        String[] params = ((MethodSignature) point.getSignature()).getParameterNames();
+        Object[] args = point.getArgs();
+        Map<String, Object> variables = new HashMap<>(args.length + 1);
+        for (int i = 0; i < params.length; i++) {
+            variables.put(params[i], args[i]);
+        }
+        variables.put(TARGET_VARIABLE, point.getTarget());
+        return variables;
+    }
+
+    private static Object proceedUnchecked(ProceedingJoinPoint point) {
+        try {
+            return point.proceed();
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new CheckedInvocationException(e);
+        }
+    }
+
+    /**
+     * 在 Supplier 中传递目标方法抛出的受检异常，由切面还原
+     */
+    private static class CheckedInvocationException extends CacheLoadException {
+
+        private CheckedInvocationException(Throwable cause) {
+            super("缓存回源时抛出受检异常", cause);
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package work.cxlm.filecase.cache.annotation;
+
+import org.springframework.core.annotation.AliasFor;
+
+import java.lang.annotation.*;
+
+/**
+ * 方法执行成功后删除 MultiStringCache 中的缓存，需要与 {@link MultiCacheable} 使用相同的名称
+ * create 2021/5/15 10:06
+ *
+ * @author Chiru
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target({ElementType.METHOD, ElementType.ANNOTATION_TYPE})
+@Inherited
+@Documented
+public @interface MultiCacheEvict {
+
+    /**
+     * 缓存名称，默认为目标类的类名
+     */
+    @AliasFor("name")
+    String value() default "";
+
+    @AliasFor("value")
+    String name() default "";
+
+    /**
+     * 要删除的缓存键，SpEL 表达式，结果为集合或数组时删除其中的每一个键
+     */
+    String key() default "";
+
+    /**
+     * 是否删除该名称下的全部缓存，用于无法确定键的批量修改；通过更新代数实现，旧缓存随 TTL 过期
+     */
+    boolean allEntries() default false;
+
+    /**
+     * 是否在方法执行前也删除一次，缩短并发读取把旧值写回缓存的窗口
+     */
+    boolean beforeInvocation() default false;
+}
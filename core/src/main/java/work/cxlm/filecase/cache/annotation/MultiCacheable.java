@@ -0,0 +1,46 @@
+package work.cxlm.filecase.cache.annotation;
+
+import org.springframework.core.annotation.AliasFor;
+
+import java.lang.annotation.*;
+
+/**
+ * 方法返回值缓存到 MultiStringCache 的各层中，缓存未命中时执行方法并写入缓存
+ * <p>
+ * 同一个键并发未命中时只有一个线程执行方法；方法返回 null 时按负缓存处理。
+ * 缓存键为 名称:代数:key，代数由同名的 {@link MultiCacheEvict#allEntries()} 更新
+ * create 2021/5/15 10:06
+ *
+ * @author Chiru
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target({ElementType.METHOD, ElementType.ANNOTATION_TYPE})
+@Inherited
+@Documented
+public @interface MultiCacheable {
+
+    /**
+     * 缓存名称，默认为目标类的类名，同一个实体的读写方法应使用相同的名称
+     */
+    @AliasFor("name")
+    String value() default "";
+
+    @AliasFor("value")
+    String name() default "";
+
+    /**
+     * 缓存键，SpEL 表达式，通过 #参数名 引用参数，#target 引用目标对象；默认为全部参数的 JSON
+     */
+    String key() default "";
+
+    /**
+     * 是否使用缓存，SpEL 表达式，结果为 false 时直接执行方法，不读写缓存；默认总是使用
+     */
+    String condition() default "";
+
+    /**
+     * 结果是否可能存在，SpEL 表达式，结果为 false 时说明方法一定返回 null，直接返回 null（基本类型返回默认值），
+     * 不读写缓存也不执行方法；默认总是可能存在。表达式只求值一次，方法内无需重复判断
+     */
+    String exists() default "";
+}
@@ -0,0 +1,160 @@
+package work.cxlm.filecase.cache.bloom;
+
+import com.google.common.hash.BloomFilter;
+import com.google.common.hash.Funnels;
+import lombok.extern.slf4j.Slf4j;
+import org.redisson.api.RBloomFilter;
+import org.redisson.api.RBucket;
+import org.redisson.api.RedissonClient;
+import org.redisson.client.codec.StringCodec;
+import org.springframework.lang.Nullable;
+import work.cxlm.filecase.cache.config.MultiCacheProperties;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * 主键存在性布隆过滤器，用于拦截一定不存在的主键，避免其穿透缓存与数据库
+ * <p>
+ * redis 中的 RBloomFilter 是各节点共享的权威副本，本地保存一份 Guava 布隆过滤器作为镜像：
+ * 本地镜像命中时直接放行，未命中时再查询 redis，确认存在后补入本地镜像，因此其它节点新插入的主键不会被误拦。
+ * 布隆过滤器不支持删除，已删除的主键仍会放行，由负缓存兜底
+ * <p>
+ * 启动时按主键顺序分页扫描数据表重建，重建完成前 redis 副本不可用时一律放行
+ * create 2021/5/14 10:21
+ *
+ * @author Chiru
+ */
+@Slf4j
+public class IdBloomFilter {
+
+    private final String name;
+    private final RBloomFilter<String> redisFilter;
+
+    /**
+     * redis 副本完整构建后写入的标记，不存在时说明副本可能缺少部分主键
+     */
+    private final RBucket<String> readyMarker;
+    private final BloomFilter<CharSequence> localFilter;
+    private final int rebuildBatchSize;
+
+    private volatile boolean redisReady;
+    private volatile boolean localReady = false;
+
+    public IdBloomFilter(RedissonClient redissonClient, String name, MultiCacheProperties.BloomProperties properties) {
+        this.name = name;
+        String redisKey = properties.getKeyPrefix() + ":" + name;
+        this.redisFilter = redissonClient.getBloomFilter(redisKey, StringCodec.INSTANCE);
+        this.readyMarker = redissonClient.getBucket(redisKey + ":ready", StringCodec.INSTANCE);
+        this.localFilter = BloomFilter.create(Funnels.stringFunnel(StandardCharsets.UTF_8),
+                properties.getExpectedInsertions(), properties.getFalseProbability());
+        this.rebuildBatchSize = properties.getRebuildBatchSize();
+        redisFilter.tryInit(properties.getExpectedInsertions(), properties.getFalseProbability());
+        this.redisReady = readyMarker.isExists();
+    }
+
+    /**
+     * 判断主键是否可能存在
+     *
+     * @param id 主键
+     * @return false 表示一定不存在；true 表示可能存在，或过滤器尚不可用
+     */
+    public boolean mightContain(Object id) {
+        String idStr = String.valueOf(id);
+        if (localFilter.mightContain(idStr)) {
+            return true;
+        }
+        if (!redisReady) {
+            // 本地镜像不包含其它节点插入的主键，redis 副本不可用时无法确认不存在
+            return true;
+        }
+        try {
+            boolean exists = redisFilter.contains(idStr);
+            if (exists) {
+                localFilter.put(idStr);
+            }
+            return exists;
+        } catch (RuntimeException e) {
+            log.warn("查询布隆过滤器失败，按存在处理: {}", name, e);
+            return true;
+        }
+    }
+
+    /**
+     * 记录新插入的主键，应在插入成功后调用
+     *
+     * @param id 主键
+     */
+    public void put(Object id) {
+        if (null == id) {
+            return;
+        }
+        String idStr = String.valueOf(id);
+        localFilter.put(idStr);
+        try {
+            redisFilter.add(idStr);
+        } catch (RuntimeException e) {
+            // redis 副本缺少该主键时，其它节点会将其误判为不存在，需要尽快修复
+            log.error("写入布隆过滤器失败: {}, {}", name, idStr, e);
+        }
+    }
+
+    /**
+     * 分页扫描全部主键，填充本地镜像；redis 副本尚未完整构建时一并写入
+     *
+     * @param pager 按主键升序分页查询主键的方法
+     */
+    public void rebuild(IdPager pager) {
+        boolean fillRedis = !readyMarker.isExists();
+        long start = System.currentTimeMillis();
+        long count = 0;
+        Object lastId = null;
+        List<?> page;
+        do {
+            page = pager.nextPage(lastId, rebuildBatchSize);
+            for (Object id : page) {
+                String idStr = String.valueOf(id);
+                localFilter.put(idStr);
+                if (fillRedis) {
+                    redisFilter.add(idStr);
+                }
+            }
+            count += page.size();
+            if (!page.isEmpty()) {
+                lastId = page.get(page.size() - 1);
+            }
+        } while (page.size() >= rebuildBatchSize);
+        if (fillRedis) {
+            readyMarker.set(String.valueOf(System.currentTimeMillis()));
+        }
+        // 其它节点可能在本节点启动之后、重建之前完成了 redis 副本的构建
+        redisReady = fillRedis || readyMarker.isExists();
+        localReady = true;
+        log.info("布隆过滤器已重建: {}, 主键数: {}, 耗时: {}ms, 写入 redis: {}",
+                name, count, System.currentTimeMillis() - start, fillRedis);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public boolean isReady() {
+        return localReady;
+    }
+
+    /**
+     * 按主键升序分页查询主键
+     */
+    @FunctionalInterface
+    public interface IdPager {
+
+        /**
+         * 查询下一页主键
+         *
+         * @param lastId 上一页最后一个主键，第一页为 null
+         * @param limit  每页数量
+         * @return 大于 lastId 的主键，按升序排列，不足 limit 个时表示已到末尾
+         */
+        List<?> nextPage(@Nullable Object lastId, int limit);
+    }
+}
@@ -0,0 +1,57 @@
+package work.cxlm.filecase.cache.bloom;
+
+import lombok.extern.slf4j.Slf4j;
+import org.redisson.api.RedissonClient;
+import work.cxlm.filecase.cache.config.MultiCacheProperties;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 创建主键布隆过滤器，并在后台线程中重建，不阻塞应用启动
+ * create 2021/5/14 11:02
+ *
+ * @author Chiru
+ */
+@Slf4j
+public class IdBloomFilterFactory {
+
+    private final RedissonClient redissonClient;
+    private final MultiCacheProperties.BloomProperties properties;
+    private final ExecutorService rebuildExecutor;
+
+    public IdBloomFilterFactory(RedissonClient redissonClient, MultiCacheProperties.BloomProperties properties) {
+        this.redissonClient = redissonClient;
+        this.properties = properties;
+        AtomicInteger threadNum = new AtomicInteger();
+        this.rebuildExecutor = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "bloom-rebuild-" + threadNum.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * 创建布隆过滤器，并提交后台重建任务
+     *
+     * @param name  过滤器名称，一般为表名
+     * @param pager 按主键升序分页查询主键的方法
+     * @return 布隆过滤器，重建完成前按可能存在处理
+     */
+    public IdBloomFilter create(String name, IdBloomFilter.IdPager pager) {
+        IdBloomFilter filter = new IdBloomFilter(redissonClient, name, properties);
+        rebuildExecutor.execute(() -> {
+            try {
+                filter.rebuild(pager);
+            } catch (RuntimeException e) {
+                log.error("布隆过滤器重建失败，将按可能存在处理: {}", name, e);
+            }
+        });
+        return filter;
+    }
+
+    public void shutdown() {
+        rebuildExecutor.shutdownNow();
+    }
+}
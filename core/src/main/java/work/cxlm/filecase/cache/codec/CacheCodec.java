@@ -0,0 +1,53 @@
+package work.cxlm.filecase.cache.codec;
+
+import org.springframework.core.ResolvableType;
+
+import javax.annotation.Nullable;
+
+/**
+ * 缓存值编解码器，远程缓存层（如 redis）只能存储字符串，需要通过本接口完成对象与字符串的转换
+ * create 2021/5/6 10:12
+ *
+ * @author Chiru
+ */
+public interface CacheCodec {
+
+    /**
+     * 将缓存值编码为字符串
+     *
+     * @param value 缓存值
+     * @return 编码后的字符串，value 为 null 时返回 null
+     */
+    @Nullable
+    String encode(@Nullable Object value);
+
+    /**
+     * 将字符串解码为指定类型的缓存值
+     *
+     * @param raw  编码后的字符串
+     * @param type 目标类型
+     * @param <V>  目标类型参数
+     * @return 解码后的缓存值，raw 为空时返回 null
+     */
+    @Nullable
+    <V> V decode(@Nullable String raw, Class<V> type);
+
+    /**
+     * 将字符串解码为带泛型参数的缓存值，如 List&lt;Folder&gt;，仅按原始类型解码会丢失元素类型
+     * <p>
+     * 默认只支持不含泛型参数的类型，需要支持泛型的编解码器应覆盖本方法
+     *
+     * @param raw  编码后的字符串
+     * @param type 完整的目标类型
+     * @param <V>  目标类型参数
+     * @return 解码后的缓存值，raw 为空时返回 null
+     */
+    @Nullable
+    @SuppressWarnings("unchecked")
+    default <V> V decode(@Nullable String raw, ResolvableType type) {
+        if (type.hasGenerics()) {
+            throw new UnsupportedOperationException(getClass().getSimpleName() + " 不支持解码泛型类型：" + type);
+        }
+        return (V) decode(raw, type.resolve(Object.class));
+    }
+}
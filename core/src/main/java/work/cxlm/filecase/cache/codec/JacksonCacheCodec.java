@@ -0,0 +1,64 @@
+package work.cxlm.filecase.cache.codec;
+
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.type.TypeFactory;
+import org.springframework.core.ResolvableType;
+import work.cxlm.filecase.redis.util.JacksonUtil;
+
+import javax.annotation.Nullable;
+
+/**
+ * 基于 Jackson 的缓存编解码器，未配置编解码器时默认使用
+ * create 2021/5/6 10:20
+ *
+ * @author Chiru
+ */
+public class JacksonCacheCodec implements CacheCodec {
+
+    public static final JacksonCacheCodec INSTANCE = new JacksonCacheCodec();
+
+    @Nullable
+    @Override
+    public String encode(@Nullable Object value) {
+        return JacksonUtil.objectToString(value);
+    }
+
+    @Nullable
+    @Override
+    public <V> V decode(@Nullable String raw, Class<V> type) {
+        // 与 JacksonUtil.objectToString 对应，字符串编码时不加引号，解码时也原样返回
+        if (String.class == type && null != raw && !raw.isEmpty()) {
+            return type.cast(raw);
+        }
+        return JacksonUtil.jsonToObject(raw, type);
+    }
+
+    @Nullable
+    @Override
+    @SuppressWarnings("unchecked")
+    public <V> V decode(@Nullable String raw, ResolvableType type) {
+        if (!type.hasGenerics() && !type.isArray()) {
+            return (V) decode(raw, type.resolve(Object.class));
+        }
+        return JacksonUtil.jsonToObject(raw, javaTypeOf(type, JacksonUtil.getObjectMapper().getTypeFactory()));
+    }
+
+    /**
+     * 将 Spring 解析出的泛型类型逐层转换为 Jackson 类型，无法解析的类型变量按 Object 处理
+     */
+    private static JavaType javaTypeOf(ResolvableType type, TypeFactory typeFactory) {
+        if (type.isArray()) {
+            return typeFactory.constructArrayType(javaTypeOf(type.getComponentType(), typeFactory));
+        }
+        Class<?> rawClass = type.resolve(Object.class);
+        if (!type.hasGenerics()) {
+            return typeFactory.constructType(rawClass);
+        }
+        ResolvableType[] generics = type.getGenerics();
+        JavaType[] parameters = new JavaType[generics.length];
+        for (int i = 0; i < generics.length; i++) {
+            parameters[i] = javaTypeOf(generics[i], typeFactory);
+        }
+        return typeFactory.constructParametricType(rawClass, parameters);
+    }
+}
@@ -2,6 +2,7 @@ package work.cxlm.filecase.cache.config;
 
 import lombok.extern.slf4j.Slf4j;
 import lombok.val;
+import org.redisson.api.RedissonClient;
 import org.assertj.core.util.Lists;
 import org.springframework.beans.BeansException;
 import org.springframework.beans.factory.config.BeanFactoryPostProcessor;
@@ -9,6 +10,7 @@ import org.springframework.beans.factory.config.ConfigurableListableBeanFactory;
 import org.springframework.beans.factory.support.AbstractBeanDefinition;
 import org.springframework.beans.factory.support.BeanDefinitionBuilder;
 import org.springframework.beans.factory.support.BeanDefinitionRegistry;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.boot.context.properties.bind.Bindable;
 import org.springframework.boot.context.properties.bind.Binder;
@@ -21,12 +23,24 @@ import org.springframework.context.annotation.Import;
 import org.springframework.core.Ordered;
 import org.springframework.core.env.Environment;
 import org.springframework.lang.NonNull;
+import work.cxlm.filecase.cache.AbstractLocalCacheLayer;
 import work.cxlm.filecase.cache.AbstractStringCacheLayer;
 import work.cxlm.filecase.cache.CacheLayerBuilder;
 import work.cxlm.filecase.cache.MultiStringCache;
+import work.cxlm.filecase.cache.RedisCacheLayer;
+import work.cxlm.filecase.cache.ShardedRedisCacheLayer;
+import work.cxlm.filecase.cache.bloom.IdBloomFilterFactory;
+import work.cxlm.filecase.cache.codec.CacheCodec;
+import work.cxlm.filecase.cache.codec.JacksonCacheCodec;
+import work.cxlm.filecase.cache.hotkey.HotKeyEndpoint;
+import work.cxlm.filecase.cache.stats.MultiCacheMetrics;
+import work.cxlm.filecase.cache.sync.CacheInvalidationBus;
+import work.cxlm.filecase.cache.warmup.CacheWarmer;
 
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.stream.Collectors;
@@ -52,7 +66,75 @@ public class MultiCacheConfiguration implements ApplicationContextAware {
         List<AbstractStringCacheLayer> layers = properties.getLayers().stream()
                 .map(layerName -> (AbstractStringCacheLayer) applicationContext.getBean(layerName + "CacheLayer"))
                 .collect(Collectors.toList());
-        return new MultiStringCache(layers);
+        CacheCodec codec = null == properties.getCodecBeanName() ? JacksonCacheCodec.INSTANCE :
+                applicationContext.getBean(properties.getCodecBeanName(), CacheCodec.class);
+        for (AbstractStringCacheLayer layer : layers) {
+            layer.setCodec(codec);
+            if (layer instanceof RedisCacheLayer) {
+                ((RedisCacheLayer) layer).setNamespace(properties.getNamespace());
+            }
+            if (layer instanceof ShardedRedisCacheLayer) {
+                ((ShardedRedisCacheLayer) layer).setNamespace(properties.getNamespace());
+            }
+            if (layer instanceof AbstractLocalCacheLayer) {
+                ((AbstractLocalCacheLayer) layer).setStoreByReference(properties.isLocalStoreByReference());
+                ((AbstractLocalCacheLayer) layer).setReferenceTypes(properties.getLocalReferenceTypes());
+            }
+        }
+        return new MultiStringCache(layers, properties);
+    }
+
+    /**
+     * 注册本地缓存层的跨节点失效总线，需要开启 cache.invalidation.enabled
+     */
+    @Bean(destroyMethod = "shutdown")
+    @ConditionalOnProperty(prefix = "cache.invalidation", name = "enabled", havingValue = "true")
+    public CacheInvalidationBus cacheInvalidationBus(MultiStringCache multiStringCache, MultiCacheProperties properties) {
+        MultiCacheProperties.InvalidationProperties invalidation = properties.getInvalidation();
+        RedissonClient redissonClient = applicationContext.getBean(invalidation.getRedissonClient(), RedissonClient.class);
+        CacheInvalidationBus bus = new CacheInvalidationBus(redissonClient, multiStringCache, invalidation);
+        bus.start();
+        multiStringCache.setInvalidationBus(bus);
+        log.info("已启用缓存失效总线: {}", invalidation.getChannel());
+        return bus;
+    }
+
+    /**
+     * 注册主键布隆过滤器的工厂，需要开启 cache.bloom.enabled
+     */
+    @Bean(destroyMethod = "shutdown")
+    @ConditionalOnProperty(prefix = "cache.bloom", name = "enabled", havingValue = "true")
+    public IdBloomFilterFactory idBloomFilterFactory(MultiCacheProperties properties) {
+        MultiCacheProperties.BloomProperties bloom = properties.getBloom();
+        RedissonClient redissonClient = applicationContext.getBean(bloom.getRedissonClient(), RedissonClient.class);
+        return new IdBloomFilterFactory(redissonClient, bloom);
+    }
+
+    /**
+     * 注册本地缓存层的预热，需要开启 cache.warm-up.enabled；停机时保存快照，因此应先于 MultiStringCache 销毁
+     */
+    @Bean(destroyMethod = "shutdown")
+    @ConditionalOnProperty(prefix = "cache.warm-up", name = "enabled", havingValue = "true")
+    public CacheWarmer cacheWarmer(MultiStringCache multiStringCache, MultiCacheProperties properties) {
+        CacheWarmer warmer = new CacheWarmer(multiStringCache, properties.getWarmUp());
+        warmer.start();
+        return warmer;
+    }
+
+    /**
+     * 热点键列表，可通过 /actuator/hotkeys 查看
+     */
+    @Bean
+    public HotKeyEndpoint hotKeyEndpoint(MultiStringCache multiStringCache) {
+        return new HotKeyEndpoint(multiStringCache);
+    }
+
+    /**
+     * 各层缓存的统计，由 actuator 自动配置的 MeterRegistry 绑定，可通过 /actuator/metrics/cache.layer.* 查看
+     */
+    @Bean
+    public MultiCacheMetrics multiCacheMetrics(MultiStringCache multiStringCache) {
+        return new MultiCacheMetrics(multiStringCache);
     }
 
     @Override
@@ -64,6 +146,7 @@ public class MultiCacheConfiguration implements ApplicationContextAware {
 
         private final AtomicBoolean registered = new AtomicBoolean(false);
         private List<String> layers;
+        private Map<String, MultiCacheProperties.LayerProperties> specs;
 
         @Override
         public void postProcessBeanFactory(@NonNull ConfigurableListableBeanFactory beanFactory) throws BeansException {
@@ -76,6 +159,7 @@ public class MultiCacheConfiguration implements ApplicationContextAware {
                     val builder = BeanDefinitionBuilder
                             .genericBeanDefinition(CacheLayerBuilder.class)
                             .addConstructorArgValue(layer)
+                            .addConstructorArgValue(specs.getOrDefault(layer, new MultiCacheProperties.LayerProperties()))
                             .setFactoryMethod("buildStringCacheLayer");
 
                     AbstractBeanDefinition bd = builder.getBeanDefinition();
@@ -96,6 +180,9 @@ public class MultiCacheConfiguration implements ApplicationContextAware {
             layers = Binder.get(environment)
                     .bind("cache.layers", Bindable.listOf(String.class))
                     .orElse(Lists.emptyList());
+            specs = Binder.get(environment)
+                    .bind("cache.specs", Bindable.mapOf(String.class, MultiCacheProperties.LayerProperties.class))
+                    .orElse(Collections.emptyMap());
         }
     }
 }
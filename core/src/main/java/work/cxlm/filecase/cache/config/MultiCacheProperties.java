@@ -2,8 +2,16 @@ package work.cxlm.filecase.cache.config;
 
 import lombok.Data;
 import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.util.unit.DataSize;
+import work.cxlm.filecase.cache.writebehind.OverflowPolicy;
 
+import java.time.Duration;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 /**
  * create 2021/4/18 20:55
@@ -18,4 +26,329 @@ public class MultiCacheProperties {
      * 各层缓存名
      */
     private ArrayList<String> layers;
+
+    /**
+     * 本缓存在远程缓存层中的命名空间，所有键都位于该命名空间之下
+     */
+    private String namespace = "file-case:cache";
+
+    /**
+     * 远程缓存层使用的编解码器 Bean 名称，默认为 JacksonCacheCodec
+     */
+    private String codecBeanName;
+
+    /**
+     * 本地缓存层是否直接存储对象引用，关闭后本地缓存层也会进行序列化
+     */
+    private boolean localStoreByReference = true;
+
+    /**
+     * 本地缓存层额外按引用存储的值类型，须为不可变类型；字符串、基本类型包装类、枚举等默认按引用存储，
+     * 其它类型编码后存储，读取时解码出新的对象
+     */
+    private Set<Class<?>> localReferenceTypes = new HashSet<>();
+
+    /**
+     * 低层命中时，是否异步回填到其上的各层缓存
+     */
+    private boolean backfill = true;
+
+    /**
+     * 同一个键并发未命中时，只有一个线程回源加载，其余线程等待其结果的最长时间
+     */
+    private Duration loadTimeout = Duration.ofSeconds(3);
+
+    /**
+     * 各层缓存的独立配置，键为缓存层名，如 redis、guava
+     */
+    private Map<String, LayerProperties> specs = new HashMap<>();
+
+    /**
+     * 跨节点失效本地缓存层的配置
+     */
+    private InvalidationProperties invalidation = new InvalidationProperties();
+
+    /**
+     * 主键存在性布隆过滤器的配置
+     */
+    private BloomProperties bloom = new BloomProperties();
+
+    /**
+     * 热点键探测与本地固定的配置
+     */
+    private HotKeyProperties hotKey = new HotKeyProperties();
+
+    /**
+     * 远程缓存层延迟写的配置
+     */
+    private WriteBehindProperties writeBehind = new WriteBehindProperties();
+
+    /**
+     * 启动时预热本地缓存层的配置
+     */
+    private WarmUpProperties warmUp = new WarmUpProperties();
+
+    @Data
+    public static class LayerProperties {
+
+        /**
+         * 本层缓存项的存活时间（写入后计时），为空时使用缓存层的默认值，本地缓存层应短于远程缓存层
+         */
+        private Duration ttl;
+
+        /**
+         * 空值（回源结果为 null）在本层的存活时间，应远短于 ttl，为 0 时本层不缓存空值
+         */
+        private Duration nullTtl = Duration.ofMinutes(1);
+
+        /**
+         * 本地缓存层：最后一次访问后的存活时间，可与 ttl 同时配置，先到者生效
+         */
+        private Duration expireAfterAccess;
+
+        /**
+         * 本地缓存层：写入后经过该时间，下一次读取会触发从下层缓存异步重新加载，读取方仍拿到旧值，
+         * 应短于 ttl，使热点缓存项在后台刷新而不是过期后由请求线程回源
+         */
+        private Duration refreshAfterWrite;
+
+        /**
+         * 存活时间的随机抖动比例（0 ~ 1），每个缓存项的存活时间随机缩短 0 ~ ttl × ttlJitter，
+         * 避免同时写入的缓存项同时过期；本地缓存层与 expireAfterAccess 同时配置时不生效
+         */
+        private double ttlJitter = 0;
+
+        /**
+         * 存活时间的最后这段时间内缓存项视为软过期：通过 get、getAny 读取时立即返回旧值，
+         * 同时由一个后台线程回源刷新；应短于 ttl × (1 - ttlJitter)，为空时不启用
+         */
+        private Duration staleWhileRevalidate;
+
+        /**
+         * 本地缓存层：最多缓存的条目数，配置了 maximumWeight 时不生效
+         */
+        private long maximumSize = 10000;
+
+        /**
+         * 本地缓存层：缓存项总大小的上限（按估算的字节数加权），如 64MB，配置后代替 maximumSize
+         */
+        private DataSize maximumWeight;
+
+        /**
+         * 堆外缓存层：占用的直接内存总量，启动时一次性分配
+         */
+        private DataSize maxMemory = DataSize.ofMegabytes(256);
+
+        /**
+         * 堆外缓存层：分段数，各段独立加锁，会向上取整为 2 的幂
+         */
+        private int segments = 16;
+
+        /**
+         * 磁盘缓存层：缓存文件所在目录，重启后从该目录恢复索引
+         */
+        private String directory = System.getProperty("java.io.tmpdir") + "/file-case-cache";
+
+        /**
+         * 磁盘缓存层：缓存文件的总大小上限，超出后按 LRU 淘汰
+         */
+        private DataSize maxDiskSize = DataSize.ofGigabytes(1);
+
+        /**
+         * 远程缓存层：从 redis 刷新缓存代数的间隔，其它节点清空缓存后，最迟经过该间隔本节点可见
+         */
+        private Duration generationRefreshInterval = Duration.ofSeconds(1);
+
+        /**
+         * 远程缓存层：检查并清理旧代键的间隔
+         */
+        private Duration sweepInterval = Duration.ofMinutes(1);
+
+        /**
+         * 远程缓存层：清理旧代键时每次 SCAN、DEL 的数量
+         */
+        private int sweepBatchSize = 500;
+
+        /**
+         * 远程缓存层：异步接口使用的 RedissonReactiveClient Bean 名称（redis.clients 中 type 为 REACTIVE 的客户端），
+         * 为空时异步接口在调用线程上同步执行
+         */
+        private String reactiveClient;
+
+        /**
+         * 分片 redis 缓存层：参与分片的 redis.clients 名称，为空时使用全部客户端；
+         * 名称决定分片在哈希环上的位置，增加客户端时只有约 1/(n+1) 的键改变归属
+         */
+        private List<String> shards = new ArrayList<>();
+
+        /**
+         * 分片 redis 缓存层：每个分片在哈希环上的虚拟节点数，越多键的分布越均匀
+         */
+        private int virtualNodes = 160;
+    }
+
+    @Data
+    public static class InvalidationProperties {
+
+        /**
+         * 是否启用，多节点部署且使用了本地缓存层时应开启
+         */
+        private boolean enabled = false;
+
+        /**
+         * 用于发布、订阅失效消息的 RedissonClient Bean 名称
+         */
+        private String redissonClient = "redissonClient";
+
+        /**
+         * 失效消息的频道名
+         */
+        private String channel = "file-case:cache:invalidation";
+
+        /**
+         * 失效消息的合并发送间隔
+         */
+        private Duration batchInterval = Duration.ofMillis(50);
+
+        /**
+         * 单条失效消息最多携带的键数量，积攒到该数量时立即发送
+         */
+        private int batchSize = 512;
+    }
+
+    @Data
+    public static class BloomProperties {
+
+        /**
+         * 是否启用，启用后按主键查询时先经过布隆过滤器，一定不存在的主键直接返回 null
+         */
+        private boolean enabled = false;
+
+        /**
+         * 保存布隆过滤器的 RedissonClient Bean 名称
+         */
+        private String redissonClient = "redissonClient";
+
+        /**
+         * redis 中布隆过滤器的键前缀，后接表名
+         */
+        private String keyPrefix = "file-case:bloom";
+
+        /**
+         * 预计的元素数量，超出后误判率上升，需调大后删除 redis 中的过滤器重建
+         */
+        private long expectedInsertions = 1_000_000;
+
+        /**
+         * 期望的误判率
+         */
+        private double falseProbability = 0.01;
+
+        /**
+         * 启动时从数据库分页读取主键重建过滤器，每页的大小
+         */
+        private int rebuildBatchSize = 1000;
+    }
+
+    @Data
+    public static class HotKeyProperties {
+
+        /**
+         * 是否启用，启用后读取时采样统计访问频率，热点键固定在本地并定时从下层刷新
+         */
+        private boolean enabled = false;
+
+        /**
+         * 采样率，每 sampleRate 次访问记录一次，为 1 时记录全部访问
+         */
+        private int sampleRate = 1;
+
+        /**
+         * count-min sketch 每行的计数器数量
+         */
+        private int sketchWidth = 4096;
+
+        /**
+         * count-min sketch 的行数
+         */
+        private int sketchDepth = 4;
+
+        /**
+         * 一个窗口内的访问次数（估算）达到该值时视为热点键
+         */
+        private long threshold = 1000;
+
+        /**
+         * 统计窗口，每个窗口结束时计数减半，并移除不再热的键
+         */
+        private Duration window = Duration.ofSeconds(10);
+
+        /**
+         * 最多同时固定的热点键数量
+         */
+        private int maxHotKeys = 64;
+
+        /**
+         * 固定在本地的热点键的刷新间隔，到期后读取时在后台从下层重新加载
+         */
+        private Duration refreshInterval = Duration.ofSeconds(1);
+    }
+
+    @Data
+    public static class WriteBehindProperties {
+
+        /**
+         * 是否启用，启用后写入时本地缓存层立即更新，远程缓存层的写入进入缓冲区，由后台线程批量写入
+         */
+        private boolean enabled = false;
+
+        /**
+         * 缓冲区最多容纳的键数量，同一个键的多次写入只占一个位置
+         */
+        private int bufferSize = 10000;
+
+        /**
+         * 每批写入的最大键数量
+         */
+        private int batchSize = 500;
+
+        /**
+         * 后台线程的写入间隔，缓冲区积攒到 batchSize 时立即写入
+         */
+        private Duration flushInterval = Duration.ofMillis(50);
+
+        /**
+         * 缓冲区已满时的处理策略
+         */
+        private OverflowPolicy overflowPolicy = OverflowPolicy.SYNC;
+    }
+
+    @Data
+    public static class WarmUpProperties {
+
+        /**
+         * 是否启用，启用后停机时将本地缓存层最常访问的缓存项保存为快照，启动时在后台恢复
+         */
+        private boolean enabled = false;
+
+        /**
+         * 快照文件所在的目录，每个本地缓存层一个文件
+         */
+        private String snapshotDirectory = "cache-snapshot";
+
+        /**
+         * 每个本地缓存层最多保存的缓存项数量
+         */
+        private int maxEntries = 10000;
+
+        /**
+         * 快照的最长有效期，超过后不再恢复；停机期间的修改不会反映到快照中，不宜长于本地缓存层的 TTL
+         */
+        private Duration maxAge = Duration.ofMinutes(30);
+
+        /**
+         * 应用就绪后依次执行的预热数据源，为 CacheWarmUpSource 的 Bean 名称
+         */
+        private List<String> sources = new ArrayList<>();
+    }
 }
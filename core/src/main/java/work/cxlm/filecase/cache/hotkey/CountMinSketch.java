@@ -0,0 +1,84 @@
+package work.cxlm.filecase.cache.hotkey;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 线程安全的 count-min sketch，用固定的内存估算各键的访问次数，估算值只会偏大不会偏小
+ * <p>
+ * 通过 {@link #halve()} 定期将全部计数减半，使估算值反映最近的访问频率
+ * create 2021/5/14 15:12
+ *
+ * @author Chiru
+ */
+public class CountMinSketch {
+
+    private final int depth;
+    private final int widthMask;
+    private final AtomicLongArray counters;
+
+    /**
+     * @param width 每行的计数器数量，向上取整为 2 的幂
+     * @param depth 行数，即哈希函数的数量
+     */
+    public CountMinSketch(int width, int depth) {
+        int actualWidth = Integer.highestOneBit(Math.max(width, 2) - 1) << 1;
+        this.depth = depth;
+        this.widthMask = actualWidth - 1;
+        this.counters = new AtomicLongArray(actualWidth * depth);
+    }
+
+    /**
+     * 记录一次访问
+     *
+     * @param key 缓存键
+     * @return 记录后的估算次数
+     */
+    public long increment(String key) {
+        int hash = spread(key.hashCode());
+        long min = Long.MAX_VALUE;
+        for (int i = 0; i < depth; i++) {
+            min = Math.min(min, counters.incrementAndGet(indexOf(hash, i)));
+        }
+        return min;
+    }
+
+    /**
+     * 估算访问次数
+     *
+     * @param key 缓存键
+     * @return 估算次数
+     */
+    public long estimate(String key) {
+        int hash = spread(key.hashCode());
+        long min = Long.MAX_VALUE;
+        for (int i = 0; i < depth; i++) {
+            min = Math.min(min, counters.get(indexOf(hash, i)));
+        }
+        return min;
+    }
+
+    /**
+     * 全部计数减半，与并发的 increment 之间不要求原子性
+     */
+    public void halve() {
+        for (int i = 0; i < counters.length(); i++) {
+            counters.set(i, counters.get(i) >>> 1);
+        }
+    }
+
+    /**
+     * 每行使用不同的种子对 hash 再次混合，双重哈希得到该行的位置
+     */
+    private int indexOf(int hash, int row) {
+        int h = hash + row * spread(hash ^ 0x9E3779B9);
+        return row * (widthMask + 1) + (spread(h) & widthMask);
+    }
+
+    private static int spread(int h) {
+        h ^= h >>> 16;
+        h *= 0x85EBCA6B;
+        h ^= h >>> 13;
+        h *= 0xC2B2AE35;
+        return h ^ (h >>> 16);
+    }
+}
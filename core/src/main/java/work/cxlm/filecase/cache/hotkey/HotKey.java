@@ -0,0 +1,27 @@
+package work.cxlm.filecase.cache.hotkey;
+
+import lombok.Builder;
+import lombok.Getter;
+
+/**
+ * 热点键的快照
+ * create 2021/5/14 15:40
+ *
+ * @author Chiru
+ */
+@Getter
+@Builder
+public class HotKey {
+
+    private final String key;
+
+    /**
+     * 当前窗口内的估算访问次数，已按采样率换算
+     */
+    private final long estimatedCount;
+
+    /**
+     * 值是否已固定在本地
+     */
+    private final boolean pinned;
+}
@@ -0,0 +1,177 @@
+package work.cxlm.filecase.cache.hotkey;
+
+import com.github.benmanes.caffeine.cache.CacheLoader;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.LoadingCache;
+import lombok.extern.slf4j.Slf4j;
+import org.checkerframework.checker.nullness.qual.NonNull;
+import org.checkerframework.checker.nullness.qual.Nullable;
+import work.cxlm.filecase.cache.config.MultiCacheProperties;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiFunction;
+
+/**
+ * 热点键探测与本地固定
+ * <p>
+ * 读取时采样记录到 count-min sketch 中，估算次数超过阈值的键成为热点键，其值固定在本地，
+ * 读取时优先返回，不再经过各缓存层；固定的值按 refreshInterval 在后台从下层刷新，
+ * 因此与写入并发时最多陈旧一个刷新间隔。每个窗口结束时计数减半，不再热的键解除固定
+ * create 2021/5/14 15:31
+ *
+ * @author Chiru
+ */
+@Slf4j
+public class HotKeyCache {
+
+    private final CountMinSketch sketch;
+    private final int sampleRate;
+    private final long threshold;
+    private final int maxHotKeys;
+
+    /**
+     * 当前的热点键
+     */
+    private final ConcurrentHashMap<String, Boolean> hotKeys = new ConcurrentHashMap<>();
+
+    /**
+     * 热点键固定在本地的值
+     */
+    private final LoadingCache<String, Object> pinned;
+
+    private final ScheduledExecutorService decayExecutor;
+
+    /**
+     * @param properties 热点键配置
+     * @param reloader   刷新时从各缓存层重新读取的函数，参数为缓存键与旧值，返回 null 时解除固定
+     */
+    public HotKeyCache(MultiCacheProperties.HotKeyProperties properties, BiFunction<String, Object, Object> reloader) {
+        this.sketch = new CountMinSketch(properties.getSketchWidth(), properties.getSketchDepth());
+        this.sampleRate = Math.max(1, properties.getSampleRate());
+        this.threshold = properties.getThreshold();
+        this.maxHotKeys = properties.getMaxHotKeys();
+        long windowMillis = properties.getWindow().toMillis();
+        this.pinned = Caffeine.newBuilder()
+                .maximumSize(maxHotKeys)
+                .refreshAfterWrite(properties.getRefreshInterval())
+                // 刷新只在读取时触发，长时间未读取的值在一个窗口后过期
+                .expireAfterWrite(Math.max(windowMillis, properties.getRefreshInterval().toMillis() * 2), TimeUnit.MILLISECONDS)
+                .build(new CacheLoader<String, Object>() {
+                    @Override
+                    public @Nullable Object load(@NonNull String key) {
+                        // 只通过 getIfPresent 读取，不会触发加载
+                        return null;
+                    }
+
+                    @Override
+                    public @Nullable Object reload(@NonNull String key, @NonNull Object oldValue) {
+                        return reloader.apply(key, oldValue);
+                    }
+                });
+        this.decayExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "hot-key-decay");
+            thread.setDaemon(true);
+            return thread;
+        });
+        decayExecutor.scheduleWithFixedDelay(this::decay, windowMillis, windowMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 记录一次访问
+     *
+     * @param key 缓存键
+     * @return 该键当前是否为热点键
+     */
+    public boolean recordAccess(String key) {
+        if (1 == sampleRate || 0 == ThreadLocalRandom.current().nextInt(sampleRate)) {
+            long count = sketch.increment(key) * sampleRate;
+            if (count >= threshold && !hotKeys.containsKey(key) && hotKeys.size() < maxHotKeys) {
+                hotKeys.put(key, Boolean.TRUE);
+                log.info("发现热点键: {}, 估算访问次数: {}", key, count);
+            }
+        }
+        return hotKeys.containsKey(key);
+    }
+
+    /**
+     * 获取固定在本地的值
+     *
+     * @param key 缓存键
+     * @return 固定的值，未固定时返回 null
+     */
+    public Object getPinned(String key) {
+        return pinned.getIfPresent(key);
+    }
+
+    /**
+     * 热点键的值固定在本地，非热点键忽略
+     *
+     * @param key   缓存键
+     * @param value 从缓存层读取到的值
+     */
+    public void pin(String key, Object value) {
+        if (hotKeys.containsKey(key)) {
+            pinned.put(key, value);
+        }
+    }
+
+    public void invalidate(String key) {
+        pinned.invalidate(key);
+    }
+
+    public void invalidateAll(Collection<String> keys) {
+        pinned.invalidateAll(keys);
+    }
+
+    public void clear() {
+        pinned.invalidateAll();
+    }
+
+    /**
+     * 当前的热点键，按估算访问次数降序排列
+     *
+     * @return 热点键快照
+     */
+    public List<HotKey> getHotKeys() {
+        List<HotKey> result = new ArrayList<>(hotKeys.size());
+        for (String key : hotKeys.keySet()) {
+            result.add(HotKey.builder()
+                    .key(key)
+                    .estimatedCount(sketch.estimate(key) * sampleRate)
+                    .pinned(null != pinned.getIfPresent(key))
+                    .build());
+        }
+        result.sort(Comparator.comparingLong(HotKey::getEstimatedCount).reversed());
+        return result;
+    }
+
+    public void shutdown() {
+        decayExecutor.shutdownNow();
+    }
+
+    /**
+     * 计数减半后，估算次数低于阈值的键解除固定
+     */
+    private void decay() {
+        try {
+            sketch.halve();
+            for (String key : hotKeys.keySet()) {
+                if (sketch.estimate(key) * sampleRate < threshold) {
+                    hotKeys.remove(key);
+                    pinned.invalidate(key);
+                    log.info("热点键已冷却: {}", key);
+                }
+            }
+        } catch (RuntimeException e) {
+            log.warn("热点键衰减失败", e);
+        }
+    }
+}
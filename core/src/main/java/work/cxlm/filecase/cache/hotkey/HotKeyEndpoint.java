@@ -0,0 +1,28 @@
+package work.cxlm.filecase.cache.hotkey;
+
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import work.cxlm.filecase.cache.MultiStringCache;
+
+import java.util.List;
+
+/**
+ * 运维查看当前热点键的 actuator 端点
+ * create 2021/5/14 16:25
+ *
+ * @author Chiru
+ */
+@Endpoint(id = "hotkeys")
+public class HotKeyEndpoint {
+
+    private final MultiStringCache multiStringCache;
+
+    public HotKeyEndpoint(MultiStringCache multiStringCache) {
+        this.multiStringCache = multiStringCache;
+    }
+
+    @ReadOperation
+    public List<HotKey> hotKeys() {
+        return multiStringCache.getHotKeys();
+    }
+}
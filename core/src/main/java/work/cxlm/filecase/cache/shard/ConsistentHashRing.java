@@ -0,0 +1,100 @@
+package work.cxlm.filecase.cache.shard;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * 带虚拟节点的一致性哈希环，构建后不可修改
+ * <p>
+ * 每个节点按名称在环上放置 virtualNodes 个点，键顺时针归属到第一个点的节点；
+ * 增加一个节点时只有约 1/(n+1) 的键迁移到新节点，其余键的归属不变。节点的位置只取决于名称，与加入顺序无关
+ * create 2021/5/19 10:12
+ *
+ * @param <T> 节点的类型
+ * @author Chiru
+ */
+public class ConsistentHashRing<T> {
+
+    private static final HashFunction HASH_FUNCTION = Hashing.murmur3_128();
+
+    /**
+     * 环上各点的哈希值，升序排列
+     */
+    private final long[] points;
+
+    /**
+     * 与 points 一一对应的节点
+     */
+    private final List<T> owners;
+
+    private final Collection<T> nodes;
+
+    /**
+     * @param nodes        节点名称与节点，名称决定节点在环上的位置，应保持稳定
+     * @param virtualNodes 每个节点的虚拟节点数量
+     */
+    public ConsistentHashRing(Map<String, T> nodes, int virtualNodes) {
+        if (nodes.isEmpty()) {
+            throw new IllegalArgumentException("一致性哈希环至少需要一个节点");
+        }
+        int replicas = Math.max(1, virtualNodes);
+        TreeMap<Long, T> ring = new TreeMap<>();
+        // 按名称排序后放置，哈希值冲突时的归属与传入顺序无关
+        new TreeMap<>(nodes).forEach((name, node) -> {
+            for (int i = 0; i < replicas; i++) {
+                ring.putIfAbsent(hash(name + "#" + i), node);
+            }
+        });
+        this.points = new long[ring.size()];
+        this.owners = new ArrayList<>(ring.size());
+        int index = 0;
+        for (Map.Entry<Long, T> point : ring.entrySet()) {
+            points[index++] = point.getKey();
+            owners.add(point.getValue());
+        }
+        this.nodes = Collections.unmodifiableCollection(new ArrayList<>(nodes.values()));
+    }
+
+    /**
+     * 键所属的节点
+     *
+     * @param key 缓存键
+     * @return 节点
+     */
+    public T route(String key) {
+        int index = Arrays.binarySearch(points, hash(key));
+        if (index < 0) {
+            // 第一个大于该哈希值的点，超出末尾时回到环首
+            index = -index - 1;
+            if (index == points.length) {
+                index = 0;
+            }
+        }
+        return owners.get(index);
+    }
+
+    /**
+     * 按所属节点对键分组
+     *
+     * @param keys 缓存键集合
+     * @return 节点与其负责的键，只包含至少有一个键的节点
+     */
+    public Map<T, List<String>> group(Collection<String> keys) {
+        Map<T, List<String>> groups = new IdentityHashMap<>();
+        for (String key : keys) {
+            groups.computeIfAbsent(route(key), node -> new ArrayList<>()).add(key);
+        }
+        return groups;
+    }
+
+    public Collection<T> getNodes() {
+        return nodes;
+    }
+
+    private static long hash(String value) {
+        return HASH_FUNCTION.hashString(value, StandardCharsets.UTF_8).asLong();
+    }
+}
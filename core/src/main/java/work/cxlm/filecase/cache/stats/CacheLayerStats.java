@@ -0,0 +1,43 @@
+package work.cxlm.filecase.cache.stats;
+
+import lombok.Builder;
+import lombok.Getter;
+
+/**
+ * 缓存层统计的快照，各项均为启动以来的累计值
+ * create 2021/5/12 10:26
+ *
+ * @author Chiru
+ */
+@Getter
+@Builder(toBuilder = true)
+public class CacheLayerStats {
+
+    private final long hitCount;
+    private final long missCount;
+    private final long putCount;
+    private final long evictionCount;
+
+    /**
+     * 回源加载次数，本地缓存层为刷新次数
+     */
+    private final long loadCount;
+    private final long totalLoadTimeNanos;
+
+    /**
+     * 访问缓存后端的次数，只有远程、磁盘缓存层会记录
+     */
+    private final long operationCount;
+    private final long totalOperationTimeNanos;
+
+    /**
+     * 记录了大小的写入次数，本地缓存层按引用写入的对象不计算大小
+     */
+    private final long valueSizeCount;
+    private final long totalValueBytes;
+
+    public double hitRate() {
+        long requestCount = hitCount + missCount;
+        return 0 == requestCount ? 1.0 : (double) hitCount / requestCount;
+    }
+}
@@ -0,0 +1,89 @@
+package work.cxlm.filecase.cache.stats;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 缓存层的统计计数器，由缓存层在读写路径上累加，线程安全
+ * create 2021/5/12 10:20
+ *
+ * @author Chiru
+ */
+public class CacheStatsCounter {
+
+    private final LongAdder hitCount = new LongAdder();
+    private final LongAdder missCount = new LongAdder();
+    private final LongAdder putCount = new LongAdder();
+    private final LongAdder evictionCount = new LongAdder();
+    private final LongAdder loadCount = new LongAdder();
+    private final LongAdder totalLoadTime = new LongAdder();
+    private final LongAdder operationCount = new LongAdder();
+    private final LongAdder totalOperationTime = new LongAdder();
+    private final LongAdder valueSizeCount = new LongAdder();
+    private final LongAdder totalValueBytes = new LongAdder();
+
+    public void recordHits(int count) {
+        hitCount.add(count);
+    }
+
+    public void recordMisses(int count) {
+        missCount.add(count);
+    }
+
+    public void recordPuts(int count) {
+        putCount.add(count);
+    }
+
+    public void recordEvictions(int count) {
+        evictionCount.add(count);
+    }
+
+    /**
+     * 记录一次回源加载
+     *
+     * @param nanos 加载耗时，纳秒
+     */
+    public void recordLoad(long nanos) {
+        loadCount.increment();
+        totalLoadTime.add(nanos);
+    }
+
+    /**
+     * 记录一次对缓存后端的访问（如一次 redis 往返）
+     *
+     * @param nanos 访问耗时，纳秒
+     */
+    public void recordOperation(long nanos) {
+        operationCount.increment();
+        totalOperationTime.add(nanos);
+    }
+
+    /**
+     * 记录写入的值序列化后的大小
+     *
+     * @param bytes 字节数
+     */
+    public void recordValueSize(long bytes) {
+        valueSizeCount.increment();
+        totalValueBytes.add(bytes);
+    }
+
+    /**
+     * 生成当前的统计快照
+     *
+     * @return 统计快照
+     */
+    public CacheLayerStats snapshot() {
+        return CacheLayerStats.builder()
+                .hitCount(hitCount.sum())
+                .missCount(missCount.sum())
+                .putCount(putCount.sum())
+                .evictionCount(evictionCount.sum())
+                .loadCount(loadCount.sum())
+                .totalLoadTimeNanos(totalLoadTime.sum())
+                .operationCount(operationCount.sum())
+                .totalOperationTimeNanos(totalOperationTime.sum())
+                .valueSizeCount(valueSizeCount.sum())
+                .totalValueBytes(totalValueBytes.sum())
+                .build();
+    }
+}
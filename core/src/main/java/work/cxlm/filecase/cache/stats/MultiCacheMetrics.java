@@ -0,0 +1,103 @@
+package work.cxlm.filecase.cache.stats;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.FunctionTimer;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tag;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.lang.NonNull;
+import work.cxlm.filecase.cache.AbstractStringCacheLayer;
+import work.cxlm.filecase.cache.MultiStringCache;
+import work.cxlm.filecase.cache.writebehind.WriteBehindBuffer;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.ToLongFunction;
+
+/**
+ * 将 MultiStringCache 各层的统计注册到 Micrometer，以 layer 标签区分缓存层，
+ * 回源加载的统计使用 layer=loader
+ * <p>
+ * 每次采集时读取统计快照，不在读写路径上访问 MeterRegistry
+ * create 2021/5/12 11:02
+ *
+ * @author Chiru
+ */
+public class MultiCacheMetrics implements MeterBinder {
+
+    public static final String LOADER_LAYER_NAME = "loader";
+
+    private final MultiStringCache multiStringCache;
+
+    public MultiCacheMetrics(MultiStringCache multiStringCache) {
+        this.multiStringCache = multiStringCache;
+    }
+
+    @Override
+    public void bindTo(@NonNull MeterRegistry registry) {
+        for (AbstractStringCacheLayer layer : multiStringCache.getLayers()) {
+            bindLayer(registry, layer);
+        }
+        FunctionTimer.builder("cache.layer.loads", multiStringCache,
+                cache -> cache.getLoaderStats().getLoadCount(),
+                cache -> cache.getLoaderStats().getTotalLoadTimeNanos(), TimeUnit.NANOSECONDS)
+                .tags(Tags.of(Tag.of("layer", LOADER_LAYER_NAME)))
+                .description("缓存未命中时回源加载的次数与耗时")
+                .register(registry);
+        Gauge.builder("cache.hot.keys", multiStringCache, cache -> cache.getHotKeys().size())
+                .description("当前的热点键数量，列表见 /actuator/hotkeys")
+                .register(registry);
+        WriteBehindBuffer writeBehindBuffer = multiStringCache.getWriteBehindBuffer();
+        if (null != writeBehindBuffer) {
+            Gauge.builder("cache.write.behind.pending", writeBehindBuffer, WriteBehindBuffer::getPendingCount)
+                    .description("延迟写缓冲区中等待写入远程缓存层的键数量")
+                    .register(registry);
+            FunctionCounter.builder("cache.write.behind.flushed", writeBehindBuffer, WriteBehindBuffer::getFlushedCount)
+                    .description("延迟写入远程缓存层的键数量")
+                    .register(registry);
+            FunctionCounter.builder("cache.write.behind.dropped", writeBehindBuffer, WriteBehindBuffer::getDroppedCount)
+                    .description("缓冲区已满时丢弃的写入次数")
+                    .register(registry);
+        }
+    }
+
+    /**
+     * Micrometer 只弱引用被观测的对象，这里直接观测缓存层本身，其生命周期与 MultiStringCache 一致
+     */
+    private void bindLayer(MeterRegistry registry, AbstractStringCacheLayer layer) {
+        Tags tags = Tags.of(Tag.of("layer", layer.getLayerName()));
+        counter(registry, "cache.layer.gets", tags.and("result", "hit"), layer,
+                CacheLayerStats::getHitCount, "命中次数");
+        counter(registry, "cache.layer.gets", tags.and("result", "miss"), layer,
+                CacheLayerStats::getMissCount, "未命中次数");
+        counter(registry, "cache.layer.puts", tags, layer, CacheLayerStats::getPutCount, "写入次数");
+        counter(registry, "cache.layer.evictions", tags, layer, CacheLayerStats::getEvictionCount, "淘汰次数");
+        counter(registry, "cache.layer.value.bytes", tags, layer, CacheLayerStats::getTotalValueBytes,
+                "写入值的总字节数，除以 cache.layer.value.count 即为平均大小");
+        counter(registry, "cache.layer.value.count", tags, layer, CacheLayerStats::getValueSizeCount,
+                "记录了大小的写入次数");
+        FunctionTimer.builder("cache.layer.loads", layer,
+                l -> l.getStats().getLoadCount(), l -> l.getStats().getTotalLoadTimeNanos(), TimeUnit.NANOSECONDS)
+                .tags(tags)
+                .description("本层的加载（本地缓存层为后台刷新）次数与耗时")
+                .register(registry);
+        FunctionTimer.builder("cache.layer.operations", layer,
+                l -> l.getStats().getOperationCount(), l -> l.getStats().getTotalOperationTimeNanos(), TimeUnit.NANOSECONDS)
+                .tags(tags)
+                .description("访问缓存后端（redis、磁盘）的次数与耗时")
+                .register(registry);
+        Gauge.builder("cache.layer.hit.rate", layer, l -> l.getStats().hitRate())
+                .tags(tags)
+                .description("启动以来的命中率")
+                .register(registry);
+    }
+
+    private static void counter(MeterRegistry registry, String name, Tags tags, AbstractStringCacheLayer layer,
+                                ToLongFunction<CacheLayerStats> value, String description) {
+        FunctionCounter.builder(name, layer, l -> value.applyAsLong(l.getStats()))
+                .tags(tags)
+                .description(description)
+                .register(registry);
+    }
+}
@@ -0,0 +1,225 @@
+package work.cxlm.filecase.cache.sync;
+
+import lombok.extern.slf4j.Slf4j;
+import org.redisson.api.RTopic;
+import org.redisson.api.RedissonClient;
+import org.redisson.api.listener.StatusListener;
+import org.redisson.client.codec.StringCodec;
+import org.redisson.connection.ConnectionListener;
+import work.cxlm.filecase.cache.AbstractStringCacheLayer;
+import work.cxlm.filecase.cache.MultiStringCache;
+import work.cxlm.filecase.cache.config.MultiCacheProperties;
+import work.cxlm.filecase.redis.util.JacksonUtil;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * 本地缓存层的跨节点失效总线，基于 redis 发布订阅
+ * <p>
+ * 本节点的 delete、clear 操作会合并后广播到其它节点，其它节点收到后删除各自本地缓存层中的对应键；
+ * 与 redis 断开连接期间可能错过失效消息，因此断开时暂停使用本地缓存层，确认订阅可用后（重新订阅成功，
+ * 或连接恢复后收到自己发出的探测消息）先清空本地缓存层再恢复
+ * create 2021/5/11 10:52
+ *
+ * @author Chiru
+ */
+@Slf4j
+public class CacheInvalidationBus {
+
+    private final String nodeId = UUID.randomUUID().toString();
+    private final RedissonClient redissonClient;
+    private final MultiStringCache multiStringCache;
+    private final MultiCacheProperties.InvalidationProperties properties;
+    private final RTopic topic;
+
+    /**
+     * 待发送的失效键
+     */
+    private final ConcurrentLinkedQueue<String> pendingKeys = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pendingKeyCount = new AtomicInteger();
+
+    /**
+     * 待发送的清空请求，记录最小的起始层，-1 表示没有
+     */
+    private final AtomicInteger pendingClearFrom = new AtomicInteger(-1);
+
+    /**
+     * 最下面的本地缓存层索引，清空请求从它或更低的层开始时才覆盖全部本地缓存层
+     */
+    private final int lowestLocalLayer;
+
+    private final ScheduledExecutorService flushExecutor;
+    private final AtomicBoolean subscribed = new AtomicBoolean(false);
+
+    /**
+     * 连接恢复后尚未收到回显的探测标识，null 表示没有
+     */
+    private final AtomicReference<String> pendingProbe = new AtomicReference<>();
+    private int connectionListenerId = -1;
+
+    public CacheInvalidationBus(RedissonClient redissonClient, MultiStringCache multiStringCache,
+                                MultiCacheProperties.InvalidationProperties properties) {
+        this.redissonClient = redissonClient;
+        this.multiStringCache = multiStringCache;
+        this.properties = properties;
+        this.topic = redissonClient.getTopic(properties.getChannel(), StringCodec.INSTANCE);
+        List<AbstractStringCacheLayer> layers = multiStringCache.getLayers();
+        int lowest = layers.size();
+        for (int i = 0; i < layers.size(); i++) {
+            if (layers.get(i).isLocal()) {
+                lowest = i;
+                break;
+            }
+        }
+        this.lowestLocalLayer = lowest;
+        this.flushExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "cache-invalidation-flusher");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * 订阅失效频道并启动定时发送
+     */
+    public void start() {
+        topic.addListener(new StatusListener() {
+            @Override
+            public void onSubscribe(String channel) {
+                // 首次订阅无需处理；断线后重新订阅时，先清空本地缓存层再恢复使用
+                if (!subscribed.compareAndSet(false, true)) {
+                    pendingProbe.set(null);
+                    multiStringCache.resumeLocalLayers();
+                    log.info("失效频道已重新订阅，本地缓存层已清空并恢复: {}", channel);
+                }
+            }
+
+            @Override
+            public void onUnsubscribe(String channel) {
+                log.info("已取消订阅失效频道: {}", channel);
+            }
+        });
+        topic.addListener(String.class, (channel, msg) -> onMessage(msg));
+        connectionListenerId = redissonClient.getNodesGroup().addConnectionListener(new ConnectionListener() {
+            @Override
+            public void onConnect(InetSocketAddress addr) {
+                // 兜底：断开的不是订阅所在的连接时不会触发重新订阅；此时订阅是否可用未知，
+                // 向频道发送探测消息，收到回显后再清空并恢复本地缓存层，订阅尚未恢复时等待 onSubscribe
+                if (multiStringCache.isLocalLayersSuspended()) {
+                    String probe = UUID.randomUUID().toString();
+                    pendingProbe.set(probe);
+                    topic.publishAsync(JacksonUtil.objectToString(new InvalidationMessage(nodeId, null, null, probe)));
+                    log.info("redis 连接已恢复，等待确认失效频道的订阅: {}", addr);
+                }
+            }
+
+            @Override
+            public void onDisconnect(InetSocketAddress addr) {
+                // 断开期间收不到失效消息，暂停本地缓存层，直到重新订阅成功
+                multiStringCache.suspendLocalLayers();
+                log.warn("redis 连接断开，暂停本地缓存层: {}", addr);
+            }
+        });
+        long intervalMillis = properties.getBatchInterval().toMillis();
+        flushExecutor.scheduleWithFixedDelay(this::flush, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 停止定时发送，发出尚未发送的消息
+     */
+    public void shutdown() {
+        flushExecutor.shutdown();
+        flush();
+        topic.removeAllListeners();
+        if (connectionListenerId >= 0) {
+            redissonClient.getNodesGroup().removeConnectionListener(connectionListenerId);
+        }
+    }
+
+    /**
+     * 广播删除指定的键
+     *
+     * @param keys 缓存键
+     */
+    public void publishDelete(Iterable<String> keys) {
+        for (String key : keys) {
+            pendingKeys.offer(key);
+            if (pendingKeyCount.incrementAndGet() % properties.getBatchSize() == 0) {
+                flushExecutor.execute(this::flush);
+            }
+        }
+    }
+
+    /**
+     * 广播清空指定层及其以上的本地缓存层
+     *
+     * @param fromLayer 起始层（包含）
+     */
+    public void publishClear(int fromLayer) {
+        pendingClearFrom.accumulateAndGet(fromLayer, (prev, cur) -> prev < 0 ? cur : Math.min(prev, cur));
+    }
+
+    /**
+     * 发送积攒的失效消息；清空请求覆盖全部本地缓存层时，同一批次中的删除请求随之丢弃，
+     * 只清空部分上层时，删除请求仍需发送，以删除更下面的本地缓存层中的键
+     */
+    private void flush() {
+        try {
+            int clearFrom = pendingClearFrom.getAndSet(-1);
+            if (clearFrom >= 0) {
+                if (clearFrom <= lowestLocalLayer) {
+                    drainKeys(Integer.MAX_VALUE);
+                }
+                publish(new InvalidationMessage(nodeId, clearFrom, null, null));
+            }
+            while (!pendingKeys.isEmpty()) {
+                List<String> keys = drainKeys(properties.getBatchSize());
+                publish(new InvalidationMessage(nodeId, null, keys, null));
+            }
+        } catch (RuntimeException e) {
+            log.error("发送缓存失效消息失败", e);
+        }
+    }
+
+    private List<String> drainKeys(int limit) {
+        List<String> keys = new ArrayList<>(Math.min(limit, Math.max(pendingKeyCount.get(), 0)));
+        String key;
+        while (keys.size() < limit && null != (key = pendingKeys.poll())) {
+            keys.add(key);
+        }
+        pendingKeyCount.addAndGet(-keys.size());
+        return keys;
+    }
+
+    private void publish(InvalidationMessage message) {
+        topic.publish(JacksonUtil.objectToString(message));
+    }
+
+    private void onMessage(String rawMessage) {
+        InvalidationMessage message = JacksonUtil.jsonToObject(rawMessage, InvalidationMessage.class);
+        if (null == message) {
+            return;
+        }
+        if (nodeId.equals(message.getNodeId())) {
+            String probe = message.getProbe();
+            if (null != probe && pendingProbe.compareAndSet(probe, null)) {
+                multiStringCache.resumeLocalLayers();
+                log.info("失效频道订阅可用，本地缓存层已清空并恢复");
+            }
+            return;
+        }
+        if (null != message.getClearFromLayer()) {
+            multiStringCache.clearLocalLayers(message.getClearFromLayer());
+        }
+        if (null != message.getKeys() && !message.getKeys().isEmpty()) {
+            multiStringCache.deleteLocal(message.getKeys());
+        }
+    }
+}
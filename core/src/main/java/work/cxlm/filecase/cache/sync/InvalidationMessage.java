@@ -0,0 +1,39 @@
+package work.cxlm.filecase.cache.sync;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+/**
+ * 跨节点的本地缓存失效消息
+ * create 2021/5/11 10:35
+ *
+ * @author Chiru
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class InvalidationMessage {
+
+    /**
+     * 发送方节点标识，收到自己发出的消息时忽略
+     */
+    private String nodeId;
+
+    /**
+     * 需要清空的起始缓存层（包含），为 null 时不清空
+     */
+    private Integer clearFromLayer;
+
+    /**
+     * 需要删除的缓存键
+     */
+    private List<String> keys;
+
+    /**
+     * 连接恢复后发给自己的探测标识，收到即说明失效频道的订阅可用；其它节点忽略
+     */
+    private String probe;
+}
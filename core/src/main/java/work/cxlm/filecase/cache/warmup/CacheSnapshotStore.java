@@ -0,0 +1,138 @@
+package work.cxlm.filecase.cache.warmup;
+
+import lombok.extern.slf4j.Slf4j;
+import work.cxlm.filecase.cache.TimedValue;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * 本地缓存层的快照文件，每层一个 gzip 压缩的文件，记录保存时间与按热度排列的键值及各自的过期时间
+ * <p>
+ * 先写入临时文件再原子替换，停机过程中被打断时保留上一份快照
+ * create 2021/5/17 10:12
+ *
+ * @author Chiru
+ */
+@Slf4j
+public class CacheSnapshotStore {
+
+    private static final int MAGIC = 0x46435332;
+
+    /**
+     * 过期时间未知的缓存项记录的过期时间
+     */
+    private static final long NO_EXPIRY = -1;
+    private static final String FILE_SUFFIX = ".snapshot";
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private final Path directory;
+
+    public CacheSnapshotStore(Path directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * 保存快照，覆盖该层之前的快照
+     *
+     * @param layerName 缓存层名
+     * @param entries   键与编码后的值及其剩余存活时间
+     */
+    public void save(String layerName, Map<String, TimedValue> entries) throws IOException {
+        Files.createDirectories(directory);
+        Path target = fileOf(layerName);
+        Path temp = directory.resolve(target.getFileName() + TEMP_SUFFIX);
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new GZIPOutputStream(Files.newOutputStream(temp))))) {
+            out.writeInt(MAGIC);
+            long now = System.currentTimeMillis();
+            out.writeLong(now);
+            out.writeInt(entries.size());
+            for (Map.Entry<String, TimedValue> entry : entries.entrySet()) {
+                long remaining = entry.getValue().getRemainingTtlMillis();
+                writeString(out, entry.getKey());
+                writeString(out, (String) entry.getValue().getValue());
+                out.writeLong(remaining < 0 ? NO_EXPIRY : now + remaining);
+            }
+        }
+        Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * 读取快照，读取后删除快照文件，避免之后的启动重复恢复过期的数据
+     *
+     * @param layerName 缓存层名
+     * @param maxAge    快照的最长有效期
+     * @return 按热度排列的键值及其剩余存活时间（未知时为 -1），已过期的缓存项不返回；快照不存在、已过期或已损坏时为空
+     */
+    public Map<String, TimedValue> load(String layerName, Duration maxAge) {
+        Path file = fileOf(layerName);
+        if (!Files.isRegularFile(file)) {
+            return Collections.emptyMap();
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new GZIPInputStream(Files.newInputStream(file))))) {
+            if (MAGIC != in.readInt()) {
+                throw new IOException("不是缓存快照文件");
+            }
+            long now = System.currentTimeMillis();
+            long age = now - in.readLong();
+            if (age > maxAge.toMillis()) {
+                log.info("缓存快照已过期，跳过: {}, 已保存 {}ms", file, age);
+                return Collections.emptyMap();
+            }
+            int count = in.readInt();
+            Map<String, TimedValue> entries = new LinkedHashMap<>(Math.max(16, count * 4 / 3 + 1));
+            for (int i = 0; i < count; i++) {
+                String key = readString(in);
+                String value = readString(in);
+                long expireAt = in.readLong();
+                if (NO_EXPIRY == expireAt) {
+                    entries.put(key, new TimedValue(value, -1));
+                } else if (expireAt > now) {
+                    entries.put(key, new TimedValue(value, expireAt - now));
+                }
+            }
+            return entries;
+        } catch (IOException e) {
+            log.warn("读取缓存快照失败: {}", file, e);
+            return Collections.emptyMap();
+        } finally {
+            deleteQuietly(file);
+        }
+    }
+
+    private Path fileOf(String layerName) {
+        return directory.resolve(layerName + FILE_SUFFIX);
+    }
+
+    /**
+     * 以长度前缀写入，不受 writeUTF 的 64KB 限制
+     */
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void deleteQuietly(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            log.warn("删除缓存快照失败: {}", file, e);
+        }
+    }
+}
@@ -0,0 +1,22 @@
+package work.cxlm.filecase.cache.warmup;
+
+import java.util.Map;
+
+/**
+ * 预热数据源，应用就绪后由 {@link CacheWarmer} 在后台调用，查询结果写入各层缓存
+ * <p>
+ * 实现类注册为 Bean，并将 Bean 名称加入 cache.warm-up.sources
+ * create 2021/5/17 10:30
+ *
+ * @author Chiru
+ */
+@FunctionalInterface
+public interface CacheWarmUpSource {
+
+    /**
+     * 查询需要预热的缓存
+     *
+     * @return 缓存键与值，键须与正常读取时使用的键一致
+     */
+    Map<String, ?> load();
+}
@@ -0,0 +1,148 @@
+package work.cxlm.filecase.cache.warmup;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.ApplicationListener;
+import org.springframework.lang.NonNull;
+import work.cxlm.filecase.cache.AbstractLocalCacheLayer;
+import work.cxlm.filecase.cache.AbstractStringCacheLayer;
+import work.cxlm.filecase.cache.KeyVersions;
+import work.cxlm.filecase.cache.MultiStringCache;
+import work.cxlm.filecase.cache.TimedValue;
+import work.cxlm.filecase.cache.config.MultiCacheProperties;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * 本地缓存层的预热
+ * <p>
+ * 停机时将各本地缓存层最常访问的缓存项及其过期时间保存为快照；启动时在后台线程恢复快照，只写入启动以来
+ * 没有被写入或删除的键，恢复的缓存项只存活剩余的时间；应用就绪后再依次执行配置的预热数据源。预热期间应用正常处理请求，未预热的键按原有流程回源
+ * create 2021/5/17 10:41
+ *
+ * @author Chiru
+ */
+@Slf4j
+public class CacheWarmer implements ApplicationListener<ApplicationReadyEvent> {
+
+    private final MultiStringCache multiStringCache;
+    private final MultiCacheProperties.WarmUpProperties properties;
+    private final CacheSnapshotStore snapshotStore;
+    private final ExecutorService warmUpExecutor;
+
+    public CacheWarmer(MultiStringCache multiStringCache, MultiCacheProperties.WarmUpProperties properties) {
+        this.multiStringCache = multiStringCache;
+        this.properties = properties;
+        this.snapshotStore = new CacheSnapshotStore(Paths.get(properties.getSnapshotDirectory()));
+        this.warmUpExecutor = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "cache-warm-up");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * 在后台恢复各本地缓存层的快照
+     */
+    public void start() {
+        warmUpExecutor.execute(this::restoreSnapshots);
+    }
+
+    /**
+     * 应用就绪后在后台执行预热数据源，此时各 Bean 均已初始化完成
+     */
+    @Override
+    public void onApplicationEvent(@NonNull ApplicationReadyEvent event) {
+        for (String sourceName : properties.getSources()) {
+            CacheWarmUpSource source = event.getApplicationContext().getBean(sourceName, CacheWarmUpSource.class);
+            warmUpExecutor.execute(() -> runSource(sourceName, source));
+        }
+    }
+
+    /**
+     * 停止未完成的预热，保存各本地缓存层的快照
+     */
+    public void shutdown() {
+        warmUpExecutor.shutdownNow();
+        try {
+            warmUpExecutor.awaitTermination(1, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        saveSnapshots();
+    }
+
+    /**
+     * 保存各本地缓存层的快照，本地缓存层暂停使用时其内容可能已陈旧，不保存
+     */
+    public void saveSnapshots() {
+        if (multiStringCache.isLocalLayersSuspended()) {
+            log.info("本地缓存层已暂停使用，不保存快照");
+            return;
+        }
+        for (AbstractStringCacheLayer layer : multiStringCache.getLayers()) {
+            if (!(layer instanceof AbstractLocalCacheLayer)) {
+                continue;
+            }
+            try {
+                Map<String, TimedValue> entries = ((AbstractLocalCacheLayer) layer).exportHottest(properties.getMaxEntries());
+                snapshotStore.save(layer.getLayerName(), entries);
+                log.info("已保存缓存快照: {}, 缓存项数量: {}", layer.getLayerName(), entries.size());
+            } catch (IOException | RuntimeException e) {
+                log.warn("保存缓存快照失败: {}", layer.getLayerName(), e);
+            }
+        }
+    }
+
+    /**
+     * 恢复各本地缓存层的快照
+     * <p>
+     * 启动以来写入或删除过的键（版本不为 0）不恢复；恢复期间被写入或删除的键，恢复后从本层删除，下次读取时重新加载
+     */
+    public void restoreSnapshots() {
+        KeyVersions keyVersions = multiStringCache.getKeyVersions();
+        for (AbstractStringCacheLayer layer : multiStringCache.getLayers()) {
+            if (!(layer instanceof AbstractLocalCacheLayer)) {
+                continue;
+            }
+            Map<String, TimedValue> entries = snapshotStore.load(layer.getLayerName(), properties.getMaxAge());
+            entries.keySet().removeIf(key -> !keyVersions.unchanged(key, 0));
+            if (entries.isEmpty() || multiStringCache.isLocalLayersSuspended()) {
+                continue;
+            }
+            try {
+                int restored = ((AbstractLocalCacheLayer) layer).putAllIfAbsent(entries);
+                List<String> changed = entries.keySet().stream()
+                        .filter(key -> !keyVersions.unchanged(key, 0))
+                        .collect(Collectors.toList());
+                if (!changed.isEmpty()) {
+                    layer.deleteAll(changed);
+                }
+                log.info("已恢复缓存快照: {}, 缓存项数量: {}/{}", layer.getLayerName(), restored, entries.size());
+            } catch (RuntimeException e) {
+                log.warn("恢复缓存快照失败: {}", layer.getLayerName(), e);
+            }
+        }
+    }
+
+    private void runSource(String sourceName, CacheWarmUpSource source) {
+        long start = System.currentTimeMillis();
+        try {
+            Map<String, ?> entries = source.load();
+            if (!entries.isEmpty()) {
+                multiStringCache.setAllAny(entries);
+            }
+            log.info("缓存预热完成: {}, 缓存项数量: {}, 耗时 {}ms", sourceName, entries.size(),
+                    System.currentTimeMillis() - start);
+        } catch (RuntimeException e) {
+            log.warn("缓存预热失败: {}", sourceName, e);
+        }
+    }
+}
@@ -0,0 +1,25 @@
+package work.cxlm.filecase.cache.writebehind;
+
+/**
+ * 延迟写缓冲区已满时的处理策略
+ * create 2021/5/16 10:12
+ *
+ * @author Chiru
+ */
+public enum OverflowPolicy {
+
+    /**
+     * 阻塞写入方，直到缓冲区有空位
+     */
+    BLOCK,
+
+    /**
+     * 丢弃本次对远程缓存层的写入，远程缓存层保留旧值直到过期
+     */
+    DROP,
+
+    /**
+     * 由写入方直接同步写入远程缓存层
+     */
+    SYNC
+}
@@ -0,0 +1,260 @@
+package work.cxlm.filecase.cache.writebehind;
+
+import lombok.extern.slf4j.Slf4j;
+import work.cxlm.filecase.cache.AbstractStringCacheLayer;
+import work.cxlm.filecase.cache.config.MultiCacheProperties;
+
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 远程缓存层的延迟写缓冲区
+ * <p>
+ * 同一个键的多次写入合并为最后一次，保持首次写入的顺序；后台线程按批次调用各远程缓存层的 putAll / putAllAny，
+ * 由缓存层以 pipeline 写入。删除缓存前应先调用 {@link #cancel(Collection)}，它会等待正在写入的批次完成，
+ * 保证缓冲区中的旧值不会在删除之后写回
+ * create 2021/5/16 10:20
+ *
+ * @author Chiru
+ */
+@Slf4j
+public class WriteBehindBuffer {
+
+    private final List<AbstractStringCacheLayer> remoteLayers;
+    private final int capacity;
+    private final int batchSize;
+    private final OverflowPolicy overflowPolicy;
+
+    /**
+     * 待写入的键值，按首次写入的顺序排列，由 lock 保护
+     */
+    private final LinkedHashMap<String, PendingWrite> pending = new LinkedHashMap<>();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notFull = lock.newCondition();
+
+    /**
+     * 写入批次与取消操作互斥
+     */
+    private final Object flushLock = new Object();
+
+    private final ScheduledExecutorService flushExecutor;
+    private final AtomicBoolean flushRequested = new AtomicBoolean(false);
+    private final AtomicLong droppedCount = new AtomicLong();
+    private final AtomicLong flushedCount = new AtomicLong();
+    private volatile boolean shutdown = false;
+
+    public WriteBehindBuffer(List<AbstractStringCacheLayer> remoteLayers, MultiCacheProperties.WriteBehindProperties properties) {
+        this.remoteLayers = remoteLayers;
+        this.capacity = properties.getBufferSize();
+        this.batchSize = properties.getBatchSize();
+        this.overflowPolicy = properties.getOverflowPolicy();
+        this.flushExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "cache-write-behind");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long intervalMillis = properties.getFlushInterval().toMillis();
+        flushExecutor.scheduleWithFixedDelay(this::flushAll, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 批量放入缓冲区
+     *
+     * @param entries 键值对，值不为 null
+     * @param encoded 值是否为已编码的字符串，为 false 时由缓存层经 putAllAny 编码
+     * @return 未放入缓冲区的键值对（缓冲区已满且策略为 SYNC，或已关闭），调用方应先 {@link #cancel(Collection)}
+     * 等待正在写入的批次完成，再自行同步写入远程缓存层；全部放入时为空
+     */
+    public Map<String, ?> offerAll(Map<String, ?> entries, boolean encoded) {
+        if (shutdown) {
+            return entries;
+        }
+        Map<String, Object> rejected = new HashMap<>();
+        boolean batchReady;
+        lock.lock();
+        try {
+            for (Map.Entry<String, ?> entry : entries.entrySet()) {
+                if (!offer(entry.getKey(), new PendingWrite(entry.getValue(), encoded))) {
+                    rejected.put(entry.getKey(), entry.getValue());
+                }
+            }
+            batchReady = pending.size() >= batchSize;
+        } finally {
+            lock.unlock();
+        }
+        if (batchReady && flushRequested.compareAndSet(false, true)) {
+            flushExecutor.execute(this::flushAll);
+        }
+        return rejected;
+    }
+
+    /**
+     * 取消缓冲区中这些键的写入，正在写入的批次完成后才返回
+     *
+     * @param keys 缓存键
+     */
+    public void cancel(Collection<String> keys) {
+        synchronized (flushLock) {
+            lock.lock();
+            try {
+                keys.forEach(pending::remove);
+                notFull.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * 取消缓冲区中的全部写入
+     */
+    public void cancelAll() {
+        synchronized (flushLock) {
+            lock.lock();
+            try {
+                pending.clear();
+                notFull.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * 写入缓冲区中的全部键值
+     */
+    public void flushAll() {
+        flushRequested.set(false);
+        try {
+            while (flushBatch()) {
+                // 直到缓冲区为空
+            }
+        } catch (RuntimeException e) {
+            log.warn("延迟写入远程缓存层失败", e);
+        }
+    }
+
+    /**
+     * 停止后台线程，写入剩余的键值，之后的写入由调用方同步完成
+     */
+    public void shutdown() {
+        shutdown = true;
+        flushExecutor.shutdown();
+        flushAll();
+        lock.lock();
+        try {
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getPendingCount() {
+        lock.lock();
+        try {
+            return pending.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getDroppedCount() {
+        return droppedCount.get();
+    }
+
+    public long getFlushedCount() {
+        return flushedCount.get();
+    }
+
+    /**
+     * 在持有 lock 时调用
+     */
+    private boolean offer(String key, PendingWrite write) {
+        if (pending.containsKey(key)) {
+            // 合并同一个键的写入，保持原来的位置
+            pending.put(key, write);
+            return true;
+        }
+        while (pending.size() >= capacity) {
+            switch (overflowPolicy) {
+                case DROP:
+                    droppedCount.incrementAndGet();
+                    return true;
+                case SYNC:
+                    return false;
+                case BLOCK:
+                default:
+                    if (shutdown) {
+                        return false;
+                    }
+                    notFull.awaitUninterruptibly();
+            }
+        }
+        pending.put(key, write);
+        return true;
+    }
+
+    /**
+     * 取出一批键值写入各远程缓存层
+     *
+     * @return 是否写入了键值
+     */
+    private boolean flushBatch() {
+        synchronized (flushLock) {
+            Map<String, String> encodedBatch = new HashMap<>();
+            Map<String, Object> objectBatch = new HashMap<>();
+            lock.lock();
+            try {
+                Iterator<Map.Entry<String, PendingWrite>> iterator = pending.entrySet().iterator();
+                for (int i = 0; i < batchSize && iterator.hasNext(); i++) {
+                    Map.Entry<String, PendingWrite> entry = iterator.next();
+                    PendingWrite write = entry.getValue();
+                    if (write.encoded) {
+                        encodedBatch.put(entry.getKey(), (String) write.value);
+                    } else {
+                        objectBatch.put(entry.getKey(), write.value);
+                    }
+                    iterator.remove();
+                }
+                notFull.signalAll();
+            } finally {
+                lock.unlock();
+            }
+            if (encodedBatch.isEmpty() && objectBatch.isEmpty()) {
+                return false;
+            }
+            for (AbstractStringCacheLayer layer : remoteLayers) {
+                try {
+                    if (!encodedBatch.isEmpty()) {
+                        layer.putAll(encodedBatch);
+                    }
+                    if (!objectBatch.isEmpty()) {
+                        layer.putAllAny(objectBatch);
+                    }
+                } catch (RuntimeException e) {
+                    // 远程缓存层保留旧值直到过期，本地缓存层已是新值
+                    log.warn("延迟写入远程缓存层失败: {}, 键数量: {}", layer.getLayerName(),
+                            encodedBatch.size() + objectBatch.size(), e);
+                }
+            }
+            flushedCount.addAndGet(encodedBatch.size() + objectBatch.size());
+            return true;
+        }
+    }
+
+    private static class PendingWrite {
+        private final Object value;
+        private final boolean encoded;
+
+        private PendingWrite(Object value, boolean encoded) {
+            this.value = value;
+            this.encoded = encoded;
+        }
+    }
+}
@@ -0,0 +1,18 @@
+package work.cxlm.filecase.exception;
+
+/**
+ * 缓存未命中、回源加载失败时抛出
+ * create 2021/5/8 14:21
+ *
+ * @author Chiru
+ */
+public class CacheLoadException extends RuntimeException {
+
+    public CacheLoadException(String msg) {
+        super(msg);
+    }
+
+    public CacheLoadException(String msg, Throwable cause) {
+        super(msg, cause);
+    }
+}
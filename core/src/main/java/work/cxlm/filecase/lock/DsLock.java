@@ -41,7 +41,7 @@ public @interface DsLock {
     String msg() default "请勿重复提交";
 
     /**
-     * 分布式锁的过期时间，单位秒，默认 10s
+     * 分布式锁的过期时间，单位秒，默认 10s；启用了续期看门狗（lock.watchdog）时，AUTO 类型的锁以看门狗的租期加锁并自动续期，不使用该值
      */
     long expire() default 10;
 
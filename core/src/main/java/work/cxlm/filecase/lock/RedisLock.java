@@ -4,16 +4,24 @@ import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.lang3.RandomUtils;
 import org.apache.commons.lang3.StringUtils;
+import redis.clients.jedis.ShardedJedis;
 import work.cxlm.filecase.lock.helper.AbstractLock;
+import work.cxlm.filecase.lock.helper.LockReleaseNotifier;
+import work.cxlm.filecase.lock.helper.LockScript;
 import work.cxlm.filecase.lock.helper.LockType;
 import work.cxlm.filecase.lock.helper.RejectionPolicy;
 import work.cxlm.filecase.redis.util.RedisProxyUtil;
 
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.UUID;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.Condition;
 
 /**
  * redis 实现的分布式锁
+ * <p>
+ * 锁为一个 hash，字段为持有者（加锁值），值为重入次数，同一持有者可重复加锁；加锁、解锁均为一次往返的 Lua 脚本
  *
  * @author Chiru
  */
@@ -25,12 +33,16 @@ public class RedisLock implements AbstractLock {
     private static final String DEFAULT_VALUE = "1";
     private static final long DEFAULT_WAIT_TIME = 3L;
     private static final String DEFAULT_MSG = null;
-    private static final String NX = "NX";
-    private static final String EX = "EX";
     private static final LockType DEFAULT_LOCK_TYPE = LockType.AUTO;
     private static final RejectionPolicy DEFAULT_POLICY = RejectionPolicy.ABORT;
-    private static final String LOCK_RESULT = "OK";
+    private static final Long LOCK_RESULT = 1L;
+    private static final Long RELEASED = 0L;
     private static final String DEFAULT_PREFIX = "";
+
+    /**
+     * 未指定加锁值前缀时，以本进程的随机标识与线程 id 区分持有者
+     */
+    private static final String INSTANCE_ID = UUID.randomUUID().toString();
     private static final long DEFAULT_SLEEP = 100L;
 
     private final String name;
@@ -73,21 +85,8 @@ public class RedisLock implements AbstractLock {
     }
 
     @Override
-    @SuppressWarnings("all")
     public void waitLock(long waitTime, TimeUnit unit) throws InterruptedException {
-        String value = convertValue();
-        long timeWait = System.currentTimeMillis() + unit.toMillis(waitTime);
-
-        RedisProxyUtil redis = RedisProxyUtil.getCacheInstance();
-        while (System.currentTimeMillis() < timeWait) {
-            String result = redis.getJedisReturn().set(name, value, NX, EX, expire);
-            if (LOCK_RESULT.equals(result)) {
-                return;
-            }
-            // 自旋忙等待
-            Thread.sleep(RandomUtils.nextLong(0, DEFAULT_SLEEP));
-            Thread.yield();
-        }
+        acquire(waitTime, unit);
     }
 
     /**
@@ -107,9 +106,7 @@ public class RedisLock implements AbstractLock {
      */
     @Override
     public boolean tryLock() {
-        String value = convertValue();
-        String result = RedisProxyUtil.getCacheInstance().getJedisReturn().set(name, value, NX, EX, expire);
-        return LOCK_RESULT.equals(result);
+        return LOCK_RESULT.equals(eval(LockScript.ACQUIRE, Long.toString(getLeaseMillis()), convertValue()));
     }
 
     /**
@@ -120,22 +117,11 @@ public class RedisLock implements AbstractLock {
      * @return {@code true} 若成功获取到锁，{@code false} 若在指定时间内未获取到锁
      */
     @Override
-    @SuppressWarnings("all")
     public boolean tryLock(long waitTime, TimeUnit unit) throws InterruptedException {
-        String value = convertValue();
-        long timeWait = System.currentTimeMillis() + unit.toMillis(waitTime);
-
-        RedisProxyUtil redis = RedisProxyUtil.getCacheInstance();
-        while (System.currentTimeMillis() < timeWait) {
-            String result = redis.getJedisReturn().set(name, value, NX, EX, expire);
-            if (LOCK_RESULT.equals(result)) {
-                return true;
-            }
-            // 自旋忙等待
-            Thread.sleep(RandomUtils.nextLong(0, DEFAULT_SLEEP));
-            Thread.yield();
+        if (acquire(waitTime, unit)) {
+            return true;
         }
-        log.warn("等待锁超时: {}ms", waitTime);
+        log.warn("等待锁超时: {}ms", unit.toMillis(waitTime));
         return false;
     }
 
@@ -145,16 +131,17 @@ public class RedisLock implements AbstractLock {
     }
 
     /**
-     * 释放锁
+     * 释放锁，重入多次时需释放相同次数；锁不属于本持有者时不做处理
      */
     @Override
     public void unlock() {
-        String value = convertValue();
-        String lockValue = RedisProxyUtil.getCacheInstance().getJedisReturn().get(name);
-
-        /*解锁*/
-        if (value.equalsIgnoreCase(lockValue)) {
-            RedisProxyUtil.getCacheInstance().getJedisReturn().del(name);
+        Object remaining = eval(LockScript.RELEASE, convertValue(), Long.toString(getLeaseMillis()));
+        if (RELEASED.equals(remaining)) {
+            // 唤醒等待该锁的线程，不必等到下一次轮询
+            LockReleaseNotifier notifier = LockReleaseNotifier.current();
+            if (null != notifier) {
+                notifier.released(name);
+            }
         }
     }
 
@@ -167,11 +154,61 @@ public class RedisLock implements AbstractLock {
     }
 
     /**
-     * 获取 Value
+     * 在给定时间内反复尝试加锁；启用了释放通知时，两次尝试之间挂起直到锁被释放，否则随机休眠后重试
+     *
+     * @return 是否加锁成功
+     */
+    private boolean acquire(long waitTime, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(waitTime);
+        LockReleaseNotifier notifier = LockReleaseNotifier.current();
+        if (null != notifier) {
+            return notifier.await(name, deadline, this::tryLock);
+        }
+        while (deadline - System.nanoTime() > 0) {
+            if (tryLock()) {
+                return true;
+            }
+            // 自旋忙等待
+            Thread.sleep(RandomUtils.nextLong(0, DEFAULT_SLEEP));
+            Thread.yield();
+        }
+        return false;
+    }
+
+    /**
+     * 在锁所在的分片上执行脚本，KEYS 为锁名
+     */
+    private Object eval(LockScript script, String... args) {
+        ShardedJedis shardedJedis = RedisProxyUtil.getCacheInstance().getMasterJedis();
+        try {
+            return script.eval(shardedJedis.getShard(name), Collections.singletonList(name), Arrays.asList(args));
+        } finally {
+            RedisProxyUtil.returnJedis(shardedJedis);
+        }
+    }
+
+    private long getLeaseMillis() {
+        return TimeUnit.SECONDS.toMillis(expire);
+    }
+
+    /**
+     * 本锁在 redis 中的值，用于判断锁是否仍由本线程持有
+     *
+     * @return 保存在 Redis 对应键中的值
+     */
+    public String getLockValue() {
+        return convertValue();
+    }
+
+    /**
+     * 获取 Value，即锁的持有者
      *
      * @return 保存在 Redis 对应键中的值
      */
     private String convertValue() {
+        if (DEFAULT_PREFIX.equals(valuePrefix)) {
+            return INSTANCE_ID + "_" + Thread.currentThread().getId() + "_" + DEFAULT_VALUE;
+        }
         return valuePrefix + DEFAULT_VALUE;
     }
 }
\ No newline at end of file
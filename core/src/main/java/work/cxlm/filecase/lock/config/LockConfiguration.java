@@ -0,0 +1,76 @@
+package work.cxlm.filecase.lock.config;
+
+import com.google.common.util.concurrent.Striped;
+import lombok.extern.slf4j.Slf4j;
+import org.redisson.api.RedissonClient;
+import org.springframework.beans.BeansException;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.ApplicationContext;
+import org.springframework.context.ApplicationContextAware;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.lang.NonNull;
+import work.cxlm.filecase.lock.helper.LockReleaseNotifier;
+import work.cxlm.filecase.lock.helper.LockWatchdog;
+
+import java.time.Duration;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * create 2021/5/20 15:46
+ *
+ * @author Chiru
+ */
+@Slf4j
+@Configuration
+@EnableConfigurationProperties(LockProperties.class)
+public class LockConfiguration implements ApplicationContextAware {
+
+    private ApplicationContext applicationContext;
+
+    /**
+     * 注册锁释放通知，RedisLock 通过 {@link LockReleaseNotifier#current()} 使用，默认开启
+     */
+    @Bean(destroyMethod = "shutdown")
+    @ConditionalOnProperty(prefix = "lock.notification", name = "enabled", havingValue = "true", matchIfMissing = true)
+    public LockReleaseNotifier lockReleaseNotifier(LockProperties properties) {
+        LockProperties.NotificationProperties notification = properties.getNotification();
+        RedissonClient redissonClient = applicationContext.getBean(notification.getRedissonClient(), RedissonClient.class);
+        LockReleaseNotifier notifier = new LockReleaseNotifier(redissonClient, notification.getChannel(),
+                notification.getPollInterval());
+        notifier.start();
+        LockReleaseNotifier.setCurrent(notifier);
+        log.info("已启用锁释放通知: {}", notification.getChannel());
+        return notifier;
+    }
+
+    /**
+     * 注册锁续期看门狗，由 DsLockAspect 使用，默认开启
+     */
+    @Bean(destroyMethod = "shutdown")
+    @ConditionalOnProperty(prefix = "lock.watchdog", name = "enabled", havingValue = "true", matchIfMissing = true)
+    public LockWatchdog lockWatchdog(LockProperties properties) {
+        LockProperties.WatchdogProperties watchdog = properties.getWatchdog();
+        Duration renewInterval = null == watchdog.getRenewInterval() ?
+                watchdog.getLease().dividedBy(3) : watchdog.getRenewInterval();
+        log.info("已启用锁续期，租期: {}, 续期间隔: {}", watchdog.getLease(), renewInterval);
+        return new LockWatchdog(watchdog.getLease(), renewInterval);
+    }
+
+    /**
+     * 注册进程内的分段锁，由 DsLockAspect 在访问 redis 前获取，默认开启
+     */
+    @Bean
+    @ConditionalOnProperty(prefix = "lock.local", name = "enabled", havingValue = "true", matchIfMissing = true)
+    public Striped<Lock> localLockStripes(LockProperties properties) {
+        int stripes = properties.getLocal().getStripes();
+        log.info("已启用进程内预加锁，分段数: {}", stripes);
+        return Striped.lock(stripes);
+    }
+
+    @Override
+    public void setApplicationContext(@NonNull ApplicationContext applicationContext) throws BeansException {
+        this.applicationContext = applicationContext;
+    }
+}
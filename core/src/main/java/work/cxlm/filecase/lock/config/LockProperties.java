@@ -0,0 +1,91 @@
+package work.cxlm.filecase.lock.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+
+/**
+ * create 2021/5/20 15:40
+ *
+ * @author Chiru
+ */
+@ConfigurationProperties("lock")
+@Data
+public class LockProperties {
+
+    /**
+     * 锁释放通知的配置
+     */
+    private NotificationProperties notification = new NotificationProperties();
+
+    /**
+     * 锁续期看门狗的配置
+     */
+    private WatchdogProperties watchdog = new WatchdogProperties();
+
+    /**
+     * 本地预加锁的配置
+     */
+    private LocalProperties local = new LocalProperties();
+
+    @Data
+    public static class NotificationProperties {
+
+        /**
+         * 是否启用，启用后等待锁的线程挂起直到锁被释放，关闭时随机休眠 0 ~ 100ms 后重试
+         */
+        private boolean enabled = true;
+
+        /**
+         * 发布、订阅释放通知的 RedissonClient Bean 名称
+         */
+        private String redissonClient = "redissonClient";
+
+        /**
+         * 释放通知的频道名，所有锁共用
+         */
+        private String channel = "file-case:lock:release";
+
+        /**
+         * 两次尝试加锁的最长间隔，锁过期释放或通知丢失时按该间隔重试
+         */
+        private Duration pollInterval = Duration.ofMillis(500);
+    }
+
+    @Data
+    public static class WatchdogProperties {
+
+        /**
+         * 是否启用，启用后 AUTO 类型的 DsLock 以 lease 为过期时间加锁（忽略注解的 expire），方法执行期间自动续期
+         */
+        private boolean enabled = true;
+
+        /**
+         * 锁的租期，持有锁的节点宕机后，锁最迟经过该时间释放，按秒取整
+         */
+        private Duration lease = Duration.ofSeconds(6);
+
+        /**
+         * 续期间隔，为空时取 lease 的 1/3；每次续期每个 redis 分片执行一次脚本
+         */
+        private Duration renewInterval;
+    }
+
+    @Data
+    public static class LocalProperties {
+
+        /**
+         * 是否启用，启用后阻塞的 DsLock 先获取进程内的锁，同一个键每个节点只有一个线程访问 redis
+         */
+        private boolean enabled = true;
+
+        /**
+         * 进程内锁的分段数，应远大于同时加锁的键数量
+         * <p>
+         * 不同的键可能落在同一段上：无关的键会在本地串行执行；嵌套加锁的两个线程以相反顺序持有两个段时会互相等待，
+         * 直到注解的 timeout 到期后加锁失败，按 reject 策略处理（ABORT 时抛出异常）。嵌套加锁较多时可调大分段数或关闭本地预加锁
+         */
+        private int stripes = 1024;
+    }
+}
@@ -1,25 +1,32 @@
 package work.cxlm.filecase.lock.helper;
 
+import com.google.common.util.concurrent.Striped;
 import lombok.extern.slf4j.Slf4j;
-import org.aspectj.lang.JoinPoint;
 import org.aspectj.lang.ProceedingJoinPoint;
 import org.aspectj.lang.annotation.*;
 import org.aspectj.lang.reflect.MethodSignature;
-import org.springframework.core.annotation.AnnotatedElementUtils;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.core.annotation.Order;
 import org.springframework.stereotype.Component;
 import work.cxlm.filecase.lock.DsLock;
 import work.cxlm.filecase.lock.RedisLock;
 import work.cxlm.filecase.util.DefaultValueHelper;
-import work.cxlm.filecase.util.SpringExpressionParser;
 
 import java.lang.reflect.Method;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
-import java.util.UUID;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
 
 /**
+ * 处理 {@link DsLock}
+ * <p>
+ * 阻塞的锁先获取进程内的分段锁，再到 redis 加锁：同一个键在每个节点上只有一个线程等待 redis，
+ * 其余线程在本地排队，redis 上的竞争随节点数而不是线程数增长
  * create 2021/4/13 17:47
  *
  * @author Chiru
@@ -30,9 +37,37 @@ import java.util.concurrent.TimeUnit;
 @Component
 public class DsLockAspect {
 
-    private static final String POINT = ".";
+    /**
+     * 本线程通过注解持有的锁，嵌套调用时逐层入栈；同一把 AUTO 锁重入时再次压入同一个对象，只有最外层释放
+     */
+    private static final ThreadLocal<Deque<HeldLock>> LOCK_THREAD_LOCAL = ThreadLocal.withInitial(ArrayDeque::new);
+
+    private final Map<Method, LockDescriptor> descriptors = new ConcurrentHashMap<>();
+
+    /**
+     * 本节点的标识，见 {@link #nodeId()}
+     */
+    private volatile String nodeId;
+
+    /**
+     * 为 null 时不续期，锁按注解的 expire 过期
+     */
+    private LockWatchdog watchdog;
+
+    /**
+     * 为 null 时不在本地预加锁
+     */
+    private Striped<Lock> localLocks;
+
+    @Autowired(required = false)
+    public void setWatchdog(LockWatchdog watchdog) {
+        this.watchdog = watchdog;
+    }
 
-    private static final ThreadLocal<RedisLock> LOCK_THREAD_LOCAL = new ThreadLocal<>();
+    @Autowired(required = false)
+    public void setLocalLocks(Striped<Lock> localLocks) {
+        this.localLocks = localLocks;
+    }
 
     @Pointcut(value = "@annotation(work.cxlm.filecase.lock.DsLock)")
     public void pointCut() {
@@ -45,7 +80,15 @@ public class DsLockAspect {
     public Object around(ProceedingJoinPoint joinPoint) throws Throwable {
         boolean lockSuccess = preHandler(joinPoint);
         if (lockSuccess) {
-            return joinPoint.proceed();
+            Object result;
+            try {
+                result = joinPoint.proceed();
+            } catch (Throwable e) {
+                release(true);
+                throw e;
+            }
+            release(false);
+            return result;
         }
         // 跳过执行时，返回值给它一个默认值（否则都返回 null 会在基本类型上报错）
         // 不可以直接抛异常，在 IGNORE 策略下抛异常是不行的
@@ -60,90 +103,161 @@ public class DsLockAspect {
      */
     public boolean preHandler(ProceedingJoinPoint point) throws UnknownHostException, InterruptedException {
         /* 构造 Redis 锁对象 */
-        Method targetMethod = ((MethodSignature) point.getSignature()).getMethod();
-        DsLock dsLockAnnotation = AnnotatedElementUtils.getMergedAnnotation(targetMethod, DsLock.class);
-        if (dsLockAnnotation == null) {
-            throw new NullPointerException("注解失效，method: " + targetMethod);
+        LockDescriptor descriptor = descriptorOf((MethodSignature) point.getSignature());
+        DsLock dsLockAnnotation = descriptor.getAnnotation();
+        String key = descriptor.lockKey(point.getArgs());
+        Deque<HeldLock> heldLocks = LOCK_THREAD_LOCAL.get();
+        HeldLock held = findHeld(heldLocks, key);
+        if (null != held && LockType.AUTO == held.lock.getType() && LockType.AUTO == dsLockAnnotation.type()) {
+            /* 本线程已持有该锁，直接重入，不访问 redis */
+            log.debug("重入锁: {}", key);
+            heldLocks.push(held);
+            return true;
         }
-        String key = generateLockKey(point, dsLockAnnotation);
 
         /* 获取主机名 + 线程名 */
-        InetAddress inetAddress = InetAddress.getLocalHost();
-        String valuePrefix = inetAddress.getHostName() + "_" + inetAddress.getHostAddress() + "_" +
-                Thread.currentThread().getId() + "_" + Thread.currentThread().getName() + "_";
+        String valuePrefix = nodeId() + Thread.currentThread().getId() + "_" + Thread.currentThread().getName() + "_";
 
         /* 尝试加锁 */
         log.info("尝试加锁: {}, 主机、线程名: {}", key, valuePrefix);
-        RedisLock lock = new RedisLock(key, valuePrefix, dsLockAnnotation.expire(),
+        // AUTO 锁由看门狗续期，以较短的租期加锁，节点宕机后尽快释放
+        boolean renewable = null != watchdog && LockType.AUTO == dsLockAnnotation.type();
+        long expire = renewable ? watchdog.getLeaseSeconds() : dsLockAnnotation.expire();
+        RedisLock lock = new RedisLock(key, valuePrefix, expire,
                 dsLockAnnotation.msg(), dsLockAnnotation.reject(), dsLockAnnotation.type());
         boolean blockLock = dsLockAnnotation.block();
-        boolean lockSuccess = (!blockLock && lock.tryLock()) ||
-                (blockLock && lock.tryLock(dsLockAnnotation.timeout(), TimeUnit.MILLISECONDS));
+        // 不阻塞的锁只访问一次 redis，不必预加锁，也避免同一段上的其它键使其失败
+        Lock localLock = blockLock && null != localLocks ? localLocks.get(key) : null;
+        boolean lockSuccess = blockLock ? waitLock(lock, localLock, dsLockAnnotation.timeout()) : lock.tryLock();
         if (lockSuccess) {
-            /* 加锁成功，把 key 放入 ThreadLocal */
+            /* 加锁成功，把锁压入 ThreadLocal */
             log.info("加锁成功: {}, 主机线程名: {}", key, valuePrefix);
-            LOCK_THREAD_LOCAL.set(lock);
+            heldLocks.push(new HeldLock(lock, localLock));
+            if (renewable) {
+                watchdog.watch(lock);
+            }
         } else {
             /* 加锁失败，错误处理 */
+            if (heldLocks.isEmpty()) {
+                LOCK_THREAD_LOCAL.remove();
+            }
             lock.getPolicy().reject(dsLockAnnotation, point);
         }
         return lockSuccess;
     }
 
     /**
-     * 加锁成功且代理方法执行成功，分情况处理
+     * 在超时时间内先获取进程内的锁，再获取 redis 锁；redis 加锁失败时释放进程内的锁
      */
-    @AfterReturning(value = "pointCut()")
-    private void afterReturning() {
+    private static boolean waitLock(RedisLock lock, Lock localLock, long timeoutMillis) throws InterruptedException {
+        if (null == localLock) {
+            return lock.tryLock(timeoutMillis, TimeUnit.MILLISECONDS);
+        }
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        if (!localLock.tryLock(timeoutMillis, TimeUnit.MILLISECONDS)) {
+            log.warn("等待进程内的锁超时: {}ms", timeoutMillis);
+            return false;
+        }
+        boolean locked = false;
         try {
-            RedisLock lock = LOCK_THREAD_LOCAL.get();
-            // 自动加解锁（且锁有效）时，在方法执行结束后释放锁
-            if (null != lock && LockType.AUTO == lock.getType()) {
-                log.info("释放锁: {}", lock.getName());
-                lock.unlock();
-            }
+            locked = lock.tryLock(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+            return locked;
         } finally {
-            LOCK_THREAD_LOCAL.remove();
+            if (!locked) {
+                localLock.unlock();
+            }
         }
     }
 
     /**
-     * 加锁失败或代理方法执行失败
+     * 代理方法执行结束，弹出本次调用加的锁；自动加解锁时在方法执行成功后释放，代理方法执行失败时总是释放。
+     * 加锁失败的调用不会执行到这里，不会误释放外层调用持有的锁。解锁失败只记录日志，
+     * 代理方法的结果或异常照常返回给调用方。进程内的锁只能由加锁的线程释放，
+     * 因此 HOLD 锁在方法返回时也会释放进程内的锁，之后本节点的其它线程到 redis 上等待
+     *
+     * @param failed 代理方法是否抛出了异常
      */
-    @AfterThrowing(value = "pointCut()")
-    private void afterThrowing() {
-         /* 即使 before() 中抛出异常，也会执行 after() && afterThrowing()
-         所以判断 ThreadLocal 是否为空，避免其它线程释放掉之前线程的锁
-         加锁失败不处理，代理方法失败时释放锁并清空 ThreadLocal */
-        if (LOCK_THREAD_LOCAL.get() != null) {
+    private void release(boolean failed) {
+        Deque<HeldLock> heldLocks = LOCK_THREAD_LOCAL.get();
+        try {
+            HeldLock held = heldLocks.pop();
+            // 外层仍持有同一把锁时为重入，由外层释放
+            if (heldLocks.contains(held)) {
+                return;
+            }
+            RedisLock lock = held.lock;
             try {
-                RedisLock lock = LOCK_THREAD_LOCAL.get();
-                log.info("释放锁: {}", lock.getName());
-                lock.unlock();
+                if (failed || LockType.AUTO == lock.getType()) {
+                    log.info("释放锁: {}", lock.getName());
+                    unwatch(lock);
+                    lock.unlock();
+                }
+            } catch (RuntimeException e) {
+                // redis 不可用时解锁失败，锁在租期结束后过期；不能掩盖代理方法的返回值或抛出的异常
+                log.warn("释放锁失败，将在租期结束后过期: {}", lock.getName(), e);
             } finally {
+                // 先释放 redis 锁，本地排队的下一个线程随即可以加锁
+                if (null != held.localLock) {
+                    held.localLock.unlock();
+                }
+            }
+        } finally {
+            if (heldLocks.isEmpty()) {
                 LOCK_THREAD_LOCAL.remove();
             }
         }
     }
 
+    private static HeldLock findHeld(Deque<HeldLock> heldLocks, String key) {
+        for (HeldLock held : heldLocks) {
+            if (held.lock.getName().equals(key)) {
+                return held;
+            }
+        }
+        return null;
+    }
+
+    private void unwatch(RedisLock lock) {
+        if (null != watchdog) {
+            watchdog.unwatch(lock);
+        }
+    }
+
+    /**
+     * 方法的加锁信息，首次调用时解析，之后复用
+     *
+     * @param signature 切点的方法签名
+     * @return 加锁信息
+     */
+    public LockDescriptor descriptorOf(MethodSignature signature) {
+        Method method = signature.getMethod();
+        LockDescriptor descriptor = descriptors.get(method);
+        return null != descriptor ? descriptor : descriptors.computeIfAbsent(method, m -> LockDescriptor.of(signature));
+    }
+
     /**
-     * 生成 lock.className.methodName 签名
+     * 本节点的标识：主机名_IP_，首次调用时解析，之后不再查询 DNS
      */
-    private String generateClassMethodName(JoinPoint point) {
-        final String prefixKey = "lock";
-        String className = point.getSignature().getDeclaringType().getSimpleName();
-        String methodName = point.getSignature().getName();
-        return prefixKey + POINT + className + POINT + methodName;
+    private String nodeId() throws UnknownHostException {
+        String id = nodeId;
+        if (null == id) {
+            InetAddress inetAddress = InetAddress.getLocalHost();
+            id = inetAddress.getHostName() + "_" + inetAddress.getHostAddress() + "_";
+            nodeId = id;
+        }
+        return id;
     }
 
     /**
-     * 生成锁需要使用的 key
+     * 本线程持有的 redis 锁及其对应的进程内的锁（未预加锁时为 null）
      */
-    private String generateLockKey(JoinPoint point, DsLock annotation) {
-        String prefix = generateClassMethodName(point) + POINT;
-        if (!annotation.name().isEmpty()) {
-            return prefix + SpringExpressionParser.parse(annotation.name(), point);
+    private static class HeldLock {
+        private final RedisLock lock;
+        private final Lock localLock;
+
+        private HeldLock(RedisLock lock, Lock localLock) {
+            this.lock = lock;
+            this.localLock = localLock;
         }
-        return prefix + UUID.randomUUID();
     }
 }
@@ -0,0 +1,92 @@
+package work.cxlm.filecase.lock.helper;
+
+import lombok.Getter;
+import org.aspectj.lang.reflect.MethodSignature;
+import org.springframework.core.annotation.AnnotatedElementUtils;
+import org.springframework.expression.Expression;
+import org.springframework.expression.spel.SpelCompilerMode;
+import org.springframework.expression.spel.SpelParserConfiguration;
+import org.springframework.expression.spel.standard.SpelExpressionParser;
+import org.springframework.expression.spel.support.StandardEvaluationContext;
+import work.cxlm.filecase.lock.DsLock;
+
+import java.lang.reflect.Method;
+import java.util.UUID;
+
+/**
+ * 一个 {@link DsLock} 方法的加锁信息，每个方法只解析一次
+ * <p>
+ * 键名表达式以 {@link SpelCompilerMode#MIXED} 解析，求值后编译为字节码，不能编译的表达式（如数字与字符串相加）仍解释执行；
+ * 参数类型变化导致编译后的表达式失败时退回解释执行，之后再次尝试编译
+ * create 2021/5/22 14:30
+ *
+ * @author Chiru
+ */
+@Getter
+public class LockDescriptor {
+
+    private static final String POINT = ".";
+    private static final String PREFIX_KEY = "lock";
+
+    private static final SpelExpressionParser SPEL_PARSER = new SpelExpressionParser(
+            new SpelParserConfiguration(SpelCompilerMode.MIXED, LockDescriptor.class.getClassLoader()));
+
+    private final DsLock annotation;
+
+    /**
+     * lock.className.methodName.
+     */
+    private final String keyPrefix;
+
+    /**
+     * 按参数位置排列的参数名，对应表达式中的变量
+     */
+    private final String[] parameterNames;
+
+    /**
+     * 键名表达式，注解未指定键名时为 null
+     */
+    private final Expression expression;
+
+    private LockDescriptor(DsLock annotation, String keyPrefix, String[] parameterNames, Expression expression) {
+        this.annotation = annotation;
+        this.keyPrefix = keyPrefix;
+        this.parameterNames = parameterNames;
+        this.expression = expression;
+    }
+
+    /**
+     * 解析方法上的注解与参数名
+     *
+     * @param signature 切点的方法签名
+     * @return 加锁信息
+     */
+    public static LockDescriptor of(MethodSignature signature) {
+        Method method = signature.getMethod();
+        DsLock annotation = AnnotatedElementUtils.getMergedAnnotation(method, DsLock.class);
+        if (annotation == null) {
+            throw new NullPointerException("注解失效，method: " + method);
+        }
+        String keyPrefix = PREFIX_KEY + POINT + signature.getDeclaringType().getSimpleName() +
+                POINT + signature.getName() + POINT;
+        Expression expression = annotation.name().isEmpty() ? null : SPEL_PARSER.parseExpression(annotation.name());
+        return new LockDescriptor(annotation, keyPrefix, signature.getParameterNames(), expression);
+    }
+
+    /**
+     * 生成锁需要使用的 key，注解未指定键名时每次调用使用不同的 key
+     *
+     * @param args 方法参数
+     * @return 锁名
+     */
+    public String lockKey(Object[] args) {
+        if (null == expression) {
+            return keyPrefix + UUID.randomUUID();
+        }
+        StandardEvaluationContext context = new StandardEvaluationContext();
+        for (int i = 0; i < parameterNames.length; i++) {
+            context.setVariable(parameterNames[i], args[i]);
+        }
+        return keyPrefix + expression.getValue(context, String.class);
+    }
+}
@@ -0,0 +1,151 @@
+package work.cxlm.filecase.lock.helper;
+
+import lombok.extern.slf4j.Slf4j;
+import org.redisson.api.RTopic;
+import org.redisson.api.RedissonClient;
+import org.redisson.client.codec.StringCodec;
+import org.springframework.lang.Nullable;
+
+import java.time.Duration;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BooleanSupplier;
+
+/**
+ * 分布式锁的释放通知
+ * <p>
+ * 等待锁的线程按锁名登记后挂起，锁释放时本节点的等待线程立即唤醒，并通过 redis 发布订阅（所有锁共用一个频道，
+ * 消息为锁名）唤醒其它节点的等待线程。线程先登记再尝试加锁，尝试失败之后发生的释放一定能唤醒它；
+ * 锁因过期而释放时没有通知，挂起时间不超过 pollInterval，按该间隔重试兜底
+ * create 2021/5/20 15:10
+ *
+ * @author Chiru
+ */
+@Slf4j
+public class LockReleaseNotifier {
+
+    private static volatile LockReleaseNotifier current;
+
+    /**
+     * 锁名与等待该锁的线程
+     */
+    private final ConcurrentHashMap<String, Set<Thread>> waiters = new ConcurrentHashMap<>();
+
+    /**
+     * 为 null 时只通知本节点的等待线程
+     */
+    @Nullable
+    private final RTopic topic;
+
+    private final long pollIntervalNanos;
+
+    /**
+     * @param topic        跨节点通知使用的频道，为 null 时只通知本节点
+     * @param pollInterval 两次尝试加锁的最长间隔
+     */
+    public LockReleaseNotifier(@Nullable RTopic topic, Duration pollInterval) {
+        this.topic = topic;
+        this.pollIntervalNanos = Math.max(1, pollInterval.toNanos());
+    }
+
+    public LockReleaseNotifier(RedissonClient redissonClient, String channel, Duration pollInterval) {
+        this(redissonClient.getTopic(channel, StringCodec.INSTANCE), pollInterval);
+    }
+
+    /**
+     * 当前使用的通知器，为 null 时 RedisLock 退化为随机休眠轮询
+     */
+    @Nullable
+    public static LockReleaseNotifier current() {
+        return current;
+    }
+
+    public static void setCurrent(@Nullable LockReleaseNotifier notifier) {
+        current = notifier;
+    }
+
+    /**
+     * 订阅释放频道
+     */
+    public void start() {
+        if (null != topic) {
+            topic.addListener(String.class, (channel, lockName) -> wakeUp(lockName));
+        }
+    }
+
+    public void shutdown() {
+        if (null != topic) {
+            topic.removeAllListeners();
+        }
+        if (this == current) {
+            current = null;
+        }
+    }
+
+    /**
+     * 反复尝试加锁直到成功或超时，两次尝试之间挂起等待释放通知
+     *
+     * @param lockName      锁名
+     * @param deadlineNanos 截止时间，与 {@link System#nanoTime()} 比较
+     * @param attempt       一次加锁尝试
+     * @return 是否加锁成功
+     * @throws InterruptedException 等待期间被中断
+     */
+    public boolean await(String lockName, long deadlineNanos, BooleanSupplier attempt) throws InterruptedException {
+        Thread thread = Thread.currentThread();
+        // 登记与移除都在 compute 中完成，不会登记到已被移除的集合上
+        waiters.compute(lockName, (name, threads) -> {
+            Set<Thread> registered = null == threads ? ConcurrentHashMap.newKeySet() : threads;
+            registered.add(thread);
+            return registered;
+        });
+        try {
+            while (true) {
+                // 先登记后尝试：尝试失败后的释放会先于挂起 unpark，挂起立即返回
+                if (attempt.getAsBoolean()) {
+                    return true;
+                }
+                long remaining = deadlineNanos - System.nanoTime();
+                if (remaining <= 0) {
+                    return false;
+                }
+                LockSupport.parkNanos(this, Math.min(remaining, pollIntervalNanos));
+                if (Thread.interrupted()) {
+                    throw new InterruptedException();
+                }
+            }
+        } finally {
+            waiters.computeIfPresent(lockName, (name, threads) -> {
+                threads.remove(thread);
+                return threads.isEmpty() ? null : threads;
+            });
+        }
+    }
+
+    /**
+     * 通知锁已释放，本节点的等待线程立即唤醒，其它节点经 redis 转发
+     *
+     * @param lockName 锁名
+     */
+    public void released(String lockName) {
+        wakeUp(lockName);
+        if (null != topic) {
+            topic.publishAsync(lockName).whenComplete((receivers, e) -> {
+                if (null != e) {
+                    log.warn("发送锁释放通知失败，其它节点将在轮询间隔后重试: {}", lockName, e);
+                }
+            });
+        }
+    }
+
+    /**
+     * 唤醒本节点等待该锁的全部线程，由它们重新竞争
+     */
+    private void wakeUp(String lockName) {
+        Set<Thread> threads = waiters.get(lockName);
+        if (null != threads) {
+            threads.forEach(LockSupport::unpark);
+        }
+    }
+}
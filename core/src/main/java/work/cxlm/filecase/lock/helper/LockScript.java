@@ -0,0 +1,92 @@
+package work.cxlm.filecase.lock.helper;
+
+import lombok.Getter;
+import org.apache.commons.codec.digest.DigestUtils;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.exceptions.JedisNoScriptException;
+
+import java.util.List;
+
+/**
+ * 分布式锁使用的 Lua 脚本，通过 EVALSHA 执行，redis 中没有缓存该脚本时改用 EVAL（同时会缓存）
+ * <p>
+ * 锁为一个 hash，字段为持有者的加锁值，值为该持有者的重入次数，整个 hash 的过期时间即锁的租期
+ * create 2021/5/21 15:02
+ *
+ * @author Chiru
+ */
+@Getter
+public class LockScript {
+
+    /**
+     * 加锁：锁不存在或已由该持有者持有时，重入次数加一并重置租期
+     * <p>
+     * KEYS[1] 锁名，ARGV[1] 租期（毫秒），ARGV[2] 加锁值；返回 1 表示成功，0 表示由其它持有者持有
+     */
+    public static final LockScript ACQUIRE = new LockScript(
+            "if redis.call('exists', KEYS[1]) == 0 or redis.call('hexists', KEYS[1], ARGV[2]) == 1 then " +
+            "  redis.call('hincrby', KEYS[1], ARGV[2], 1) " +
+            "  redis.call('pexpire', KEYS[1], ARGV[1]) " +
+            "  return 1 " +
+            "end " +
+            "return 0");
+
+    /**
+     * 解锁：比较并减少重入次数，减到 0 时删除锁
+     * <p>
+     * KEYS[1] 锁名，ARGV[1] 加锁值，ARGV[2] 仍有重入时重置的租期（毫秒）；
+     * 返回剩余的重入次数，0 表示锁已释放，-1 表示该持有者未持有锁
+     */
+    public static final LockScript RELEASE = new LockScript(
+            "if redis.call('hexists', KEYS[1], ARGV[1]) == 0 then " +
+            "  return -1 " +
+            "end " +
+            "local count = redis.call('hincrby', KEYS[1], ARGV[1], -1) " +
+            "if count > 0 then " +
+            "  redis.call('pexpire', KEYS[1], ARGV[2]) " +
+            "  return count " +
+            "end " +
+            "redis.call('del', KEYS[1]) " +
+            "return 0");
+
+    /**
+     * 批量续期：锁仍由对应的持有者持有时重置租期
+     * <p>
+     * KEYS 为锁名，ARGV[1] 为租期（毫秒），ARGV[i + 1] 为 KEYS[i] 的加锁值；返回每个锁是否续期成功（1 / 0）
+     */
+    public static final LockScript RENEW_ALL = new LockScript(
+            "local renewed = {} " +
+            "for i, key in ipairs(KEYS) do " +
+            "  if redis.call('hexists', key, ARGV[i + 1]) == 1 then " +
+            "    redis.call('pexpire', key, ARGV[1]) " +
+            "    renewed[i] = 1 " +
+            "  else " +
+            "    renewed[i] = 0 " +
+            "  end " +
+            "end " +
+            "return renewed");
+
+    private final String script;
+    private final String sha1;
+
+    private LockScript(String script) {
+        this.script = script;
+        this.sha1 = DigestUtils.sha1Hex(script);
+    }
+
+    /**
+     * 在 keys 所在的 redis 上执行，一次往返
+     *
+     * @param jedis 键所在分片的连接
+     * @param keys  KEYS
+     * @param args  ARGV
+     * @return 脚本的返回值
+     */
+    public Object eval(Jedis jedis, List<String> keys, List<String> args) {
+        try {
+            return jedis.evalsha(sha1, keys, args);
+        } catch (JedisNoScriptException e) {
+            return jedis.eval(script, keys, args);
+        }
+    }
+}
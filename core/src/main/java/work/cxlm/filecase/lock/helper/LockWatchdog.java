@@ -0,0 +1,139 @@
+package work.cxlm.filecase.lock.helper;
+
+import lombok.extern.slf4j.Slf4j;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.ShardedJedis;
+import work.cxlm.filecase.lock.RedisLock;
+import work.cxlm.filecase.redis.util.RedisProxyUtil;
+
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 分布式锁的续期看门狗
+ * <p>
+ * 方法执行期间持有的 AUTO 锁以较短的租期加锁，由后台线程每隔 renewInterval 续期；节点宕机后锁最迟在一个租期后释放。
+ * 每次续期把本节点持有的全部锁按所在分片分组，每个分片只执行一次 Lua 脚本（锁仍由原持有者持有时 PEXPIRE，见 {@link LockScript#RENEW_ALL}）
+ * create 2021/5/21 10:05
+ *
+ * @author Chiru
+ */
+@Slf4j
+public class LockWatchdog {
+
+    private static final long RENEWED = 1L;
+
+    /**
+     * 本节点持有的锁名与加锁值
+     */
+    private final Map<String, String> heldLocks = new ConcurrentHashMap<>();
+
+    private final long leaseMillis;
+    private final ScheduledExecutorService scheduler;
+
+    /**
+     * @param lease         锁的租期
+     * @param renewInterval 续期间隔，应明显短于租期
+     */
+    public LockWatchdog(Duration lease, Duration renewInterval) {
+        this.leaseMillis = lease.toMillis();
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "lock-watchdog");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long intervalMillis = renewInterval.toMillis();
+        scheduler.scheduleWithFixedDelay(this::renewAll, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 开始为该锁续期，应在加锁成功后调用
+     *
+     * @param lock 已持有的锁
+     */
+    public void watch(RedisLock lock) {
+        heldLocks.put(lock.getName(), lock.getLockValue());
+    }
+
+    /**
+     * 停止为该锁续期，应在解锁前调用
+     *
+     * @param lock 持有的锁
+     */
+    public void unwatch(RedisLock lock) {
+        heldLocks.remove(lock.getName(), lock.getLockValue());
+    }
+
+    /**
+     * 锁的租期，AUTO 锁以该时长加锁
+     *
+     * @return 秒数，至少为 1
+     */
+    public long getLeaseSeconds() {
+        return Math.max(1, TimeUnit.MILLISECONDS.toSeconds(leaseMillis + 999));
+    }
+
+    public int getWatchedCount() {
+        return heldLocks.size();
+    }
+
+    public void shutdown() {
+        scheduler.shutdownNow();
+    }
+
+    /**
+     * 为当前持有的全部锁续期，已不属于本节点的锁不再续期
+     */
+    private void renewAll() {
+        if (heldLocks.isEmpty()) {
+            return;
+        }
+        Map<String, String> snapshot = new HashMap<>(heldLocks);
+        try {
+            for (String lost : renew(snapshot, leaseMillis)) {
+                String value = snapshot.get(lost);
+                // 续期期间已经解锁的不算丢失
+                if (heldLocks.remove(lost, value)) {
+                    log.warn("锁已过期或被其它节点持有，停止续期: {}", lost);
+                }
+            }
+        } catch (RuntimeException e) {
+            // 下一个周期重试，租期内恢复即可
+            log.warn("锁续期失败，数量: {}", snapshot.size(), e);
+        }
+    }
+
+    /**
+     * 续期一批锁，每个分片执行一次脚本
+     *
+     * @param locks       锁名与加锁值
+     * @param leaseMillis 租期
+     * @return 续期失败（已不属于本节点）的锁名
+     */
+    protected Collection<String> renew(Map<String, String> locks, long leaseMillis) {
+        Map<Jedis, List<String>> shards = new IdentityHashMap<>();
+        ShardedJedis shardedJedis = RedisProxyUtil.getCacheInstance().getMasterJedis();
+        try {
+            locks.keySet().forEach(name -> shards.computeIfAbsent(shardedJedis.getShard(name), shard -> new ArrayList<>()).add(name));
+            List<String> lost = new ArrayList<>();
+            shards.forEach((shard, names) -> {
+                List<String> args = new ArrayList<>(names.size() + 1);
+                args.add(Long.toString(leaseMillis));
+                names.forEach(name -> args.add(locks.get(name)));
+                List<?> renewed = (List<?>) LockScript.RENEW_ALL.eval(shard, names, args);
+                for (int i = 0; i < names.size(); i++) {
+                    if (!Long.valueOf(RENEWED).equals(renewed.get(i))) {
+                        lost.add(names.get(i));
+                    }
+                }
+            });
+            return lost;
+        } finally {
+            RedisProxyUtil.returnJedis(shardedJedis);
+        }
+    }
+}
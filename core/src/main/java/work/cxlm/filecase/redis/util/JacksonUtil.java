@@ -89,6 +89,25 @@ public class JacksonUtil {
         }
     }
 
+    /**
+     * json 字符串转化为带泛型参数的对象，如 List&lt;Folder&gt;
+     *
+     * @param content  json 字符串
+     * @param javaType 完整的目标类型
+     * @param <T>      目标类的类型参数
+     * @return 转化后的对象
+     */
+    public <T> T jsonToObject(String content, JavaType javaType) {
+        if (StringUtils.isEmpty(content)) {
+            return null;
+        }
+        try {
+            return OBJECT_MAPPER.readValue(content, javaType);
+        } catch (IOException e) {
+            throw new JacksonConvertException("JSON 转化为对象出错，源 JSON：" + content, e);
+        }
+    }
+
     /**
      * json 字符串转对象 list
      *
@@ -0,0 +1,78 @@
+package work.cxlm.filecase.cache;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import work.cxlm.filecase.cache.config.MultiCacheProperties;
+import work.cxlm.filecase.cache.warmup.CacheWarmer;
+
+import java.io.File;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 单测：停机时保存本地缓存层的快照，启动后恢复，不覆盖启动以来写入或删除的值，不延长存活时间
+ * create 2021/5/17 14:05
+ *
+ * @author Chiru
+ */
+public class CacheWarmerTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void snapshotIsRestoredWithoutOverwritingNewValues() {
+        MultiCacheProperties.WarmUpProperties warmUp = new MultiCacheProperties.WarmUpProperties();
+        warmUp.setSnapshotDirectory(folder.getRoot().getAbsolutePath());
+
+        MultiStringCache before = new MultiStringCache(Arrays.asList(new CaffeineCacheLayer(), new GuavaCacheLayer()));
+        before.set("k1", "v1");
+        before.setAny("k2", Collections.singletonList(2));
+        before.set("k3", "old");
+        before.setNull("missing");
+        new CacheWarmer(before, warmUp).saveSnapshots();
+        Assert.assertTrue(new File(folder.getRoot(), "caffeine.snapshot").isFile());
+        Assert.assertTrue(new File(folder.getRoot(), "guava.snapshot").isFile());
+
+        MultiStringCache after = new MultiStringCache(Arrays.asList(new CaffeineCacheLayer(), new GuavaCacheLayer()));
+        after.set("k3", "new");
+        new CacheWarmer(after, warmUp).restoreSnapshots();
+        Assert.assertEquals("v1", after.getFrom("k1", 1));
+        Assert.assertEquals(Collections.singletonList(2), after.getAnyCache("k2", List.class));
+        Assert.assertEquals("new", after.getFrom("k3", 0));
+        Assert.assertEquals("new", after.getFrom("k3", 1));
+        // 空值不保存
+        Assert.assertNull(after.getFrom("missing", 1));
+        // 恢复后删除快照
+        Assert.assertFalse(new File(folder.getRoot(), "guava.snapshot").exists());
+    }
+
+    @Test
+    public void deletedKeysAreNotRestoredAndTtlIsNotExtended() {
+        MultiCacheProperties.WarmUpProperties warmUp = new MultiCacheProperties.WarmUpProperties();
+        warmUp.setSnapshotDirectory(folder.getRoot().getAbsolutePath());
+        MultiCacheProperties.LayerProperties shortLived = new MultiCacheProperties.LayerProperties();
+        shortLived.setTtl(Duration.ofSeconds(2));
+
+        MultiStringCache before = new MultiStringCache(Arrays.asList(
+                new CaffeineCacheLayer(shortLived), new GuavaCacheLayer(shortLived)));
+        before.set("kept", "v");
+        before.set("deleted", "old");
+        new CacheWarmer(before, warmUp).saveSnapshots();
+
+        MultiStringCache after = new MultiStringCache(Arrays.asList(new CaffeineCacheLayer(), new GuavaCacheLayer()));
+        after.delete("deleted");
+        new CacheWarmer(after, warmUp).restoreSnapshots();
+        Assert.assertNull(after.getFrom("deleted", 0));
+        Assert.assertNull(after.getFrom("deleted", 1));
+        for (AbstractStringCacheLayer layer : after.getLayers()) {
+            Assert.assertEquals("v", layer.get("kept"));
+            long remaining = layer.remainingTtlMillis("kept");
+            Assert.assertTrue(layer.getLayerName() + ": " + remaining, remaining > 0 && remaining <= 2000);
+        }
+    }
+}
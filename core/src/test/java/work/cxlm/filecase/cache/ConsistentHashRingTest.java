@@ -0,0 +1,52 @@
+package work.cxlm.filecase.cache;
+
+import org.junit.Assert;
+import org.junit.Test;
+import work.cxlm.filecase.cache.shard.ConsistentHashRing;
+
+import java.util.*;
+
+/**
+ * 单测：一致性哈希环上键的分布，以及增加节点时只有新节点接收迁移的键
+ * create 2021/5/19 14:20
+ *
+ * @author Chiru
+ */
+public class ConsistentHashRingTest {
+
+    private static final int KEY_COUNT = 30000;
+
+    @Test
+    public void keysSpreadEvenlyAndMoveOnlyToNewNode() {
+        List<String> keys = new ArrayList<>(KEY_COUNT);
+        for (int i = 0; i < KEY_COUNT; i++) {
+            keys.add("FolderServiceImpl:0:" + i);
+        }
+        ConsistentHashRing<String> before = new ConsistentHashRing<>(nodes("a", "b", "c"), 160);
+        Map<String, List<String>> groups = before.group(keys);
+        Assert.assertEquals(3, groups.size());
+        groups.forEach((node, nodeKeys) ->
+                Assert.assertEquals("节点 " + node, KEY_COUNT / 3.0, nodeKeys.size(), KEY_COUNT * 0.05));
+
+        ConsistentHashRing<String> after = new ConsistentHashRing<>(nodes("a", "b", "c", "d"), 160);
+        int moved = 0;
+        for (String key : keys) {
+            String oldNode = before.route(key);
+            String newNode = after.route(key);
+            if (!oldNode.equals(newNode)) {
+                Assert.assertEquals("d", newNode);
+                moved++;
+            }
+        }
+        Assert.assertEquals(KEY_COUNT / 4.0, moved, KEY_COUNT * 0.05);
+    }
+
+    private static Map<String, String> nodes(String... names) {
+        Map<String, String> nodes = new LinkedHashMap<>();
+        for (String name : names) {
+            // 节点对象与名称不同，group 按对象分组
+            nodes.put(name, new String(name));
+        }
+        return nodes;
+    }
+}
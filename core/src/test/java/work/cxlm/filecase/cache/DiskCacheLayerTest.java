@@ -0,0 +1,51 @@
+package work.cxlm.filecase.cache;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.springframework.util.StreamUtils;
+import org.springframework.util.unit.DataSize;
+import work.cxlm.filecase.cache.config.MultiCacheProperties;
+
+import java.io.InputStream;
+
+/**
+ * 单测：磁盘缓存层按总字节数 LRU 淘汰，重启后恢复索引
+ * create 2021/5/11 17:03
+ *
+ * @author Chiru
+ */
+public class DiskCacheLayerTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void evictsLeastRecentlyUsedAndSurvivesRestart() throws Exception {
+        MultiCacheProperties.LayerProperties spec = new MultiCacheProperties.LayerProperties();
+        spec.setDirectory(folder.getRoot().getAbsolutePath());
+        spec.setMaxDiskSize(DataSize.ofBytes(3000));
+        DiskCacheLayer layer = new DiskCacheLayer(spec);
+        byte[] blob = new byte[900];
+        layer.putBytes("a", blob);
+        layer.putBytes("b", blob);
+        layer.putBytes("c", blob);
+        // 访问 a 之后，最久未访问的是 b
+        Assert.assertNotNull(layer.get("a"));
+        layer.putBytes("d", blob);
+        Assert.assertNull(layer.get("b"));
+        try (InputStream in = layer.openStream("a")) {
+            Assert.assertEquals(900, StreamUtils.copyToByteArray(in).length);
+        }
+
+        layer.put("text", "value");
+        DiskCacheLayer restarted = new DiskCacheLayer(spec);
+        Assert.assertEquals(layer.getTotalBytes(), restarted.getTotalBytes());
+        Assert.assertEquals("value", restarted.get("text"));
+        Assert.assertNull(restarted.get("b"));
+        restarted.clear();
+        Assert.assertEquals(0, restarted.getTotalBytes());
+        Assert.assertNull(restarted.get("a"));
+    }
+}
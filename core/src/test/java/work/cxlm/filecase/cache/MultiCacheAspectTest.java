@@ -0,0 +1,164 @@
+package work.cxlm.filecase.cache;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.aop.aspectj.annotation.AspectJProxyFactory;
+import work.cxlm.filecase.cache.annotation.MultiCacheAspect;
+import work.cxlm.filecase.cache.annotation.MultiCacheEvict;
+import work.cxlm.filecase.cache.annotation.MultiCacheable;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 单测：注解驱动的缓存读取与按键、整体失效，代数丢失后旧缓存项不会重新可见，一定不存在的结果不读写缓存，
+ * 调用方拿到的是缓存值的副本，泛型返回值保留元素类型
+ * create 2021/5/15 14:12
+ *
+ * @author Chiru
+ */
+public class MultiCacheAspectTest {
+
+    private MultiStringCache cache;
+    private Repository repository;
+    private Repository target;
+
+    @Before
+    public void buildProxy() {
+        cache = new MultiStringCache(Arrays.asList(new CaffeineCacheLayer(), new GuavaCacheLayer()));
+        target = new Repository();
+        AspectJProxyFactory factory = new AspectJProxyFactory(target);
+        factory.setProxyTargetClass(true);
+        factory.addAspect(new MultiCacheAspect(cache));
+        repository = factory.getProxy();
+    }
+
+    @Test
+    public void cachesUntilEvicted() {
+        Assert.assertEquals("name-1", repository.find(1));
+        Assert.assertEquals("name-1", repository.find(1));
+        Assert.assertEquals(1, target.loads.get());
+
+        repository.update(1);
+        Assert.assertEquals("name-1", repository.find(1));
+        Assert.assertEquals(2, target.loads.get());
+
+        // 条件不满足时不经过缓存
+        Assert.assertNull(repository.find(-1));
+        Assert.assertNull(repository.find(-1));
+        Assert.assertEquals(4, target.loads.get());
+
+        repository.find(2);
+        repository.updateAll();
+        repository.find(1);
+        repository.find(2);
+        Assert.assertEquals(7, target.loads.get());
+    }
+
+    @Test
+    public void absentResultSkipsCacheAndMethod() {
+        Assert.assertNull(repository.findExisting(-1));
+        Assert.assertEquals(0, repository.count(-1));
+        Assert.assertEquals(0, target.loads.get());
+
+        Assert.assertEquals("name-1", repository.findExisting(1));
+        Assert.assertEquals("name-1", repository.findExisting(1));
+        Assert.assertEquals(1, target.loads.get());
+    }
+
+    @Test
+    public void callersGetTheirOwnCopy() {
+        Item loaded = repository.findItem(1);
+        loaded.setName("changed");
+        Item cached = repository.findItem(1);
+        Assert.assertEquals("item-1", cached.getName());
+        cached.setName("changed");
+        Assert.assertEquals("item-1", repository.findItem(1).getName());
+        Assert.assertEquals(1, target.loads.get());
+    }
+
+    @Test
+    public void lostGenerationDoesNotRevealStaleEntries() {
+        repository.find(1);
+        repository.updateAll();
+        repository.find(1);
+        Assert.assertEquals(2, target.loads.get());
+
+        // 代数被淘汰后重新生成，之前各代的缓存项都不再命中
+        cache.delete("Repository:generation");
+        repository.find(1);
+        Assert.assertEquals(3, target.loads.get());
+        repository.find(1);
+        Assert.assertEquals(3, target.loads.get());
+    }
+
+    @Test
+    public void genericResultKeepsElementType() {
+        List<Item> loaded = repository.findItems(1);
+        loaded.get(0).setName("changed");
+        List<Item> cached = repository.findItems(1);
+        Assert.assertEquals(Item.class, cached.get(0).getClass());
+        Assert.assertEquals("item-1", cached.get(0).getName());
+        Assert.assertEquals(1, target.loads.get());
+    }
+
+    public static class Item {
+
+        private String name;
+
+        public String getName() {
+            return name;
+        }
+
+        public void setName(String name) {
+            this.name = name;
+        }
+    }
+
+    public static class Repository {
+
+        private final AtomicInteger loads = new AtomicInteger();
+
+        @MultiCacheable(key = "#id", condition = "#id > 0")
+        public String find(Integer id) {
+            loads.incrementAndGet();
+            return id > 0 ? "name-" + id : null;
+        }
+
+        @MultiCacheable(key = "#id", exists = "#id > 0")
+        public String findExisting(Integer id) {
+            loads.incrementAndGet();
+            return "name-" + id;
+        }
+
+        @MultiCacheable(key = "#id", exists = "#id > 0")
+        public int count(Integer id) {
+            loads.incrementAndGet();
+            return id;
+        }
+
+        @MultiCacheable(key = "#id")
+        public Item findItem(Integer id) {
+            loads.incrementAndGet();
+            Item item = new Item();
+            item.setName("item-" + id);
+            return item;
+        }
+
+        @MultiCacheable(key = "#id")
+        public List<Item> findItems(Integer id) {
+            return Collections.singletonList(findItem(id));
+        }
+
+        @MultiCacheEvict(key = "#id")
+        public void update(Integer id) {
+        }
+
+        @MultiCacheEvict(allEntries = true)
+        public void updateAll() {
+        }
+    }
+}
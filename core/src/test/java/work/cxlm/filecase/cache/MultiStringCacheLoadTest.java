@@ -0,0 +1,461 @@
+package work.cxlm.filecase.cache;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.FunctionTimer;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import work.cxlm.filecase.cache.config.MultiCacheProperties;
+import work.cxlm.filecase.cache.hotkey.HotKey;
+import work.cxlm.filecase.cache.stats.MultiCacheMetrics;
+import work.cxlm.filecase.cache.writebehind.OverflowPolicy;
+
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * 单测：并发未命中时只回源一次，命中时不回写
+ * create 2021/5/8 16:02
+ *
+ * @author Chiru
+ */
+public class MultiStringCacheLoadTest {
+
+    private final AtomicInteger putCounter = new AtomicInteger();
+    private MultiStringCache cache;
+
+    @Before
+    public void buildCache() {
+        putCounter.set(0);
+        CaffeineCacheLayer countingLayer = new CaffeineCacheLayer() {
+            @Override
+            protected void putObject(String key, Object value) {
+                putCounter.incrementAndGet();
+                super.putObject(key, value);
+            }
+        };
+        cache = new MultiStringCache(Arrays.asList(countingLayer, new GuavaCacheLayer()));
+    }
+
+    @Test
+    public void concurrentMissLoadsOnce() throws Exception {
+        AtomicInteger loadCounter = new AtomicInteger();
+        int threads = 20;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<String>> results = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            results.add(executor.submit(() -> {
+                start.await();
+                return cache.get("hot", () -> {
+                    loadCounter.incrementAndGet();
+                    mutedSleep(200);
+                    return "value";
+                });
+            }));
+        }
+        start.countDown();
+        for (Future<String> result : results) {
+            Assert.assertEquals("value", result.get(5, TimeUnit.SECONDS));
+        }
+        executor.shutdown();
+        Assert.assertEquals(1, loadCounter.get());
+    }
+
+    @Test
+    public void hitDoesNotWriteBack() {
+        cache.get("key", () -> "value");
+        int putsAfterLoad = putCounter.get();
+        for (int i = 0; i < 10; i++) {
+            Assert.assertEquals("value", cache.get("key", () -> "other"));
+        }
+        Assert.assertEquals(putsAfterLoad, putCounter.get());
+    }
+
+    @Test
+    public void batchMissesGoToOneBulkLoad() {
+        cache.set("k1", "v1");
+        cache.set("k2", "v2", 0);
+        List<Set<String>> loaderCalls = new ArrayList<>();
+        Map<String, String> result = cache.getAll(Arrays.asList("k1", "k2", "k3", "k4"), missing -> {
+            loaderCalls.add(missing);
+            Map<String, String> loaded = new HashMap<>();
+            missing.forEach(key -> loaded.put(key, key.replace('k', 'v')));
+            return loaded;
+        });
+        Assert.assertEquals(1, loaderCalls.size());
+        Assert.assertEquals(new HashSet<>(Arrays.asList("k3", "k4")), loaderCalls.get(0));
+        Assert.assertEquals(Arrays.asList("k1", "k2", "k3", "k4"), new ArrayList<>(result.keySet()));
+        Assert.assertEquals("v4", cache.getCache("k4"));
+
+        cache.deleteAll(Arrays.asList("k1", "k4"));
+        Assert.assertNull(cache.getCache("k1"));
+        Assert.assertNull(cache.getCache("k4"));
+        Assert.assertEquals("v2", cache.getCache("k2"));
+    }
+
+    @Test
+    public void refreshAheadReloadsFromLowerLayer() {
+        MultiCacheProperties.LayerProperties spec = new MultiCacheProperties.LayerProperties();
+        spec.setRefreshAfterWrite(Duration.ofMillis(50));
+        MultiStringCache refreshCache = new MultiStringCache(Arrays.asList(new CaffeineCacheLayer(), new GuavaCacheLayer(spec)));
+        refreshCache.set("key", "v1");
+        refreshCache.set("key", "v2", 0);
+        mutedSleep(100);
+        // 到达刷新时间后的读取触发后台从下层加载，不阻塞读取方
+        Assert.assertNotNull(refreshCache.getFrom("key", 1));
+        mutedSleep(100);
+        Assert.assertEquals("v2", refreshCache.getFrom("key", 1));
+    }
+
+    @Test
+    public void statsAreExposedPerLayer() {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        new MultiCacheMetrics(cache).bindTo(registry);
+        cache.get("key", () -> "value");
+        cache.get("key", () -> "other");
+
+        FunctionCounter topHits = registry.get("cache.layer.gets").tags("layer", "guava", "result", "hit").functionCounter();
+        FunctionCounter bottomMisses = registry.get("cache.layer.gets").tags("layer", "caffeine", "result", "miss").functionCounter();
+        FunctionTimer loads = registry.get("cache.layer.loads").tags("layer", MultiCacheMetrics.LOADER_LAYER_NAME).functionTimer();
+        Assert.assertEquals(1.0, topHits.count(), 0);
+        // 首次未命中后，加载线程会再查一次缓存
+        Assert.assertEquals(2.0, bottomMisses.count(), 0);
+        Assert.assertEquals(1.0, loads.count(), 0);
+        Assert.assertEquals(1.0, registry.get("cache.layer.puts").tags("layer", "caffeine").functionCounter().count(), 0);
+    }
+
+    @Test
+    public void asyncMissesShareOneLoad() throws Exception {
+        AtomicInteger loadCounter = new AtomicInteger();
+        CompletableFuture<String> pendingLoad = new CompletableFuture<>();
+        CompletableFuture<String> first = cache.getAsync("key", () -> {
+            loadCounter.incrementAndGet();
+            return pendingLoad;
+        });
+        CompletableFuture<String> second = cache.getAsync("key", () -> {
+            loadCounter.incrementAndGet();
+            return CompletableFuture.completedFuture("other");
+        });
+        Assert.assertFalse(second.isDone());
+        pendingLoad.complete("value");
+        Assert.assertEquals("value", first.get(1, TimeUnit.SECONDS));
+        Assert.assertEquals("value", second.get(1, TimeUnit.SECONDS));
+        Assert.assertEquals(1, loadCounter.get());
+
+        cache.set("k2", "v2", 0);
+        Map<String, String> all = cache.getAllCacheAsync(Arrays.asList("key", "k2", "k3")).get(1, TimeUnit.SECONDS);
+        Assert.assertEquals(Arrays.asList("key", "k2"), new ArrayList<>(all.keySet()));
+    }
+
+    @Test
+    public void mutableValuesAreNotShared() {
+        cache.setAny("list", new ArrayList<>(Collections.singletonList("a")));
+        @SuppressWarnings("unchecked")
+        List<String> cached = cache.getAnyCache("list", ArrayList.class);
+        cached.add("b");
+        Assert.assertEquals(Collections.singletonList("a"), cache.getAnyCache("list", ArrayList.class));
+
+        // 不可变的值与声明为按引用存储的类型仍直接共享引用
+        CaffeineCacheLayer layer = new CaffeineCacheLayer();
+        layer.setReferenceTypes(Collections.singleton(ArrayList.class));
+        ArrayList<String> shared = new ArrayList<>();
+        layer.putAny("shared", shared);
+        Assert.assertSame(shared, layer.getAny("shared", ArrayList.class));
+        Long number = 123456789L;
+        layer.putAny("number", number);
+        Assert.assertSame(number, layer.getAny("number", Long.class));
+    }
+
+    @Test
+    public void nullResultIsCachedUntilNullTtl() {
+        MultiCacheProperties.LayerProperties spec = new MultiCacheProperties.LayerProperties();
+        spec.setNullTtl(Duration.ofMillis(100));
+        MultiStringCache nullCache = new MultiStringCache(Arrays.asList(new CaffeineCacheLayer(spec), new GuavaCacheLayer(spec)));
+        AtomicInteger loadCounter = new AtomicInteger();
+        for (int i = 0; i < 5; i++) {
+            Assert.assertNull(nullCache.getAny("missing", String.class, () -> {
+                loadCounter.incrementAndGet();
+                return null;
+            }));
+        }
+        Assert.assertEquals(1, loadCounter.get());
+        Assert.assertEquals("default", nullCache.getCache("missing", "default"));
+
+        // 批量回源没有返回的键同样缓存为空值
+        Function<Set<String>, Map<String, String>> bulkLoader = missing -> {
+            loadCounter.incrementAndGet();
+            return Collections.singletonMap("k1", "v1");
+        };
+        Assert.assertEquals(Collections.singletonMap("k1", "v1"), nullCache.getAll(Arrays.asList("k1", "k2"), bulkLoader));
+        Assert.assertEquals(Collections.singletonMap("k1", "v1"), nullCache.getAll(Arrays.asList("k1", "k2"), bulkLoader));
+        Assert.assertEquals(2, loadCounter.get());
+
+        // 写入真实值后覆盖空值；空值过期后重新回源
+        nullCache.set("k2", "v2");
+        Assert.assertEquals("v2", nullCache.getCache("k2"));
+        mutedSleep(150);
+        Assert.assertEquals("loaded", nullCache.get("missing", () -> "loaded"));
+    }
+
+    @Test
+    public void hotKeyIsPinnedAboveAllLayers() {
+        MultiCacheProperties properties = new MultiCacheProperties();
+        properties.getHotKey().setEnabled(true);
+        properties.getHotKey().setThreshold(5);
+        GuavaCacheLayer topLayer = new GuavaCacheLayer();
+        MultiStringCache hotCache = new MultiStringCache(Arrays.asList(new CaffeineCacheLayer(), topLayer), properties);
+        hotCache.set("hot", "v1");
+        hotCache.set("cold", "v1");
+        for (int i = 0; i < 10; i++) {
+            Assert.assertEquals("v1", hotCache.getCache("hot"));
+        }
+        hotCache.getCache("cold");
+        List<HotKey> hotKeys = hotCache.getHotKeys();
+        Assert.assertEquals(1, hotKeys.size());
+        Assert.assertEquals("hot", hotKeys.get(0).getKey());
+        Assert.assertTrue(hotKeys.get(0).isPinned());
+
+        // 固定后的读取不再经过缓存层
+        long topHits = topLayer.getStats().getHitCount();
+        for (int i = 0; i < 10; i++) {
+            Assert.assertEquals("v1", hotCache.getCache("hot"));
+        }
+        Assert.assertEquals(topHits, topLayer.getStats().getHitCount());
+
+        hotCache.set("hot", "v2");
+        Assert.assertEquals("v2", hotCache.getCache("hot"));
+        hotCache.delete("hot");
+        Assert.assertNull(hotCache.getCache("hot"));
+    }
+
+    @Test
+    public void pinnedKeyRefreshesFromRemoteLayers() {
+        MultiCacheProperties properties = new MultiCacheProperties();
+        properties.getHotKey().setEnabled(true);
+        properties.getHotKey().setThreshold(5);
+        properties.getHotKey().setRefreshInterval(Duration.ofMillis(50));
+        CaffeineCacheLayer remoteLayer = new CaffeineCacheLayer() {
+            @Override
+            public boolean isLocal() {
+                return false;
+            }
+        };
+        GuavaCacheLayer localLayer = new GuavaCacheLayer();
+        MultiStringCache hotCache = new MultiStringCache(Arrays.asList(remoteLayer, localLayer), properties);
+        hotCache.set("hot", "v1");
+        for (int i = 0; i < 10; i++) {
+            hotCache.getCache("hot");
+        }
+        Assert.assertTrue(hotCache.getHotKeys().get(0).isPinned());
+
+        // 其它节点只更新了远程缓存层，本地缓存层仍是旧值，刷新不能读到本地的旧值
+        remoteLayer.put("hot", "v2");
+        mutedSleep(100);
+        for (int i = 0; i < 20 && !"v2".equals(hotCache.getCache("hot")); i++) {
+            mutedSleep(20);
+        }
+        Assert.assertEquals("v2", hotCache.getCache("hot"));
+        Assert.assertEquals("v1", localLayer.get("hot"));
+        hotCache.shutdown();
+    }
+
+    @Test
+    public void missCountsOneHotKeyAccess() {
+        MultiCacheProperties properties = new MultiCacheProperties();
+        properties.getHotKey().setEnabled(true);
+        properties.getHotKey().setThreshold(3);
+        MultiStringCache hotCache = new MultiStringCache(Arrays.asList(new CaffeineCacheLayer(), new GuavaCacheLayer()), properties);
+        // 未命中的读取先查一遍缓存，回源前再查一遍，只计一次访问
+        hotCache.get("a", () -> "v");
+        hotCache.getAny("b", String.class, () -> "v");
+        Assert.assertTrue(hotCache.getHotKeys().isEmpty());
+        hotCache.get("a", () -> "v");
+        Assert.assertTrue(hotCache.getHotKeys().isEmpty());
+        hotCache.get("a", () -> "v");
+        Assert.assertEquals("a", hotCache.getHotKeys().get(0).getKey());
+        Assert.assertEquals(3, hotCache.getHotKeys().get(0).getEstimatedCount());
+        hotCache.shutdown();
+    }
+
+    @Test
+    public void writeBehindCoalescesRemoteWrites() {
+        MultiCacheProperties properties = new MultiCacheProperties();
+        properties.getWriteBehind().setEnabled(true);
+        // 由测试手动触发写入
+        properties.getWriteBehind().setFlushInterval(Duration.ofMinutes(1));
+        AtomicInteger remotePuts = new AtomicInteger();
+        CaffeineCacheLayer remoteLayer = new CaffeineCacheLayer() {
+            @Override
+            protected void putAllObjects(Map<String, Object> entries) {
+                remotePuts.addAndGet(entries.size());
+                super.putAllObjects(entries);
+            }
+
+            @Override
+            public boolean isLocal() {
+                return false;
+            }
+        };
+        GuavaCacheLayer localLayer = new GuavaCacheLayer();
+        MultiStringCache writeBehindCache = new MultiStringCache(Arrays.asList(remoteLayer, localLayer), properties);
+        for (int i = 0; i < 3; i++) {
+            writeBehindCache.set("key", "v" + i);
+        }
+        writeBehindCache.setAll(Collections.singletonMap("k2", "v2"));
+        writeBehindCache.set("deleted", "v");
+        writeBehindCache.delete("deleted");
+
+        // 本地缓存层立即可见，远程缓存层尚未写入
+        Assert.assertEquals("v2", writeBehindCache.getFrom("key", 1));
+        Assert.assertNull(writeBehindCache.getFrom("key", 0));
+        Assert.assertEquals(2, writeBehindCache.getWriteBehindBuffer().getPendingCount());
+
+        // 异步写入直接写到各层，并取消缓冲区中的旧值，之后的批量写入不会覆盖新值
+        writeBehindCache.setAsync("k2", "v3").join();
+        Assert.assertEquals(1, writeBehindCache.getWriteBehindBuffer().getPendingCount());
+
+        // 同一个键的多次写入合并为一次，已删除的键不会写回
+        writeBehindCache.shutdown();
+        Assert.assertEquals(1, remotePuts.get());
+        Assert.assertEquals("v2", writeBehindCache.getFrom("key", 0));
+        Assert.assertEquals("v3", writeBehindCache.getFrom("k2", 0));
+        Assert.assertNull(writeBehindCache.getFrom("deleted", 0));
+    }
+
+    @Test
+    public void syncOverflowWritesOnlyRejectedEntries() {
+        MultiCacheProperties properties = new MultiCacheProperties();
+        properties.getWriteBehind().setEnabled(true);
+        properties.getWriteBehind().setFlushInterval(Duration.ofMinutes(1));
+        properties.getWriteBehind().setBufferSize(1);
+        properties.getWriteBehind().setOverflowPolicy(OverflowPolicy.SYNC);
+        AtomicInteger remotePuts = new AtomicInteger();
+        CaffeineCacheLayer remoteLayer = new CaffeineCacheLayer() {
+            @Override
+            protected void putAllObjects(Map<String, Object> entries) {
+                remotePuts.addAndGet(entries.size());
+                super.putAllObjects(entries);
+            }
+
+            @Override
+            public boolean isLocal() {
+                return false;
+            }
+        };
+        MultiStringCache writeBehindCache = new MultiStringCache(Arrays.asList(remoteLayer, new GuavaCacheLayer()), properties);
+        Map<String, String> entries = new LinkedHashMap<>();
+        entries.put("k1", "v1");
+        entries.put("k2", "v2");
+        entries.put("k3", "v3");
+        writeBehindCache.setAll(entries);
+
+        // 放入缓冲区的键不会同步写入，其余键同步写入远程缓存层
+        Assert.assertEquals(1, writeBehindCache.getWriteBehindBuffer().getPendingCount());
+        Assert.assertEquals(2, remotePuts.get());
+        writeBehindCache.shutdown();
+        Assert.assertEquals(3, remotePuts.get());
+        for (Map.Entry<String, String> entry : entries.entrySet()) {
+            Assert.assertEquals(entry.getValue(), writeBehindCache.getFrom(entry.getKey(), 0));
+        }
+    }
+
+    @Test
+    public void staleEntryIsServedWhileOneRefreshRuns() throws Exception {
+        MultiCacheProperties.LayerProperties spec = new MultiCacheProperties.LayerProperties();
+        spec.setTtl(Duration.ofSeconds(2));
+        spec.setStaleWhileRevalidate(Duration.ofMillis(1900));
+        MultiStringCache staleCache = new MultiStringCache(Arrays.asList(new CaffeineCacheLayer(spec), new GuavaCacheLayer(spec)));
+        staleCache.set("key", "v1");
+        mutedSleep(150);
+
+        // 软过期后读取方立即拿到旧值，只触发一次后台刷新
+        AtomicInteger loadCounter = new AtomicInteger();
+        CountDownLatch release = new CountDownLatch(1);
+        for (int i = 0; i < 5; i++) {
+            Assert.assertEquals("v1", staleCache.get("key", () -> {
+                loadCounter.incrementAndGet();
+                try {
+                    release.await(1, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return "v2";
+            }));
+        }
+        release.countDown();
+        for (int i = 0; i < 20 && !"v2".equals(staleCache.getCache("key")); i++) {
+            mutedSleep(20);
+        }
+        Assert.assertEquals(1, loadCounter.get());
+        Assert.assertEquals("v2", staleCache.getFrom("key", 0));
+        Assert.assertEquals("v2", staleCache.getFrom("key", 1));
+    }
+
+    @Test
+    public void ttlJitterSpreadsExpiry() {
+        MultiCacheProperties.LayerProperties spec = new MultiCacheProperties.LayerProperties();
+        spec.setTtl(Duration.ofMinutes(10));
+        spec.setTtlJitter(0.5);
+        for (AbstractLocalCacheLayer layer : Arrays.asList(new CaffeineCacheLayer(spec), new GuavaCacheLayer(spec))) {
+            Set<Long> remaining = new HashSet<>();
+            for (int i = 0; i < 20; i++) {
+                layer.put("k" + i, "v");
+                long ttl = layer.remainingTtlMillis("k" + i);
+                Assert.assertTrue(ttl > Duration.ofMinutes(5).toMillis() - 1000 && ttl <= Duration.ofMinutes(10).toMillis());
+                remaining.add(ttl / 1000);
+            }
+            Assert.assertTrue(layer.getLayerName(), remaining.size() > 1);
+        }
+    }
+
+    private void mutedSleep(long time) {
+        try {
+            Thread.sleep(time);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Test
+    public void deleteBetweenReadAndBackfillWins() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch markerWritten = new CountDownLatch(1);
+        CaffeineCacheLayer upper = new CaffeineCacheLayer() {
+            @Override
+            protected void putObject(String key, Object value) {
+                if ("blocker".equals(key)) {
+                    try {
+                        release.await(5, TimeUnit.SECONDS);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                super.putObject(key, value);
+                if ("marker".equals(key)) {
+                    markerWritten.countDown();
+                }
+            }
+        };
+        MultiStringCache backfilled = new MultiStringCache(Arrays.asList(new GuavaCacheLayer(), upper));
+        backfilled.set("blocker", "b", 0);
+        backfilled.set("k", "old", 0);
+        backfilled.set("marker", "m", 0);
+
+        // 第一次回填阻塞回填线程，随后 k 的回填排在它后面
+        Assert.assertEquals("b", backfilled.getCache("blocker"));
+        Assert.assertEquals("old", backfilled.getCache("k"));
+        backfilled.delete("k");
+        release.countDown();
+        Assert.assertEquals("m", backfilled.getCache("marker"));
+        Assert.assertTrue(markerWritten.await(5, TimeUnit.SECONDS));
+
+        Assert.assertNull(upper.get("k"));
+        Assert.assertNull(backfilled.getCache("k"));
+        backfilled.shutdown();
+    }
+}
@@ -0,0 +1,56 @@
+package work.cxlm.filecase.cache;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.springframework.util.unit.DataSize;
+import work.cxlm.filecase.cache.config.MultiCacheProperties;
+
+/**
+ * 单测：堆外缓存层在固定内存内按写入顺序淘汰
+ * create 2021/5/10 15:40
+ *
+ * @author Chiru
+ */
+public class OffHeapCacheLayerTest {
+
+    @Test
+    public void evictsOldestWhenFull() {
+        MultiCacheProperties.LayerProperties spec = new MultiCacheProperties.LayerProperties();
+        spec.setMaxMemory(DataSize.ofBytes(1000));
+        spec.setSegments(1);
+        OffHeapCacheLayer layer = new OffHeapCacheLayer(spec);
+        String value = new String(new char[300]).replace('\0', 'x');
+        for (int i = 0; i < 5; i++) {
+            layer.put("k" + i, value + i);
+        }
+        // 1000 字节只能放下 3 个值，最早写入的两个被淘汰
+        Assert.assertNull(layer.get("k0"));
+        Assert.assertNull(layer.get("k1"));
+        Assert.assertEquals(value + 2, layer.get("k2"));
+        Assert.assertEquals(value + 4, layer.get("k4"));
+
+        layer.put("k2", "small");
+        Assert.assertEquals("small", layer.get("k2"));
+        layer.delete("k4");
+        Assert.assertNull(layer.get("k4"));
+        layer.clear();
+        Assert.assertNull(layer.get("k3"));
+    }
+
+    @Test
+    public void emptyValueDoesNotShieldOverwrittenEntries() {
+        MultiCacheProperties.LayerProperties spec = new MultiCacheProperties.LayerProperties();
+        spec.setMaxMemory(DataSize.ofBytes(1000));
+        spec.setSegments(1);
+        OffHeapCacheLayer layer = new OffHeapCacheLayer(spec);
+        String value = new String(new char[400]).replace('\0', 'x');
+        layer.put("empty", "");
+        layer.put("a", value + "a");
+        layer.put("b", value + "b");
+        // 回到段首写入，覆盖 a 所在的位置，a 必须被淘汰而不是读到 c 的内容
+        layer.put("c", value + "c");
+        Assert.assertNull(layer.get("a"));
+        Assert.assertEquals(value + "b", layer.get("b"));
+        Assert.assertEquals(value + "c", layer.get("c"));
+    }
+}
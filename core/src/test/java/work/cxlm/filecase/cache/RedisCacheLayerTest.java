@@ -0,0 +1,39 @@
+package work.cxlm.filecase.cache;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import work.cxlm.filecase.cache.config.MultiCacheProperties;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 单测：同步写入 null 与异步写入一样删除缓存项，未配置响应式客户端时异步写入沿用同步实现
+ * create 2021/5/24 9:40
+ *
+ * @author Chiru
+ */
+public class RedisCacheLayerTest {
+
+    @Test
+    public void putNullDeletes() {
+        MultiCacheProperties.LayerProperties spec = new MultiCacheProperties.LayerProperties();
+        spec.setGenerationRefreshInterval(Duration.ofHours(1));
+        spec.setSweepInterval(Duration.ofHours(1));
+        List<String> deleted = new ArrayList<>();
+        RedisCacheLayer layer = new RedisCacheLayer(new StringRedisTemplate(), spec) {
+            @Override
+            public void delete(String key) {
+                deleted.add(key);
+            }
+        };
+        layer.put("key", null);
+        Assert.assertEquals(Collections.singletonList("key"), deleted);
+
+        layer.putAsync("async", null).join();
+        Assert.assertEquals("async", deleted.get(1));
+    }
+}
@@ -0,0 +1,69 @@
+package work.cxlm.filecase.cache;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import work.cxlm.filecase.cache.config.MultiCacheProperties;
+
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 单测：键分布在两个分片上的异步批量读写在调用方完成合并，不会等待分片线程池中排队的任务
+ * create 2021/5/23 10:20
+ *
+ * @author Chiru
+ */
+public class ShardedRedisCacheLayerTest {
+
+    @Test
+    public void asyncBatchAcrossTwoShardsCompletes() throws Exception {
+        MultiCacheProperties.LayerProperties spec = new MultiCacheProperties.LayerProperties();
+        spec.setGenerationRefreshInterval(Duration.ofHours(1));
+        spec.setSweepInterval(Duration.ofHours(1));
+        Map<String, RedisCacheLayer> shards = new LinkedHashMap<>();
+        shards.put("s1", new InMemoryShard(spec));
+        shards.put("s2", new InMemoryShard(spec));
+        ShardedRedisCacheLayer layer = new ShardedRedisCacheLayer(spec, shards);
+        try {
+            Map<String, String> entries = new HashMap<>();
+            for (int i = 0; i < 20; i++) {
+                entries.put("FolderServiceImpl:0:" + i, "folder-" + i);
+            }
+            layer.putAllAsync(entries).get(5, TimeUnit.SECONDS);
+            for (RedisCacheLayer shard : layer.getShards()) {
+                Assert.assertFalse(((InMemoryShard) shard).store.isEmpty());
+            }
+
+            Map<String, String> values = layer.getAllAsync(entries.keySet()).get(5, TimeUnit.SECONDS);
+            Assert.assertEquals(entries, values);
+        } finally {
+            layer.shutdown();
+        }
+    }
+
+    /**
+     * 批量读写保存在内存中的分片，异步接口沿用父类的默认实现
+     */
+    private static class InMemoryShard extends RedisCacheLayer {
+
+        private final Map<String, String> store = new HashMap<>();
+
+        private InMemoryShard(MultiCacheProperties.LayerProperties spec) {
+            super(new StringRedisTemplate(), spec);
+        }
+
+        @Override
+        public synchronized Map<String, String> getAll(Collection<String> keys) {
+            Map<String, String> result = new HashMap<>();
+            keys.stream().filter(store::containsKey).forEach(key -> result.put(key, store.get(key)));
+            return result;
+        }
+
+        @Override
+        public synchronized void putAll(Map<String, String> entries) {
+            store.putAll(entries);
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package work.cxlm.filecase.lock;
+
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.annotation.Around;
+import org.aspectj.lang.annotation.Aspect;
+import org.aspectj.lang.reflect.MethodSignature;
+import org.junit.Assert;
+import org.junit.Test;
+import org.springframework.aop.aspectj.annotation.AspectJProxyFactory;
+import org.springframework.expression.spel.standard.SpelExpression;
+import work.cxlm.filecase.lock.helper.DsLockAspect;
+import work.cxlm.filecase.lock.helper.LockDescriptor;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 单测：加锁信息按方法解析一次，键名表达式编译后与解释执行的结果一致
+ * create 2021/5/22 15:10
+ *
+ * @author Chiru
+ */
+public class LockDescriptorTest {
+
+    @Test
+    public void lockKeysUseCompiledExpression() {
+        KeyRecorder recorder = new KeyRecorder(new DsLockAspect());
+        AspectJProxyFactory factory = new AspectJProxyFactory(new BoxService());
+        factory.setProxyTargetClass(true);
+        factory.addAspect(recorder);
+        BoxService service = factory.getProxy();
+
+        service.move(new Box(42), 7);
+        service.move(new Box(43), 7);
+        service.pack(1);
+        service.copy(new Box(44), 8);
+
+        Assert.assertEquals("lock.BoxService.move.42", recorder.keys.get(0));
+        Assert.assertEquals("lock.BoxService.move.43", recorder.keys.get(1));
+        Assert.assertTrue(recorder.keys.get(2).startsWith("lock.BoxService.pack."));
+        Assert.assertNotEquals("lock.BoxService.pack.", recorder.keys.get(2));
+        // 数字与字符串相加不能编译，解释执行
+        Assert.assertEquals("lock.BoxService.copy.44:8", recorder.keys.get(3));
+
+        // 同一个方法只解析一次
+        LockDescriptor move = recorder.descriptors.get(0);
+        Assert.assertSame(move, recorder.descriptors.get(1));
+        Assert.assertArrayEquals(new String[]{"box", "parentId"}, move.getParameterNames());
+        Assert.assertTrue(((SpelExpression) move.getExpression()).compileExpression());
+        Assert.assertNull(recorder.descriptors.get(2).getExpression());
+    }
+
+    /**
+     * 通过 DsLockAspect 取得加锁信息，只记录键名，不访问 redis
+     */
+    @Aspect
+    public static class KeyRecorder {
+
+        private final DsLockAspect lockAspect;
+        private final List<LockDescriptor> descriptors = new ArrayList<>();
+        private final List<String> keys = new ArrayList<>();
+
+        public KeyRecorder(DsLockAspect lockAspect) {
+            this.lockAspect = lockAspect;
+        }
+
+        @Around("@annotation(work.cxlm.filecase.lock.DsLock)")
+        public Object record(ProceedingJoinPoint point) throws Throwable {
+            LockDescriptor descriptor = lockAspect.descriptorOf((MethodSignature) point.getSignature());
+            descriptors.add(descriptor);
+            keys.add(descriptor.lockKey(point.getArgs()));
+            return point.proceed();
+        }
+    }
+
+    public static class BoxService {
+
+        @DsLock(name = "#box.id")
+        public void move(Box box, int parentId) {
+        }
+
+        @DsLock
+        public void pack(int boxId) {
+        }
+
+        @DsLock(name = "#box.id + ':' + #parentId")
+        public void copy(Box box, int parentId) {
+        }
+    }
+
+    public static class Box {
+
+        private final Integer id;
+
+        public Box(Integer id) {
+            this.id = id;
+        }
+
+        public Integer getId() {
+            return id;
+        }
+    }
+}
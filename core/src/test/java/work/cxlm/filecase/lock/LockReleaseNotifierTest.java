@@ -0,0 +1,72 @@
+package work.cxlm.filecase.lock;
+
+import org.junit.Assert;
+import org.junit.Test;
+import work.cxlm.filecase.lock.helper.LockReleaseNotifier;
+
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 单测：等待锁的线程在释放通知到达时立即重试，而不是等到下一次轮询
+ * create 2021/5/20 16:45
+ *
+ * @author Chiru
+ */
+public class LockReleaseNotifierTest {
+
+    private static final String LOCK_NAME = "lock.FolderService.rename.42";
+
+    @Test
+    public void waiterWakesUpOnRelease() throws InterruptedException {
+        // 轮询间隔远长于测试的等待时间，只有通知能让等待线程及时重试
+        LockReleaseNotifier notifier = new LockReleaseNotifier(null, Duration.ofSeconds(30));
+        AtomicBoolean locked = new AtomicBoolean(true);
+        AtomicInteger attempts = new AtomicInteger();
+        AtomicBoolean acquired = new AtomicBoolean(false);
+        CountDownLatch firstAttempt = new CountDownLatch(1);
+        Thread waiter = new Thread(() -> {
+            try {
+                acquired.set(notifier.await(LOCK_NAME, System.nanoTime() + TimeUnit.SECONDS.toNanos(10), () -> {
+                    attempts.incrementAndGet();
+                    firstAttempt.countDown();
+                    return locked.compareAndSet(false, true);
+                }));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        waiter.start();
+        Assert.assertTrue(firstAttempt.await(5, TimeUnit.SECONDS));
+
+        // 其它锁的释放不会唤醒它
+        notifier.released("lock.other");
+        long start = System.nanoTime();
+        locked.set(false);
+        notifier.released(LOCK_NAME);
+        waiter.join(TimeUnit.SECONDS.toMillis(5));
+
+        Assert.assertFalse(waiter.isAlive());
+        Assert.assertTrue(acquired.get());
+        Assert.assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(2));
+        Assert.assertTrue(attempts.get() <= 3);
+    }
+
+    @Test
+    public void waiterGivesUpAtDeadline() throws InterruptedException {
+        LockReleaseNotifier notifier = new LockReleaseNotifier(null, Duration.ofMillis(20));
+        AtomicInteger attempts = new AtomicInteger();
+        long start = System.nanoTime();
+        boolean acquired = notifier.await(LOCK_NAME, start + TimeUnit.MILLISECONDS.toNanos(200), () -> {
+            attempts.incrementAndGet();
+            return false;
+        });
+        Assert.assertFalse(acquired);
+        Assert.assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(200));
+        // 没有通知时按轮询间隔重试
+        Assert.assertTrue(attempts.get() >= 2);
+    }
+}
@@ -0,0 +1,63 @@
+package work.cxlm.filecase.lock;
+
+import org.junit.Assert;
+import org.junit.Test;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.exceptions.JedisNoScriptException;
+import work.cxlm.filecase.lock.helper.LockScript;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * 单测：脚本优先以 EVALSHA 执行，redis 未缓存时改用 EVAL；未指定前缀的锁以线程区分持有者
+ * create 2021/5/21 16:40
+ *
+ * @author Chiru
+ */
+public class LockScriptTest {
+
+    @Test
+    public void fallsBackToEvalWhenScriptIsNotCached() {
+        List<String> calls = new ArrayList<>();
+        Set<String> cached = new HashSet<>();
+        Jedis jedis = new Jedis() {
+            @Override
+            public Object evalsha(String sha1, List<String> keys, List<String> args) {
+                calls.add("evalsha");
+                if (!cached.contains(sha1)) {
+                    throw new JedisNoScriptException("NOSCRIPT No matching script. Please use EVAL.");
+                }
+                return 1L;
+            }
+
+            @Override
+            public Object eval(String script, List<String> keys, List<String> args) {
+                calls.add("eval");
+                Assert.assertEquals(LockScript.ACQUIRE.getScript(), script);
+                cached.add(LockScript.ACQUIRE.getSha1());
+                return 1L;
+            }
+        };
+        List<String> keys = Collections.singletonList("lock.FolderService.move.1");
+        List<String> args = Arrays.asList("6000", "owner");
+
+        Assert.assertEquals(1L, LockScript.ACQUIRE.eval(jedis, keys, args));
+        Assert.assertEquals(Arrays.asList("evalsha", "eval"), calls);
+        calls.clear();
+        Assert.assertEquals(1L, LockScript.ACQUIRE.eval(jedis, keys, args));
+        Assert.assertEquals(Collections.singletonList("evalsha"), calls);
+    }
+
+    @Test
+    public void defaultOwnerIsPerThread() throws InterruptedException {
+        RedisLock lock = new RedisLock("lock.FolderService.move.1");
+        AtomicReference<String> otherOwner = new AtomicReference<>();
+        Thread other = new Thread(() -> otherOwner.set(lock.getLockValue()));
+        other.start();
+        other.join();
+
+        Assert.assertEquals(lock.getLockValue(), lock.getLockValue());
+        Assert.assertNotEquals(lock.getLockValue(), otherOwner.get());
+    }
+}
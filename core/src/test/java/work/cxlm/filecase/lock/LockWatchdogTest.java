@@ -0,0 +1,75 @@
+package work.cxlm.filecase.lock;
+
+import org.junit.Assert;
+import org.junit.Test;
+import work.cxlm.filecase.lock.helper.LockWatchdog;
+
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 单测：看门狗每个周期一次性续期全部持有的锁，续期失败的锁不再续期
+ * create 2021/5/21 11:20
+ *
+ * @author Chiru
+ */
+public class LockWatchdogTest {
+
+    @Test
+    public void heldLocksAreRenewedTogether() throws InterruptedException {
+        List<Map<String, String>> batches = new CopyOnWriteArrayList<>();
+        Set<String> stolen = Collections.synchronizedSet(new HashSet<>());
+        LockWatchdog watchdog = new LockWatchdog(Duration.ofSeconds(3), Duration.ofMillis(20)) {
+            @Override
+            protected Collection<String> renew(Map<String, String> locks, long leaseMillis) {
+                Assert.assertEquals(3000, leaseMillis);
+                batches.add(locks);
+                List<String> lost = new ArrayList<>(locks.keySet());
+                lost.retainAll(stolen);
+                return lost;
+            }
+        };
+        try {
+            Assert.assertEquals(3, watchdog.getLeaseSeconds());
+            RedisLock move = new RedisLock("lock.FolderService.move.1");
+            RedisLock pack = new RedisLock("lock.FolderService.pack.2");
+            RedisLock rename = new RedisLock("lock.FolderService.rename.3");
+            watchdog.watch(move);
+            watchdog.watch(pack);
+            watchdog.watch(rename);
+            Map<String, String> batch = awaitBatch(batches);
+            Assert.assertEquals(3, batch.size());
+            Assert.assertEquals(move.getLockValue(), batch.get(move.getName()));
+
+            // 被其它节点持有的锁在下一个周期后不再续期，已解锁的锁立即不再续期
+            stolen.add(pack.getName());
+            watchdog.unwatch(rename);
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (watchdog.getWatchedCount() > 1 && System.nanoTime() < deadline) {
+                Thread.sleep(5);
+            }
+            Assert.assertEquals(1, watchdog.getWatchedCount());
+            batches.clear();
+            Assert.assertEquals(Collections.singleton(move.getName()), awaitBatch(batches).keySet());
+
+            watchdog.unwatch(move);
+            Thread.sleep(100);
+            batches.clear();
+            Thread.sleep(100);
+            Assert.assertTrue("没有持有的锁时不访问 redis", batches.isEmpty());
+        } finally {
+            watchdog.shutdown();
+        }
+    }
+
+    private static Map<String, String> awaitBatch(List<Map<String, String>> batches) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (batches.isEmpty() && System.nanoTime() < deadline) {
+            Thread.sleep(5);
+        }
+        Assert.assertFalse(batches.isEmpty());
+        return batches.get(batches.size() - 1);
+    }
+}
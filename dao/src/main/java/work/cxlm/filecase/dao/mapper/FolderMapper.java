@@ -0,0 +1,14 @@
+package work.cxlm.filecase.dao.mapper;
+
+import org.apache.ibatis.annotations.Mapper;
+import work.cxlm.filecase.dao.basemapper.BaseMapper;
+import work.cxlm.filecase.domain.Folder;
+
+/**
+ * create 2021/5/14 11:20
+ *
+ * @author Chiru
+ */
+@Mapper
+public interface FolderMapper extends BaseMapper<Folder> {
+}
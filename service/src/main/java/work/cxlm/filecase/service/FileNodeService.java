@@ -0,0 +1,12 @@
+package work.cxlm.filecase.service;
+
+import work.cxlm.filecase.domain.FileNode;
+import work.cxlm.filecase.service.base.BaseService;
+
+/**
+ * create 2021/5/14 11:24
+ *
+ * @author Chiru
+ */
+public interface FileNodeService extends BaseService<FileNode, Long> {
+}
@@ -5,16 +5,24 @@ import com.github.pagehelper.PageHelper;
 import com.github.pagehelper.PageInfo;
 import com.google.common.base.Joiner;
 import com.google.common.collect.Iterables;
+import org.springframework.core.GenericTypeResolver;
 import org.springframework.util.Assert;
 import tk.mybatis.mapper.entity.Example;
+import work.cxlm.filecase.cache.annotation.MultiCacheEvict;
+import work.cxlm.filecase.cache.annotation.MultiCacheable;
+import work.cxlm.filecase.cache.bloom.IdBloomFilter;
+import work.cxlm.filecase.cache.bloom.IdBloomFilterFactory;
 import work.cxlm.filecase.dao.basemapper.BaseMapper;
 import work.cxlm.filecase.domain.base.BaseModel;
 
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.stream.Collectors;
 
 /**
+ * 通用的增删改查，selectByPk 的结果缓存在 MultiStringCache 中，名称为实现类的类名，键为主键；
+ * 按主键修改、删除时删除对应的缓存，按条件修改、删除时该实现类的缓存整体失效
  * create 2021/4/1 17:29
  *
  * @author Chiru
@@ -23,25 +31,42 @@ public abstract class BaseServiceImpl<T extends BaseModel<PK>, PK extends Serial
 
     protected final BaseMapper<T> mapper;
 
+    protected final Class<T> entityClass;
+
+    /**
+     * 主键存在性过滤器，未启用时为 null
+     */
+    private volatile IdBloomFilter existenceFilter;
+
+    @SuppressWarnings("unchecked")
     protected BaseServiceImpl(BaseMapper<T> mapper) {
         this.mapper = mapper;
+        Class<?>[] typeArguments = GenericTypeResolver.resolveTypeArguments(getClass(), BaseServiceImpl.class);
+        this.entityClass = null == typeArguments ? null : (Class<T>) typeArguments[0];
     }
 
     @Override
+    @MultiCacheEvict(key = "#record.pk")
     public int insertSelective(T record) {
         Assert.notNull(record, "不能插入为 null 的记录");
         initDefaultValue(record);
-        return mapper.insertSelective(record);
+        int inserted = mapper.insertSelective(record);
+        recordInserted(record);
+        return inserted;
     }
 
     @Override
+    @MultiCacheEvict(key = "#record.pk")
     public int insert(T record) {
         Assert.notNull(record, "不能插入为 null 的记录");
         initDefaultValue(record);
-        return mapper.insert(record);
+        int inserted = mapper.insert(record);
+        recordInserted(record);
+        return inserted;
     }
 
     @Override
+    @MultiCacheEvict(key = "#records.![pk]")
     public int insertList(Iterable<T> records) {
         Assert.notNull(records, "要插入的列表不能为 null");
         List<T> list;
@@ -51,10 +76,13 @@ public abstract class BaseServiceImpl<T extends BaseModel<PK>, PK extends Serial
             list = new ArrayList<>(16);
             records.forEach(list::add);
         }
-        return mapper.insertList(list);
+        int inserted = mapper.insertList(list);
+        list.forEach(this::recordInserted);
+        return inserted;
     }
 
     @Override
+    @MultiCacheEvict(key = "#record.pk", beforeInvocation = true)
     public int update(T record) {
         Assert.notNull(record, "不能更新为 null 的实例");
         Assert.notNull(record.getPk(), "不能更新主键为 null 的记录");
@@ -62,6 +90,7 @@ public abstract class BaseServiceImpl<T extends BaseModel<PK>, PK extends Serial
     }
 
     @Override
+    @MultiCacheEvict(key = "#record.pk", beforeInvocation = true)
     public int updateUnchecked(T record) {
         Assert.notNull(record, "不能更新为 null 的实例");
         Assert.notNull(record.getPk(), "不能更新主键为 null 的记录");
@@ -69,6 +98,7 @@ public abstract class BaseServiceImpl<T extends BaseModel<PK>, PK extends Serial
     }
 
     @Override
+    @MultiCacheEvict(allEntries = true)
     public int updateByExample(T record, Example example) {
         Assert.notNull(record, "不能更新为 Null 的记录");
         Assert.notNull(example, "筛选条件不能为 Null");
@@ -76,6 +106,7 @@ public abstract class BaseServiceImpl<T extends BaseModel<PK>, PK extends Serial
     }
 
     @Override
+    @MultiCacheEvict(allEntries = true)
     public int updateUncheckedByExample(T record, Example example) {
         Assert.notNull(record, "不能更新为 Null 的记录");
         Assert.notNull(example, "筛选条件不能为 Null");
@@ -83,12 +114,14 @@ public abstract class BaseServiceImpl<T extends BaseModel<PK>, PK extends Serial
     }
 
     @Override
+    @MultiCacheEvict(key = "#pk")
     public int deleteByPk(PK pk) {
         Assert.notNull(pk, "主键不能为 null");
         return mapper.deleteByPrimaryKey(pk);
     }
 
     @Override
+    @MultiCacheEvict(key = "#pks")
     public int deleteByPks(Iterable<? extends PK> pks) {
         Assert.notNull(pks, "主键列表不能为 null");
         Assert.isTrue(!Iterables.isEmpty(pks), "必须指定至少一个主键");
@@ -97,28 +130,43 @@ public abstract class BaseServiceImpl<T extends BaseModel<PK>, PK extends Serial
     }
 
     @Override
+    @MultiCacheEvict(allEntries = true)
     public int delete(T param) {
         Assert.notNull(param, "筛选条件不能为 null");
         return mapper.delete(param);
     }
 
     @Override
+    @MultiCacheEvict(allEntries = true)
     public int deleteAll() {
         return mapper.delete(null);
     }
 
     @Override
+    @MultiCacheEvict(allEntries = true)
     public int deleteByExample(Example example) {
         Assert.notNull(example, "筛选条件不能为 null");
         return mapper.deleteByExample(example);
     }
 
     @Override
+    @MultiCacheable(key = "#pk", exists = "#target.mightExist(#pk)")
     public T selectByPk(PK pk) {
         Assert.notNull(pk, "主键不能为 null");
         return mapper.selectByPrimaryKey(pk);
     }
 
+    /**
+     * 主键是否可能存在，未启用主键过滤器时总是返回 true；selectByPk 以此拦截一定不存在的主键，不经过缓存与数据库
+     *
+     * @param pk 主键
+     * @return false 表示一定不存在
+     */
+    public boolean mightExist(PK pk) {
+        IdBloomFilter filter = existenceFilter;
+        return null == filter || filter.mightContain(pk);
+    }
+
     @Override
     public List<T> selectByPks(Iterable<? extends PK> pks) {
         Assert.notNull(pks, "主键不能为 null");
@@ -206,6 +254,49 @@ public abstract class BaseServiceImpl<T extends BaseModel<PK>, PK extends Serial
     }
 
 
+    /**
+     * 启用主键存在性过滤器，selectByPk 查询一定不存在的主键时直接返回 null，过滤器在后台按主键顺序分页重建
+     *
+     * @param factory 布隆过滤器工厂
+     * @param name    过滤器名称，一般为表名
+     */
+    protected void enableExistenceFilter(IdBloomFilterFactory factory, String name) {
+        Assert.notNull(entityClass, "无法解析实体类型，不能启用主键过滤器");
+        existenceFilter = factory.create(name, this::selectPksAfter);
+    }
+
+    /**
+     * 主键对应的实体属性名，用于重建过滤器时按主键分页
+     *
+     * @return 主键属性名
+     */
+    protected String pkProperty() {
+        return "id";
+    }
+
+    /**
+     * 按主键升序查询大于 lastPk 的一页主键，只查询主键列
+     */
+    private List<?> selectPksAfter(Object lastPk, int limit) {
+        Example example = new Example(entityClass);
+        example.selectProperties(pkProperty());
+        if (null != lastPk) {
+            example.createCriteria().andGreaterThan(pkProperty(), lastPk);
+        }
+        example.orderBy(pkProperty()).asc();
+        Page<T> page = PageHelper.offsetPage(0, limit, false).doSelectPage(
+                () -> mapper.selectByExample(example)
+        );
+        return page.stream().map(BaseModel::getPk).collect(Collectors.toList());
+    }
+
+    private void recordInserted(T record) {
+        IdBloomFilter filter = existenceFilter;
+        if (null != filter) {
+            filter.put(record.getPk());
+        }
+    }
+
     /**
      * 初始化需要初始化的字段
      *
@@ -0,0 +1,28 @@
+package work.cxlm.filecase.service.impl;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import work.cxlm.filecase.cache.bloom.IdBloomFilterFactory;
+import work.cxlm.filecase.dao.mapper.FileNodeMapper;
+import work.cxlm.filecase.domain.FileNode;
+import work.cxlm.filecase.service.FileNodeService;
+import work.cxlm.filecase.service.base.BaseServiceImpl;
+
+/**
+ * create 2021/5/14 11:26
+ *
+ * @author Chiru
+ */
+@Service
+@Slf4j
+public class FileNodeServiceImpl extends BaseServiceImpl<FileNode, Long> implements FileNodeService {
+
+    @Autowired
+    protected FileNodeServiceImpl(FileNodeMapper mapper, ObjectProvider<IdBloomFilterFactory> bloomFilterFactory) {
+        super(mapper);
+        bloomFilterFactory.ifAvailable(factory -> enableExistenceFilter(factory, "file-node"));
+    }
+
+}
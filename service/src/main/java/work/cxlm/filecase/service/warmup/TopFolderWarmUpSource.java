@@ -0,0 +1,50 @@
+package work.cxlm.filecase.service.warmup;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import tk.mybatis.mapper.entity.Example;
+import work.cxlm.filecase.cache.annotation.MultiCacheAspect;
+import work.cxlm.filecase.cache.warmup.CacheWarmUpSource;
+import work.cxlm.filecase.domain.Folder;
+import work.cxlm.filecase.service.FolderService;
+import work.cxlm.filecase.service.impl.FolderServiceImpl;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 预热顶层文件夹，写入 FolderService.selectByPk 的缓存
+ * create 2021/5/17 11:20
+ *
+ * @author Chiru
+ */
+@Component("topFolderWarmUpSource")
+public class TopFolderWarmUpSource implements CacheWarmUpSource {
+
+    private static final int MAX_FOLDERS = 1000;
+
+    private final FolderService folderService;
+    private final MultiCacheAspect multiCacheAspect;
+
+    @Autowired
+    public TopFolderWarmUpSource(FolderService folderService, MultiCacheAspect multiCacheAspect) {
+        this.folderService = folderService;
+        this.multiCacheAspect = multiCacheAspect;
+    }
+
+    @Override
+    public Map<String, ?> load() {
+        Example example = new Example(Folder.class);
+        example.createCriteria()
+                .andIsNull("parentFolderId")
+                .orEqualTo("parentFolderId", "");
+        List<Folder> folders = folderService.selectPageByExample(example, 1, MAX_FOLDERS);
+        String cacheName = FolderServiceImpl.class.getSimpleName();
+        Map<String, Folder> entries = new LinkedHashMap<>(folders.size() * 4 / 3 + 1);
+        for (Folder folder : folders) {
+            entries.put(multiCacheAspect.cacheKey(cacheName, folder.getId()), folder);
+        }
+        return entries;
+    }
+}
@@ -52,9 +52,9 @@ public class MultiStringCacheTest {
         String key2 = "key2";
         String val2 = "val2";
         multiStringCache.set(key2, val2, 0);
-        Assert.assertEquals(multiStringCache.getCache(key2), val2);
         Assert.assertEquals(multiStringCache.getFrom(key2, 0), val2);
         Assert.assertNull(multiStringCache.getFrom(key2, 1));
+        Assert.assertEquals(multiStringCache.getCache(key2), val2);
 
         // 设置在第 1 层，只有第 1 层有，第 0 层无，整体可以查到
         String key3 = "key3";
@@ -65,6 +65,18 @@ public class MultiStringCacheTest {
         Assert.assertNull(multiStringCache.getFrom(key3, 0));
 }
 
+    @Test
+    public void backfillTest() throws InterruptedException {
+        // 只在第 0 层命中时，值会被异步回填到第 1 层
+        String key1 = "key1";
+        String val1 = "val1";
+        multiStringCache.set(key1, val1, 0);
+        Assert.assertNull(multiStringCache.getFrom(key1, 1));
+        Assert.assertEquals(multiStringCache.getCache(key1), val1);
+        Thread.sleep(200);
+        Assert.assertEquals(multiStringCache.getFrom(key1, 1), val1);
+    }
+
     @Test
     public void getWithSupplierTest() {
         // 获取后，Supplier 被调用，val1 被设置到缓存
@@ -81,8 +93,8 @@ public class MultiStringCacheTest {
         multiStringCache.set(key1, val1);
         // 清除第一层后，整体能查到，第一层查不到
         multiStringCache.clearLayer(1);
-        Assert.assertEquals(multiStringCache.getCache(key1), val1);
         Assert.assertNull(multiStringCache.getFrom(key1, 1));
+        Assert.assertEquals(multiStringCache.getCache(key1), val1);
         // 清除第零层后，都没了
         multiStringCache.clearLayer(0);
         Assert.assertNull(multiStringCache.getCache(key1));